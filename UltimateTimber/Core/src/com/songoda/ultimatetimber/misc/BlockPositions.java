@@ -0,0 +1,51 @@
+package com.songoda.ultimatetimber.misc;
+
+/**
+ * Packs block coordinates into a single long so they can be stored in primitive collections
+ * Uses 26 bits for x and z and 12 bits for y, which covers every position inside the world border
+ */
+public class BlockPositions {
+
+    /**
+     * Packs the given block coordinates into a long
+     *
+     * @param x The block x coordinate
+     * @param y The block y coordinate
+     * @param z The block z coordinate
+     * @return The packed coordinates
+     */
+    public static long pack(int x, int y, int z) {
+        return ((long) (x & 0x3FFFFFF) << 38) | ((long) (z & 0x3FFFFFF) << 12) | (y & 0xFFF);
+    }
+
+    /**
+     * Gets the x coordinate of packed coordinates
+     *
+     * @param key The packed coordinates
+     * @return The block x coordinate
+     */
+    public static int unpackX(long key) {
+        return (int) (key >> 38);
+    }
+
+    /**
+     * Gets the y coordinate of packed coordinates
+     *
+     * @param key The packed coordinates
+     * @return The block y coordinate
+     */
+    public static int unpackY(long key) {
+        return (int) (key << 52 >> 52);
+    }
+
+    /**
+     * Gets the z coordinate of packed coordinates
+     *
+     * @param key The packed coordinates
+     * @return The block z coordinate
+     */
+    public static int unpackZ(long key) {
+        return (int) (key << 26 >> 38);
+    }
+
+}
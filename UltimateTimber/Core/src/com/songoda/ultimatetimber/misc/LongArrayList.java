@@ -0,0 +1,76 @@
+package com.songoda.ultimatetimber.misc;
+
+import java.util.Arrays;
+
+/**
+ * A growable list of primitive longs
+ */
+public class LongArrayList {
+
+    private long[] elements;
+    private int size;
+
+    public LongArrayList() {
+        this(16);
+    }
+
+    public LongArrayList(int initialCapacity) {
+        this.elements = new long[Math.max(1, initialCapacity)];
+    }
+
+    /**
+     * Adds a value to the end of this list
+     *
+     * @param value The value to add
+     */
+    public void add(long value) {
+        if (this.size == this.elements.length)
+            this.elements = Arrays.copyOf(this.elements, this.size << 1);
+        this.elements[this.size++] = value;
+    }
+
+    /**
+     * Gets the value at an index
+     *
+     * @param index The index
+     * @return The value at the index
+     */
+    public long get(int index) {
+        if (index >= this.size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + this.size);
+        return this.elements[index];
+    }
+
+    /**
+     * @return The number of values in this list
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @return True if this list has no values, otherwise false
+     */
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * Removes all values from this list
+     */
+    public void clear() {
+        this.size = 0;
+    }
+
+    /**
+     * Reverses the order of the values in this list
+     */
+    public void reverse() {
+        for (int i = 0, j = this.size - 1; i < j; i++, j--) {
+            long value = this.elements[i];
+            this.elements[i] = this.elements[j];
+            this.elements[j] = value;
+        }
+    }
+
+}
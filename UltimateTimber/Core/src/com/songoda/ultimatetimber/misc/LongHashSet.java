@@ -0,0 +1,200 @@
+package com.songoda.ultimatetimber.misc;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * An open addressing hash set of primitive longs
+ * Avoids boxing every key, which matters when tracking thousands of packed block positions
+ */
+public class LongHashSet {
+
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final float LOAD_FACTOR = 0.5F;
+
+    private long[] keys;
+    private int mask;
+    private int size;
+    private int resizeAt;
+    private boolean containsEmptyKey;
+
+    public LongHashSet() {
+        this(16);
+    }
+
+    public LongHashSet(int expectedSize) {
+        this.allocate(tableSizeFor(expectedSize));
+    }
+
+    /**
+     * Adds a key to this set
+     *
+     * @param key The key to add
+     * @return True if the key was not already in the set, otherwise false
+     */
+    public boolean add(long key) {
+        if (key == EMPTY) {
+            if (this.containsEmptyKey)
+                return false;
+            this.containsEmptyKey = true;
+            this.size++;
+            return true;
+        }
+
+        int index = mix(key) & this.mask;
+        long existing;
+        while ((existing = this.keys[index]) != EMPTY) {
+            if (existing == key)
+                return false;
+            index = (index + 1) & this.mask;
+        }
+
+        this.keys[index] = key;
+        if (++this.size >= this.resizeAt)
+            this.rehash(this.keys.length << 1);
+        return true;
+    }
+
+    /**
+     * Checks if a key is in this set
+     *
+     * @param key The key to check
+     * @return True if the key is in the set, otherwise false
+     */
+    public boolean contains(long key) {
+        if (key == EMPTY)
+            return this.containsEmptyKey;
+
+        int index = mix(key) & this.mask;
+        long existing;
+        while ((existing = this.keys[index]) != EMPTY) {
+            if (existing == key)
+                return true;
+            index = (index + 1) & this.mask;
+        }
+        return false;
+    }
+
+    /**
+     * Removes a key from this set
+     *
+     * @param key The key to remove
+     * @return True if the key was removed, otherwise false
+     */
+    public boolean remove(long key) {
+        if (key == EMPTY) {
+            if (!this.containsEmptyKey)
+                return false;
+            this.containsEmptyKey = false;
+            this.size--;
+            return true;
+        }
+
+        int index = mix(key) & this.mask;
+        long existing;
+        while ((existing = this.keys[index]) != EMPTY) {
+            if (existing == key) {
+                this.shiftKeys(index);
+                this.size--;
+                return true;
+            }
+            index = (index + 1) & this.mask;
+        }
+        return false;
+    }
+
+    /**
+     * Runs an action for every key in this set
+     * The action must not add or remove keys
+     *
+     * @param action The action to run
+     */
+    public void forEach(LongConsumer action) {
+        if (this.containsEmptyKey)
+            action.accept(EMPTY);
+        for (long key : this.keys)
+            if (key != EMPTY)
+                action.accept(key);
+    }
+
+    /**
+     * @return The number of keys in this set
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @return True if this set has no keys, otherwise false
+     */
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * Removes all keys from this set
+     */
+    public void clear() {
+        Arrays.fill(this.keys, EMPTY);
+        this.containsEmptyKey = false;
+        this.size = 0;
+    }
+
+    /**
+     * Closes the gap left by a removed key so linear probing keeps finding the keys after it
+     */
+    private void shiftKeys(int gap) {
+        int index = gap;
+        while (true) {
+            index = (index + 1) & this.mask;
+            long key = this.keys[index];
+            if (key == EMPTY)
+                break;
+
+            int ideal = mix(key) & this.mask;
+            if (((index - ideal) & this.mask) >= ((index - gap) & this.mask)) {
+                this.keys[gap] = key;
+                gap = index;
+            }
+        }
+        this.keys[gap] = EMPTY;
+    }
+
+    private void rehash(int newCapacity) {
+        long[] oldKeys = this.keys;
+        this.allocate(newCapacity);
+        for (long key : oldKeys) {
+            if (key == EMPTY)
+                continue;
+            int index = mix(key) & this.mask;
+            while (this.keys[index] != EMPTY)
+                index = (index + 1) & this.mask;
+            this.keys[index] = key;
+        }
+    }
+
+    private void allocate(int capacity) {
+        this.keys = new long[capacity];
+        Arrays.fill(this.keys, EMPTY);
+        this.mask = capacity - 1;
+        this.resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    static int mix(long key) {
+        long hash = key;
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return (int) hash;
+    }
+
+    static int tableSizeFor(int expectedSize) {
+        int capacity = 16;
+        while (capacity * LOAD_FACTOR <= expectedSize)
+            capacity <<= 1;
+        return capacity;
+    }
+
+}
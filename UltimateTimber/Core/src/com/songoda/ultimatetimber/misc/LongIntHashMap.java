@@ -0,0 +1,204 @@
+package com.songoda.ultimatetimber.misc;
+
+import java.util.Arrays;
+
+/**
+ * An open addressing hash map from primitive longs to primitive ints
+ */
+public class LongIntHashMap {
+
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final float LOAD_FACTOR = 0.5F;
+
+    private final int defaultValue;
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+    private int resizeAt;
+    private boolean containsEmptyKey;
+    private int emptyKeyValue;
+
+    /**
+     * @param defaultValue The value returned by {@link #get(long)} for keys that are not in the map
+     */
+    public LongIntHashMap(int defaultValue) {
+        this(defaultValue, 16);
+    }
+
+    public LongIntHashMap(int defaultValue, int expectedSize) {
+        this.defaultValue = defaultValue;
+        this.allocate(LongHashSet.tableSizeFor(expectedSize));
+    }
+
+    /**
+     * Gets the value for a key
+     *
+     * @param key The key
+     * @return The value, or the default value if the key is not in the map
+     */
+    public int get(long key) {
+        if (key == EMPTY)
+            return this.containsEmptyKey ? this.emptyKeyValue : this.defaultValue;
+
+        int index = LongHashSet.mix(key) & this.mask;
+        long existing;
+        while ((existing = this.keys[index]) != EMPTY) {
+            if (existing == key)
+                return this.values[index];
+            index = (index + 1) & this.mask;
+        }
+        return this.defaultValue;
+    }
+
+    /**
+     * Checks if a key is in this map
+     *
+     * @param key The key to check
+     * @return True if the key is in the map, otherwise false
+     */
+    public boolean containsKey(long key) {
+        if (key == EMPTY)
+            return this.containsEmptyKey;
+
+        int index = LongHashSet.mix(key) & this.mask;
+        long existing;
+        while ((existing = this.keys[index]) != EMPTY) {
+            if (existing == key)
+                return true;
+            index = (index + 1) & this.mask;
+        }
+        return false;
+    }
+
+    /**
+     * Sets the value for a key
+     *
+     * @param key   The key
+     * @param value The value
+     * @return The previous value, or the default value if the key was not in the map
+     */
+    public int put(long key, int value) {
+        if (key == EMPTY) {
+            int previous = this.containsEmptyKey ? this.emptyKeyValue : this.defaultValue;
+            if (!this.containsEmptyKey) {
+                this.containsEmptyKey = true;
+                this.size++;
+            }
+            this.emptyKeyValue = value;
+            return previous;
+        }
+
+        int index = LongHashSet.mix(key) & this.mask;
+        long existing;
+        while ((existing = this.keys[index]) != EMPTY) {
+            if (existing == key) {
+                int previous = this.values[index];
+                this.values[index] = value;
+                return previous;
+            }
+            index = (index + 1) & this.mask;
+        }
+
+        this.keys[index] = key;
+        this.values[index] = value;
+        if (++this.size >= this.resizeAt)
+            this.rehash(this.keys.length << 1);
+        return this.defaultValue;
+    }
+
+    /**
+     * Removes a key from this map
+     *
+     * @param key The key to remove
+     * @return The removed value, or the default value if the key was not in the map
+     */
+    public int remove(long key) {
+        if (key == EMPTY) {
+            if (!this.containsEmptyKey)
+                return this.defaultValue;
+            this.containsEmptyKey = false;
+            this.size--;
+            return this.emptyKeyValue;
+        }
+
+        int index = LongHashSet.mix(key) & this.mask;
+        long existing;
+        while ((existing = this.keys[index]) != EMPTY) {
+            if (existing == key) {
+                int previous = this.values[index];
+                this.shiftKeys(index);
+                this.size--;
+                return previous;
+            }
+            index = (index + 1) & this.mask;
+        }
+        return this.defaultValue;
+    }
+
+    /**
+     * @return The number of keys in this map
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @return True if this map has no keys, otherwise false
+     */
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * Removes all keys from this map
+     */
+    public void clear() {
+        Arrays.fill(this.keys, EMPTY);
+        this.containsEmptyKey = false;
+        this.size = 0;
+    }
+
+    private void shiftKeys(int gap) {
+        int index = gap;
+        while (true) {
+            index = (index + 1) & this.mask;
+            long key = this.keys[index];
+            if (key == EMPTY)
+                break;
+
+            int ideal = LongHashSet.mix(key) & this.mask;
+            if (((index - ideal) & this.mask) >= ((index - gap) & this.mask)) {
+                this.keys[gap] = key;
+                this.values[gap] = this.values[index];
+                gap = index;
+            }
+        }
+        this.keys[gap] = EMPTY;
+    }
+
+    private void rehash(int newCapacity) {
+        long[] oldKeys = this.keys;
+        int[] oldValues = this.values;
+        this.allocate(newCapacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            long key = oldKeys[i];
+            if (key == EMPTY)
+                continue;
+            int index = LongHashSet.mix(key) & this.mask;
+            while (this.keys[index] != EMPTY)
+                index = (index + 1) & this.mask;
+            this.keys[index] = key;
+            this.values[index] = oldValues[i];
+        }
+    }
+
+    private void allocate(int capacity) {
+        this.keys = new long[capacity];
+        this.values = new int[capacity];
+        Arrays.fill(this.keys, EMPTY);
+        this.mask = capacity - 1;
+        this.resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+}
@@ -0,0 +1,219 @@
+package com.songoda.ultimatetimber.misc;
+
+import java.util.Arrays;
+
+/**
+ * An open addressing hash map from primitive longs to objects
+ * Null values are not allowed, {@link #get(long)} returns null for keys that are not in the map
+ */
+public class LongObjectHashMap<V> {
+
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final float LOAD_FACTOR = 0.5F;
+
+    private long[] keys;
+    private Object[] values;
+    private int mask;
+    private int size;
+    private int resizeAt;
+    private Object emptyKeyValue;
+
+    public LongObjectHashMap() {
+        this(16);
+    }
+
+    public LongObjectHashMap(int expectedSize) {
+        this.allocate(LongHashSet.tableSizeFor(expectedSize));
+    }
+
+    /**
+     * Gets the value for a key
+     *
+     * @param key The key
+     * @return The value, or null if the key is not in the map
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        if (key == EMPTY)
+            return (V) this.emptyKeyValue;
+
+        int index = LongHashSet.mix(key) & this.mask;
+        long existing;
+        while ((existing = this.keys[index]) != EMPTY) {
+            if (existing == key)
+                return (V) this.values[index];
+            index = (index + 1) & this.mask;
+        }
+        return null;
+    }
+
+    /**
+     * Checks if a key is in this map
+     *
+     * @param key The key to check
+     * @return True if the key is in the map, otherwise false
+     */
+    public boolean containsKey(long key) {
+        return this.get(key) != null;
+    }
+
+    /**
+     * Sets the value for a key
+     *
+     * @param key   The key
+     * @param value The value, must not be null
+     * @return The previous value, or null if the key was not in the map
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (value == null)
+            throw new NullPointerException("Null values are not allowed");
+
+        if (key == EMPTY) {
+            V previous = (V) this.emptyKeyValue;
+            if (previous == null)
+                this.size++;
+            this.emptyKeyValue = value;
+            return previous;
+        }
+
+        int index = LongHashSet.mix(key) & this.mask;
+        long existing;
+        while ((existing = this.keys[index]) != EMPTY) {
+            if (existing == key) {
+                V previous = (V) this.values[index];
+                this.values[index] = value;
+                return previous;
+            }
+            index = (index + 1) & this.mask;
+        }
+
+        this.keys[index] = key;
+        this.values[index] = value;
+        if (++this.size >= this.resizeAt)
+            this.rehash(this.keys.length << 1);
+        return null;
+    }
+
+    /**
+     * Removes a key from this map
+     *
+     * @param key The key to remove
+     * @return The removed value, or null if the key was not in the map
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        if (key == EMPTY) {
+            V previous = (V) this.emptyKeyValue;
+            if (previous != null)
+                this.size--;
+            this.emptyKeyValue = null;
+            return previous;
+        }
+
+        int index = LongHashSet.mix(key) & this.mask;
+        long existing;
+        while ((existing = this.keys[index]) != EMPTY) {
+            if (existing == key) {
+                V previous = (V) this.values[index];
+                this.shiftKeys(index);
+                this.size--;
+                return previous;
+            }
+            index = (index + 1) & this.mask;
+        }
+        return null;
+    }
+
+    /**
+     * Runs an action for every entry in this map
+     * The action must not add or remove keys
+     *
+     * @param action The action to run
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(EntryConsumer<? super V> action) {
+        if (this.emptyKeyValue != null)
+            action.accept(EMPTY, (V) this.emptyKeyValue);
+        for (int i = 0; i < this.keys.length; i++)
+            if (this.keys[i] != EMPTY)
+                action.accept(this.keys[i], (V) this.values[i]);
+    }
+
+    /**
+     * @return The number of keys in this map
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @return True if this map has no keys, otherwise false
+     */
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * Removes all keys from this map
+     */
+    public void clear() {
+        Arrays.fill(this.keys, EMPTY);
+        Arrays.fill(this.values, null);
+        this.emptyKeyValue = null;
+        this.size = 0;
+    }
+
+    private void shiftKeys(int gap) {
+        int index = gap;
+        while (true) {
+            index = (index + 1) & this.mask;
+            long key = this.keys[index];
+            if (key == EMPTY)
+                break;
+
+            int ideal = LongHashSet.mix(key) & this.mask;
+            if (((index - ideal) & this.mask) >= ((index - gap) & this.mask)) {
+                this.keys[gap] = key;
+                this.values[gap] = this.values[index];
+                gap = index;
+            }
+        }
+        this.keys[gap] = EMPTY;
+        this.values[gap] = null;
+    }
+
+    private void rehash(int newCapacity) {
+        long[] oldKeys = this.keys;
+        Object[] oldValues = this.values;
+        this.allocate(newCapacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            long key = oldKeys[i];
+            if (key == EMPTY)
+                continue;
+            int index = LongHashSet.mix(key) & this.mask;
+            while (this.keys[index] != EMPTY)
+                index = (index + 1) & this.mask;
+            this.keys[index] = key;
+            this.values[index] = oldValues[i];
+        }
+    }
+
+    private void allocate(int capacity) {
+        this.keys = new long[capacity];
+        this.values = new Object[capacity];
+        Arrays.fill(this.keys, EMPTY);
+        this.mask = capacity - 1;
+        this.resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    /**
+     * An action run for an entry of a LongObjectHashMap
+     */
+    public interface EntryConsumer<V> {
+
+        void accept(long key, V value);
+
+    }
+
+}
@@ -28,4 +28,14 @@ public class FallingTreeBlock implements ITreeBlock<FallingBlock> {
         return this.treeBlockType;
     }
 
+    /**
+     * Falling blocks move every tick, so they are keyed by their entity id instead of their position
+     *
+     * @return The entity id of the FallingBlock
+     */
+    @Override
+    public long getKey() {
+        return this.fallingBlock.getEntityId();
+    }
+
 }
@@ -1,6 +1,8 @@
 package com.songoda.ultimatetimber.tree;
 
+import com.songoda.ultimatetimber.misc.BlockPositions;
 import org.bukkit.Location;
+import org.bukkit.World;
 
 public interface ITreeBlock<BlockType> {
 
@@ -25,4 +27,50 @@ public interface ITreeBlock<BlockType> {
      */
     TreeBlockType getTreeBlockType();
 
+    /**
+     * Gets the world this TreeBlock is in
+     *
+     * @return The World of this TreeBlock
+     */
+    default World getWorld() {
+        return this.getLocation().getWorld();
+    }
+
+    /**
+     * Gets the block x coordinate of this TreeBlock
+     *
+     * @return The block x coordinate
+     */
+    default int getBlockX() {
+        return this.getLocation().getBlockX();
+    }
+
+    /**
+     * Gets the block y coordinate of this TreeBlock
+     *
+     * @return The block y coordinate
+     */
+    default int getBlockY() {
+        return this.getLocation().getBlockY();
+    }
+
+    /**
+     * Gets the block z coordinate of this TreeBlock
+     *
+     * @return The block z coordinate
+     */
+    default int getBlockZ() {
+        return this.getLocation().getBlockZ();
+    }
+
+    /**
+     * Gets a key that identifies this TreeBlock in a TreeBlockSet
+     * Two TreeBlocks in the same set must never share a key
+     *
+     * @return The packed block coordinates of this TreeBlock
+     */
+    default long getKey() {
+        return BlockPositions.pack(this.getBlockX(), this.getBlockY(), this.getBlockZ());
+    }
+
 }
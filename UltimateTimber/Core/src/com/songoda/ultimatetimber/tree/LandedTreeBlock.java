@@ -0,0 +1,37 @@
+package com.songoda.ultimatetimber.tree;
+
+import org.bukkit.Location;
+import org.bukkit.block.data.BlockData;
+
+/**
+ * A block of a tree that has landed somewhere without being placed there, such as a block shown by a display entity
+ * It is only used to resolve the landing, so it is made of the BlockData the block had
+ */
+public class LandedTreeBlock implements ITreeBlock<BlockData> {
+
+    private final BlockData blockData;
+    private final Location location;
+    private final TreeBlockType treeBlockType;
+
+    public LandedTreeBlock(BlockData blockData, Location location, TreeBlockType treeBlockType) {
+        this.blockData = blockData;
+        this.location = location;
+        this.treeBlockType = treeBlockType;
+    }
+
+    @Override
+    public BlockData getBlock() {
+        return this.blockData;
+    }
+
+    @Override
+    public Location getLocation() {
+        return this.location.clone();
+    }
+
+    @Override
+    public TreeBlockType getTreeBlockType() {
+        return this.treeBlockType;
+    }
+
+}
@@ -1,28 +1,44 @@
 package com.songoda.ultimatetimber.tree;
 
+import com.songoda.ultimatetimber.misc.BlockPositions;
 import org.bukkit.Location;
+import org.bukkit.World;
 import org.bukkit.block.Block;
 
-import java.util.Objects;
-
+/**
+ * A block of a tree, stored as a world and block coordinates
+ * The Bukkit Block is only looked up once something needs it
+ */
 public class TreeBlock implements ITreeBlock<Block> {
 
-    private final Block block;
+    private final World world;
+    private final int x, y, z;
     private final TreeBlockType treeBlockType;
+    private Block block;
 
     public TreeBlock(Block block, TreeBlockType treeBlockType) {
+        this(block.getWorld(), block.getX(), block.getY(), block.getZ(), treeBlockType);
         this.block = block;
+    }
+
+    public TreeBlock(World world, int x, int y, int z, TreeBlockType treeBlockType) {
+        this.world = world;
+        this.x = x;
+        this.y = y;
+        this.z = z;
         this.treeBlockType = treeBlockType;
     }
 
     @Override
     public Block getBlock() {
+        if (this.block == null)
+            this.block = this.world.getBlockAt(this.x, this.y, this.z);
         return this.block;
     }
 
     @Override
     public Location getLocation() {
-        return this.block.getLocation();
+        return new Location(this.world, this.x, this.y, this.z);
     }
 
     @Override
@@ -30,9 +46,34 @@ public class TreeBlock implements ITreeBlock<Block> {
         return this.treeBlockType;
     }
 
+    @Override
+    public World getWorld() {
+        return this.world;
+    }
+
+    @Override
+    public int getBlockX() {
+        return this.x;
+    }
+
+    @Override
+    public int getBlockY() {
+        return this.y;
+    }
+
+    @Override
+    public int getBlockZ() {
+        return this.z;
+    }
+
+    @Override
+    public long getKey() {
+        return BlockPositions.pack(this.x, this.y, this.z);
+    }
+
     @Override
     public int hashCode() {
-        return Objects.hash(this.block, this.treeBlockType);
+        return 31 * Long.hashCode(this.getKey()) + this.treeBlockType.hashCode();
     }
 
     @Override
@@ -40,7 +81,8 @@ public class TreeBlock implements ITreeBlock<Block> {
         if (!(o instanceof TreeBlock)) return false;
         if (o == this) return true;
         TreeBlock oTreeBlock = (TreeBlock)o;
-        return oTreeBlock.block.equals(this.block) && oTreeBlock.treeBlockType.equals(this.treeBlockType);
+        return oTreeBlock.x == this.x && oTreeBlock.y == this.y && oTreeBlock.z == this.z
+                && oTreeBlock.treeBlockType.equals(this.treeBlockType) && oTreeBlock.world.equals(this.world);
     }
 
 }
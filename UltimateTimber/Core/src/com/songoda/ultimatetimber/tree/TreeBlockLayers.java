@@ -0,0 +1,133 @@
+package com.songoda.ultimatetimber.tree;
+
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * A snapshot of tree blocks ordered by height, lowest first
+ * Built with a counting sort over the heights of the blocks and read back with a cursor,
+ * so blocks can be taken layer by layer without sorting or shifting lists
+ */
+public class TreeBlockLayers<BlockType> {
+
+    private final ITreeBlock<BlockType>[] treeBlocks;
+    private final int[] layerEnds;
+    private int cursor;
+    private int layer;
+
+    @SuppressWarnings("unchecked")
+    TreeBlockLayers(ITreeBlock<BlockType>[] unorderedTreeBlocks, int size) {
+        this.treeBlocks = new ITreeBlock[size];
+        if (size == 0) {
+            this.layerEnds = new int[0];
+            return;
+        }
+
+        int minY = Integer.MAX_VALUE, maxY = Integer.MIN_VALUE;
+        for (int i = 0; i < size; i++) {
+            int y = unorderedTreeBlocks[i].getBlockY();
+            minY = Math.min(minY, y);
+            maxY = Math.max(maxY, y);
+        }
+
+        // Count the blocks in each layer, then turn the counts into the index each layer starts at
+        int[] starts = new int[maxY - minY + 2];
+        for (int i = 0; i < size; i++)
+            starts[unorderedTreeBlocks[i].getBlockY() - minY + 1]++;
+
+        int layerCount = 0;
+        for (int i = 1; i < starts.length; i++) {
+            if (starts[i] != 0)
+                layerCount++;
+            starts[i] += starts[i - 1];
+        }
+
+        this.layerEnds = new int[layerCount];
+        for (int i = 1, layer = 0; i < starts.length; i++)
+            if (starts[i] != starts[i - 1])
+                this.layerEnds[layer++] = starts[i];
+
+        // Keeps the original order of blocks within a layer
+        for (int i = 0; i < size; i++) {
+            ITreeBlock<BlockType> treeBlock = unorderedTreeBlocks[i];
+            this.treeBlocks[starts[treeBlock.getBlockY() - minY]++] = treeBlock;
+        }
+    }
+
+    /**
+     * Gets the number of blocks in these layers
+     *
+     * @return The number of blocks
+     */
+    public int size() {
+        return this.treeBlocks.length;
+    }
+
+    /**
+     * Gets the number of distinct heights in these layers
+     *
+     * @return The number of layers
+     */
+    public int getLayerCount() {
+        return this.layerEnds.length;
+    }
+
+    /**
+     * Gets a block by its position in height order, regardless of the cursor
+     *
+     * @param index The position of the block
+     * @return The TreeBlock at the position
+     */
+    public ITreeBlock<BlockType> get(int index) {
+        return this.treeBlocks[index];
+    }
+
+    /**
+     * Checks if the cursor has any blocks left
+     *
+     * @return True if there are blocks left, otherwise false
+     */
+    public boolean hasNext() {
+        return this.cursor < this.treeBlocks.length;
+    }
+
+    /**
+     * Moves the cursor past the next lowest block
+     *
+     * @return The next lowest TreeBlock
+     */
+    public ITreeBlock<BlockType> next() {
+        if (!this.hasNext())
+            throw new NoSuchElementException();
+        return this.treeBlocks[this.cursor++];
+    }
+
+    /**
+     * Gets how many blocks the cursor has left in the layer it is currently on
+     *
+     * @return The number of blocks left in the current layer, or 0 if there are no blocks left
+     */
+    public int getRemainingInLayer() {
+        while (this.layer < this.layerEnds.length && this.layerEnds[this.layer] <= this.cursor)
+            this.layer++;
+        return this.layer < this.layerEnds.length ? this.layerEnds[this.layer] - this.cursor : 0;
+    }
+
+    /**
+     * Shuffles the blocks within each layer, keeping the layers themselves in height order
+     * Should be called before the cursor is used
+     *
+     * @param random The Random to shuffle with
+     */
+    public void shuffleLayers(Random random) {
+        for (int layer = 0, start = 0; layer < this.layerEnds.length; start = this.layerEnds[layer++]) {
+            for (int i = this.layerEnds[layer] - 1; i > start; i--) {
+                int j = start + random.nextInt(i - start + 1);
+                ITreeBlock<BlockType> treeBlock = this.treeBlocks[i];
+                this.treeBlocks[i] = this.treeBlocks[j];
+                this.treeBlocks[j] = treeBlock;
+            }
+        }
+    }
+
+}
@@ -1,36 +1,59 @@
 package com.songoda.ultimatetimber.tree;
 
-import org.bukkit.block.Block;
+import com.songoda.ultimatetimber.misc.LongIntHashMap;
 
+import java.util.AbstractSequentialList;
+import java.util.AbstractSet;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.ConcurrentModificationException;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.ListIterator;
+import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
 
+/**
+ * Holds the logs and leaves of a tree
+ * Blocks are stored in insertion order in a dense array with a type tag per slot, and indexed by their key
+ * so contains and remove don't have to scan the whole tree
+ *
+ * Blocks only move slots when the array is compacted while adding, so blocks can safely be removed
+ * while iterating over any of the views or while inside of a forEachTreeBlock call
+ */
 public class TreeBlockSet<BlockType> implements Collection {
 
+    private static final byte REMOVED = 0, LOG = 1, LEAF = 2, ANY = -1;
+
     private final ITreeBlock<BlockType> initialLogBlock;
-    private List<ITreeBlock<BlockType>> logBlocks;
-    private final List<ITreeBlock<BlockType>> leafBlocks;
+    private final LongIntHashMap indices;
+    private final List<ITreeBlock<BlockType>> logBlocks, leafBlocks;
+    private final Set<ITreeBlock<BlockType>> allTreeBlocks;
+    private ITreeBlock<BlockType>[] treeBlocks;
+    private byte[] types;
+    private int end;
+    private int logCount, leafCount;
+    private int relocations;
 
     public TreeBlockSet() {
-        this.initialLogBlock = null;
-        this.logBlocks = new LinkedList<>();
-        this.leafBlocks = new LinkedList<>();
+        this(null);
     }
 
+    @SuppressWarnings("unchecked")
     public TreeBlockSet(ITreeBlock<BlockType> initialLogBlock) {
         this.initialLogBlock = initialLogBlock;
-        this.logBlocks = new LinkedList<>();
-        this.leafBlocks = new LinkedList<>();
+        this.indices = new LongIntHashMap(-1);
+        this.logBlocks = new TypeView(LOG);
+        this.leafBlocks = new TypeView(LEAF);
+        this.allTreeBlocks = new AllView();
+        this.treeBlocks = new ITreeBlock[16];
+        this.types = new byte[16];
 
         if (initialLogBlock != null)
-            this.logBlocks.add(initialLogBlock);
+            this.add(initialLogBlock);
     }
 
     /**
@@ -45,83 +68,132 @@ public class TreeBlockSet<BlockType> implements Collection {
     /**
      * Gets all logs in this TreeBlockSet
      *
-     * @return A Set of TreeBlocks
+     * @return A live unmodifiable List of TreeBlocks
      */
     public List<ITreeBlock<BlockType>> getLogBlocks() {
-        return Collections.unmodifiableList(this.logBlocks);
+        return this.logBlocks;
     }
 
     /**
      * Gets all leaves in this TreeBlockSet
      *
-     * @return A Set of TreeBlocks
+     * @return A live unmodifiable List of TreeBlocks
      */
     public List<ITreeBlock<BlockType>> getLeafBlocks() {
-        return Collections.unmodifiableList(this.leafBlocks);
+        return this.leafBlocks;
     }
 
     /**
      * Gets all blocks in this TreeBlockSet
+     * The returned Set is a copy, so it can be changed and this TreeBlockSet can be changed while iterating over it
      *
      * @return A Set of all TreeBlocks
      */
     public Set<ITreeBlock<BlockType>> getAllTreeBlocks() {
-        Set<ITreeBlock<BlockType>> treeBlocks = new HashSet<>();
-        treeBlocks.addAll(this.logBlocks);
-        treeBlocks.addAll(this.leafBlocks);
-        return treeBlocks;
+        return new LinkedHashSet<>(this.allTreeBlocks);
+    }
+
+    /**
+     * Gets all blocks in this TreeBlockSet without copying them
+     *
+     * @return A live unmodifiable Set of all TreeBlocks
+     */
+    public Set<ITreeBlock<BlockType>> getAllTreeBlocksView() {
+        return this.allTreeBlocks;
+    }
+
+    /**
+     * Runs an action for every block in this TreeBlockSet without allocating an iterator
+     * The action may remove blocks from this set, but must not add any
+     *
+     * @param action The action to run
+     */
+    public void forEachTreeBlock(Consumer<? super ITreeBlock<BlockType>> action) {
+        this.forEach(ANY, action);
+    }
+
+    /**
+     * Runs an action for every block of a given type in this TreeBlockSet without allocating an iterator
+     * The action may remove blocks from this set, but must not add any
+     *
+     * @param treeBlockType The type of tree block to run the action for
+     * @param action        The action to run
+     */
+    public void forEachTreeBlock(TreeBlockType treeBlockType, Consumer<? super ITreeBlock<BlockType>> action) {
+        this.forEach(typeOf(treeBlockType), action);
     }
 
     @Override
     public int size() {
-        return this.logBlocks.size() + this.leafBlocks.size();
+        return this.logCount + this.leafCount;
     }
 
     @Override
     public boolean isEmpty() {
-        return this.logBlocks.isEmpty() && this.leafBlocks.isEmpty();
+        return this.size() == 0;
     }
 
     @Override
     public boolean contains(Object o) {
-        return this.logBlocks.contains(o) || this.leafBlocks.contains(o);
+        return this.indexOf(o) != -1;
     }
 
     @Override
     public Iterator iterator() {
-        return this.getAllTreeBlocks().iterator();
+        return this.allTreeBlocks.iterator();
     }
 
     @Override
     public Object[] toArray() {
-        return this.getAllTreeBlocks().toArray();
+        Object[] treeBlocks = new Object[this.size()];
+        int next = 0;
+        for (int i = 0; i < this.end; i++)
+            if (this.types[i] != REMOVED)
+                treeBlocks[next++] = this.treeBlocks[i];
+        return treeBlocks;
     }
 
     @Override
     @SuppressWarnings("unchecked")
     public boolean add(Object o) {
         if (!(o instanceof ITreeBlock)) return false;
-        ITreeBlock treeBlock = (ITreeBlock) o;
-        switch (treeBlock.getTreeBlockType()) {
-            case LOG:
-                return this.logBlocks.add(treeBlock);
-            case LEAF:
-                return this.leafBlocks.add(treeBlock);
+        ITreeBlock<BlockType> treeBlock = (ITreeBlock<BlockType>) o;
+        byte type = typeOf(treeBlock.getTreeBlockType());
+        if (type == REMOVED)
+            return false;
+
+        long key = treeBlock.getKey();
+        if (this.indices.containsKey(key))
+            return false;
+
+        if (this.end == this.treeBlocks.length) {
+            if (this.size() <= this.end >> 1) {
+                this.compact();
+            } else {
+                this.treeBlocks = Arrays.copyOf(this.treeBlocks, this.end << 1);
+                this.types = Arrays.copyOf(this.types, this.end << 1);
+            }
+        }
+
+        this.treeBlocks[this.end] = treeBlock;
+        this.types[this.end] = type;
+        this.indices.put(key, this.end++);
+        if (type == LOG) {
+            this.logCount++;
+        } else {
+            this.leafCount++;
         }
-        return false;
+        return true;
     }
 
     @Override
     public boolean remove(Object o) {
-        if (!(o instanceof ITreeBlock)) return false;
-        ITreeBlock treeBlock = (ITreeBlock) o;
-        switch (treeBlock.getTreeBlockType()) {
-            case LOG:
-                return this.logBlocks.remove(treeBlock);
-            case LEAF:
-                return this.leafBlocks.remove(treeBlock);
-        }
-        return false;
+        int index = this.indexOf(o);
+        if (index == -1)
+            return false;
+
+        this.removeAt(index);
+        return true;
     }
 
     @Override
@@ -137,8 +209,13 @@ public class TreeBlockSet<BlockType> implements Collection {
 
     @Override
     public void clear() {
-        this.logBlocks.clear();
-        this.leafBlocks.clear();
+        Arrays.fill(this.treeBlocks, 0, this.end, null);
+        Arrays.fill(this.types, 0, this.end, REMOVED);
+        this.indices.clear();
+        this.end = 0;
+        this.logCount = 0;
+        this.leafCount = 0;
+        this.relocations++;
     }
 
     @Override
@@ -167,19 +244,42 @@ public class TreeBlockSet<BlockType> implements Collection {
         return removedAll;
     }
 
+    /**
+     * Keeps only the lowest logs of this TreeBlockSet, along with any leaves that aren't above them
+     *
+     * @param max The max number of logs to keep, or 0 for no limit
+     */
     public void sortAndLimit(int max) {
-        if (logBlocks.size() < max)
+        if (max <= 0 || this.logCount < max)
             return;
 
-        logBlocks = logBlocks.stream().sorted(Comparator.comparingInt(b -> b.getLocation().getBlockY()))
-                .limit(max).collect(Collectors.toList());
+        TreeBlockLayers<BlockType> logLayers = this.getLayers(TreeBlockType.LOG);
+        for (int i = max; i < logLayers.size(); i++)
+            this.remove(logLayers.get(i));
+
+        int highest = logLayers.get(Math.min(max, logLayers.size()) - 1).getBlockY();
+        for (int i = 0; i < this.end; i++)
+            if (this.types[i] == LEAF && this.treeBlocks[i].getBlockY() > highest)
+                this.removeAt(i);
+    }
 
-        int highest = logBlocks.get(logBlocks.size() - 1).getLocation().getBlockY();
+    /**
+     * Orders the blocks in this TreeBlockSet by height, lowest first
+     *
+     * @return The blocks in layers, in insertion order within each layer
+     */
+    public TreeBlockLayers<BlockType> getLayers() {
+        return this.getLayers(ANY);
+    }
 
-        if (logBlocks.size() >= max)
-            for (ITreeBlock<BlockType> leafBlock : new LinkedList<>(leafBlocks))
-                if (leafBlock.getLocation().getY() > highest)
-                    leafBlocks.remove(leafBlock);
+    /**
+     * Orders the blocks of a given type in this TreeBlockSet by height, lowest first
+     *
+     * @param treeBlockType The type of tree block to order
+     * @return The blocks in layers, in insertion order within each layer
+     */
+    public TreeBlockLayers<BlockType> getLayers(TreeBlockType treeBlockType) {
+        return this.getLayers(typeOf(treeBlockType));
     }
 
     /**
@@ -189,16 +289,14 @@ public class TreeBlockSet<BlockType> implements Collection {
      * @return If any blocks were removed
      */
     public boolean removeAll(TreeBlockType treeBlockType) {
-        if (treeBlockType.equals(TreeBlockType.LOG)) {
-            boolean removedAny = !this.logBlocks.isEmpty();
-            this.logBlocks.clear();
-            return removedAny;
-        } else if (treeBlockType.equals(TreeBlockType.LEAF)) {
-            boolean removedAny = !this.leafBlocks.isEmpty();
-            this.leafBlocks.clear();
-            return removedAny;
-        }
-        return false;
+        byte type = typeOf(treeBlockType);
+        if (type == REMOVED || (type == LOG ? this.logCount : this.leafCount) == 0)
+            return false;
+
+        for (int i = 0; i < this.end; i++)
+            if (this.types[i] == type)
+                this.removeAt(i);
+        return true;
     }
 
     @Override
@@ -219,4 +317,232 @@ public class TreeBlockSet<BlockType> implements Collection {
         return treeBlocks.toArray();
     }
 
+    /**
+     * Gets the slot of a TreeBlock
+     *
+     * @param o The TreeBlock to find
+     * @return The slot of the TreeBlock, or -1 if it isn't in this set
+     */
+    private int indexOf(Object o) {
+        if (!(o instanceof ITreeBlock)) return -1;
+        int index = this.indices.get(((ITreeBlock<?>) o).getKey());
+        return index != -1 && this.treeBlocks[index].equals(o) ? index : -1;
+    }
+
+    /**
+     * Clears a slot, leaving every other block where it is so iteration isn't disturbed
+     *
+     * @param index The slot to clear
+     */
+    private void removeAt(int index) {
+        this.indices.remove(this.treeBlocks[index].getKey());
+        if (this.types[index] == LOG) {
+            this.logCount--;
+        } else {
+            this.leafCount--;
+        }
+        this.treeBlocks[index] = null;
+        this.types[index] = REMOVED;
+
+        while (this.end > 0 && this.types[this.end - 1] == REMOVED)
+            this.end--;
+    }
+
+    /**
+     * Moves the remaining blocks down over removed slots
+     */
+    private void compact() {
+        int next = 0;
+        for (int i = 0; i < this.end; i++) {
+            if (this.types[i] == REMOVED)
+                continue;
+            if (i != next) {
+                this.treeBlocks[next] = this.treeBlocks[i];
+                this.types[next] = this.types[i];
+                this.indices.put(this.treeBlocks[next].getKey(), next);
+            }
+            next++;
+        }
+        Arrays.fill(this.treeBlocks, next, this.end, null);
+        Arrays.fill(this.types, next, this.end, REMOVED);
+        this.end = next;
+        this.relocations++;
+    }
+
+    @SuppressWarnings("unchecked")
+    private TreeBlockLayers<BlockType> getLayers(byte type) {
+        ITreeBlock<BlockType>[] treeBlocks = new ITreeBlock[type == ANY ? this.size() : type == LOG ? this.logCount : this.leafCount];
+        int next = 0;
+        for (int i = 0; i < this.end; i++)
+            if (matches(this.types[i], type))
+                treeBlocks[next++] = this.treeBlocks[i];
+        return new TreeBlockLayers<>(treeBlocks, next);
+    }
+
+    private void forEach(byte type, Consumer<? super ITreeBlock<BlockType>> action) {
+        int relocations = this.relocations;
+        for (int i = 0; i < this.end; i++) {
+            if (matches(this.types[i], type))
+                action.accept(this.treeBlocks[i]);
+            if (this.relocations != relocations)
+                throw new ConcurrentModificationException();
+        }
+    }
+
+    private int nextSlot(int from, byte type) {
+        while (from < this.end && !matches(this.types[from], type))
+            from++;
+        return from;
+    }
+
+    private int previousSlot(int from, byte type) {
+        while (from >= 0 && (from >= this.end || !matches(this.types[from], type)))
+            from--;
+        return from;
+    }
+
+    private static boolean matches(byte slotType, byte type) {
+        return type == ANY ? slotType != REMOVED : slotType == type;
+    }
+
+    private static byte typeOf(TreeBlockType treeBlockType) {
+        if (treeBlockType == TreeBlockType.LOG)
+            return LOG;
+        if (treeBlockType == TreeBlockType.LEAF)
+            return LEAF;
+        return REMOVED;
+    }
+
+    /**
+     * A read-only cursor over the slots of one type of tree block
+     */
+    private class SlotIterator implements ListIterator<ITreeBlock<BlockType>> {
+
+        private final byte type;
+        private final int relocations;
+        private int cursor;
+        private int index;
+
+        private SlotIterator(byte type) {
+            this.type = type;
+            this.relocations = TreeBlockSet.this.relocations;
+        }
+
+        @Override
+        public boolean hasNext() {
+            this.checkRelocations();
+            return TreeBlockSet.this.nextSlot(this.cursor, this.type) < TreeBlockSet.this.end;
+        }
+
+        @Override
+        public ITreeBlock<BlockType> next() {
+            this.checkRelocations();
+            int slot = TreeBlockSet.this.nextSlot(this.cursor, this.type);
+            if (slot >= TreeBlockSet.this.end)
+                throw new NoSuchElementException();
+            this.cursor = slot + 1;
+            this.index++;
+            return TreeBlockSet.this.treeBlocks[slot];
+        }
+
+        @Override
+        public boolean hasPrevious() {
+            this.checkRelocations();
+            return TreeBlockSet.this.previousSlot(this.cursor - 1, this.type) >= 0;
+        }
+
+        @Override
+        public ITreeBlock<BlockType> previous() {
+            this.checkRelocations();
+            int slot = TreeBlockSet.this.previousSlot(this.cursor - 1, this.type);
+            if (slot < 0)
+                throw new NoSuchElementException();
+            this.cursor = slot;
+            this.index--;
+            return TreeBlockSet.this.treeBlocks[slot];
+        }
+
+        @Override
+        public int nextIndex() {
+            return this.index;
+        }
+
+        @Override
+        public int previousIndex() {
+            return this.index - 1;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void set(ITreeBlock<BlockType> treeBlock) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void add(ITreeBlock<BlockType> treeBlock) {
+            throw new UnsupportedOperationException();
+        }
+
+        private void checkRelocations() {
+            if (TreeBlockSet.this.relocations != this.relocations)
+                throw new ConcurrentModificationException();
+        }
+
+    }
+
+    /**
+     * A live view of the logs or leaves, indexed the same way the linked lists they replace were
+     */
+    private class TypeView extends AbstractSequentialList<ITreeBlock<BlockType>> {
+
+        private final byte type;
+
+        private TypeView(byte type) {
+            this.type = type;
+        }
+
+        @Override
+        public ListIterator<ITreeBlock<BlockType>> listIterator(int index) {
+            if (index < 0 || index > this.size())
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + this.size());
+
+            SlotIterator iterator = new SlotIterator(this.type);
+            for (int i = 0; i < index; i++)
+                iterator.next();
+            return iterator;
+        }
+
+        @Override
+        public int size() {
+            return this.type == LOG ? TreeBlockSet.this.logCount : TreeBlockSet.this.leafCount;
+        }
+
+    }
+
+    /**
+     * A live view of every block
+     */
+    private class AllView extends AbstractSet<ITreeBlock<BlockType>> {
+
+        @Override
+        public Iterator<ITreeBlock<BlockType>> iterator() {
+            return new SlotIterator(ANY);
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return TreeBlockSet.this.contains(o);
+        }
+
+        @Override
+        public int size() {
+            return TreeBlockSet.this.size();
+        }
+
+    }
+
 }
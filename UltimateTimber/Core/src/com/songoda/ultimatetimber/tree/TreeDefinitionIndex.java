@@ -0,0 +1,172 @@
+package com.songoda.ultimatetimber.tree;
+
+import com.songoda.core.compatibility.CompatibleMaterial;
+
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Maps log and leaf materials to bitmasks of the TreeDefinitions that use them
+ * Each TreeDefinition is given a bit by its position in the index, so narrowing down possible definitions is a single AND
+ */
+public class TreeDefinitionIndex {
+
+    /**
+     * The max number of TreeDefinitions that fit in a mask
+     */
+    public static final int MAX_TREE_DEFINITIONS = Long.SIZE;
+
+    private final TreeDefinition[] treeDefinitions;
+    private final Map<TreeDefinition, Integer> ordinals;
+    private final long[] logMasks, leafMasks;
+    private final long allMask, diagonalLeafMask;
+
+    public TreeDefinitionIndex(Collection<TreeDefinition> treeDefinitions) {
+        if (treeDefinitions.size() > MAX_TREE_DEFINITIONS)
+            throw new IllegalArgumentException("At most " + MAX_TREE_DEFINITIONS + " tree definitions can be indexed");
+
+        this.treeDefinitions = treeDefinitions.toArray(new TreeDefinition[0]);
+        this.ordinals = new IdentityHashMap<>();
+        this.logMasks = new long[CompatibleMaterial.values().length];
+        this.leafMasks = new long[this.logMasks.length];
+
+        long allMask = 0, diagonalLeafMask = 0;
+        for (int ordinal = 0; ordinal < this.treeDefinitions.length; ordinal++) {
+            TreeDefinition treeDefinition = this.treeDefinitions[ordinal];
+            long bit = 1L << ordinal;
+            this.ordinals.put(treeDefinition, ordinal);
+            allMask |= bit;
+            if (treeDefinition.shouldDetectLeavesDiagonally())
+                diagonalLeafMask |= bit;
+
+            for (CompatibleMaterial material : treeDefinition.getLogMaterial())
+                this.logMasks[material.ordinal()] |= bit;
+            for (CompatibleMaterial material : treeDefinition.getLeafMaterial())
+                this.leafMasks[material.ordinal()] |= bit;
+        }
+
+        this.allMask = allMask;
+        this.diagonalLeafMask = diagonalLeafMask;
+    }
+
+    /**
+     * Gets a mask of every indexed TreeDefinition
+     *
+     * @return The mask of all TreeDefinitions
+     */
+    public long getAllMask() {
+        return this.allMask;
+    }
+
+    /**
+     * Gets a mask of the TreeDefinitions that use a material as the given TreeBlockType
+     *
+     * @param material      The material to check
+     * @param treeBlockType The TreeBlockType to check the material as
+     * @return The mask of matching TreeDefinitions
+     */
+    public long getMask(CompatibleMaterial material, TreeBlockType treeBlockType) {
+        return treeBlockType == TreeBlockType.LOG ? this.getLogMask(material) : this.getLeafMask(material);
+    }
+
+    /**
+     * Gets a mask of the TreeDefinitions that use a material as a log
+     *
+     * @param material The material to check
+     * @return The mask of matching TreeDefinitions
+     */
+    public long getLogMask(CompatibleMaterial material) {
+        return material == null ? 0 : this.logMasks[material.ordinal()];
+    }
+
+    /**
+     * Gets a mask of the TreeDefinitions that use a material as a leaf
+     *
+     * @param material The material to check
+     * @return The mask of matching TreeDefinitions
+     */
+    public long getLeafMask(CompatibleMaterial material) {
+        return material == null ? 0 : this.leafMasks[material.ordinal()];
+    }
+
+    /**
+     * Gets a mask of the given TreeDefinitions, ignoring any that aren't in this index
+     *
+     * @param treeDefinitions The TreeDefinitions
+     * @return The mask of the TreeDefinitions
+     */
+    public long getMask(Collection<TreeDefinition> treeDefinitions) {
+        long mask = 0;
+        for (TreeDefinition treeDefinition : treeDefinitions) {
+            Integer ordinal = this.ordinals.get(treeDefinition);
+            if (ordinal != null)
+                mask |= 1L << ordinal;
+        }
+        return mask;
+    }
+
+    /**
+     * Gets the TreeDefinitions in a mask
+     *
+     * @param mask The mask
+     * @return A Set of TreeDefinitions, in index order
+     */
+    public Set<TreeDefinition> getTreeDefinitions(long mask) {
+        Set<TreeDefinition> treeDefinitions = new LinkedHashSet<>();
+        for (long remaining = mask; remaining != 0; remaining &= remaining - 1)
+            treeDefinitions.add(this.treeDefinitions[Long.numberOfTrailingZeros(remaining)]);
+        return treeDefinitions;
+    }
+
+    /**
+     * Gets the first TreeDefinition in a mask
+     *
+     * @param mask The mask
+     * @return The TreeDefinition with the lowest index, or null if the mask is empty
+     */
+    public TreeDefinition getFirstTreeDefinition(long mask) {
+        return mask == 0 ? null : this.treeDefinitions[Long.numberOfTrailingZeros(mask)];
+    }
+
+    /**
+     * Gets the largest squared max log distance from the trunk of the TreeDefinitions in a mask
+     *
+     * @param mask The mask
+     * @return The largest squared distance
+     */
+    public double getMaxLogDistanceFromTrunkSquared(long mask) {
+        double maxDistance = 0;
+        for (long remaining = mask; remaining != 0; remaining &= remaining - 1) {
+            double distance = this.treeDefinitions[Long.numberOfTrailingZeros(remaining)].getMaxLogDistanceFromTrunk();
+            maxDistance = Math.max(maxDistance, distance * distance);
+        }
+        return maxDistance;
+    }
+
+    /**
+     * Gets the largest max leaf distance from a log of the TreeDefinitions in a mask
+     *
+     * @param mask The mask
+     * @return The largest distance
+     */
+    public int getMaxLeafDistanceFromLog(long mask) {
+        int maxDistance = 0;
+        for (long remaining = mask; remaining != 0; remaining &= remaining - 1)
+            maxDistance = Math.max(maxDistance, this.treeDefinitions[Long.numberOfTrailingZeros(remaining)].getMaxLeafDistanceFromLog());
+        return maxDistance;
+    }
+
+    /**
+     * Checks if any TreeDefinition in a mask detects leaves diagonally
+     *
+     * @param mask The mask
+     * @return True if leaves should be detected diagonally, otherwise false
+     */
+    public boolean shouldDetectLeavesDiagonally(long mask) {
+        return (mask & this.diagonalLeafMask) != 0;
+    }
+
+}
@@ -5,12 +5,16 @@ import com.songoda.core.SongodaPlugin;
 import com.songoda.core.compatibility.CompatibleMaterial;
 import com.songoda.core.configuration.Config;
 import com.songoda.core.hooks.LogManager;
+import com.songoda.ultimatetimber.commands.CommandAnimations;
 import com.songoda.ultimatetimber.commands.CommandGiveAxe;
+import com.songoda.ultimatetimber.commands.CommandImportCoreProtect;
+import com.songoda.ultimatetimber.commands.CommandPlacedBlocks;
 import com.songoda.ultimatetimber.commands.CommandReload;
 import com.songoda.ultimatetimber.commands.CommandToggle;
 import com.songoda.ultimatetimber.manager.ChoppingManager;
 import com.songoda.ultimatetimber.manager.ConfigurationManager;
 import com.songoda.ultimatetimber.manager.Manager;
+import com.songoda.ultimatetimber.manager.PerformanceManager;
 import com.songoda.ultimatetimber.manager.PlacedBlockManager;
 import com.songoda.ultimatetimber.manager.SaplingManager;
 import com.songoda.ultimatetimber.manager.TreeAnimationManager;
@@ -31,6 +35,7 @@ public class UltimateTimber extends SongodaPlugin {
     private ChoppingManager choppingManager;
     private ConfigurationManager configurationManager;
     private com.songoda.core.commands.CommandManager commandManager;
+    private PerformanceManager performanceManager;
     private PlacedBlockManager placedBlockManager;
     private SaplingManager saplingManager;
     private TreeAnimationManager treeAnimationManager;
@@ -61,13 +66,17 @@ public class UltimateTimber extends SongodaPlugin {
                 .addSubCommands(
                         new CommandReload(this),
                         new CommandToggle(this),
-                        new CommandGiveAxe(this)
+                        new CommandGiveAxe(this),
+                        new CommandPlacedBlocks(this),
+                        new CommandImportCoreProtect(this),
+                        new CommandAnimations(this)
                 );
 
         // Register managers
         this.managers = new HashSet<>();
         this.choppingManager = this.registerManager(ChoppingManager.class);
         this.configurationManager = new ConfigurationManager(this);
+        this.performanceManager = this.registerManager(PerformanceManager.class);
         this.placedBlockManager = this.registerManager(PlacedBlockManager.class);
         this.saplingManager = this.registerManager(SaplingManager.class);
         this.treeAnimationManager = this.registerManager(TreeAnimationManager.class);
@@ -143,6 +152,15 @@ public class UltimateTimber extends SongodaPlugin {
         return this.configurationManager;
     }
 
+    /**
+     * Gets the performance manager
+     *
+     * @return The PerformanceManager instance
+     */
+    public PerformanceManager getPerformanceManager() {
+        return this.performanceManager;
+    }
+
     /**
      * Gets the placed block manager
      *
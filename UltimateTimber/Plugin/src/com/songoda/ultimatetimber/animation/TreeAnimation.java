@@ -3,11 +3,14 @@ package com.songoda.ultimatetimber.animation;
 import com.songoda.core.compatibility.CompatibleHand;
 import com.songoda.core.compatibility.CompatibleMaterial;
 import com.songoda.ultimatetimber.UltimateTimber;
+import com.songoda.ultimatetimber.manager.TreeAnimationManager;
 import com.songoda.ultimatetimber.tree.DetectedTree;
 import com.songoda.ultimatetimber.tree.FallingTreeBlock;
 import com.songoda.ultimatetimber.tree.ITreeBlock;
 import com.songoda.ultimatetimber.tree.TreeBlock;
 import com.songoda.ultimatetimber.tree.TreeBlockSet;
+import com.songoda.ultimatetimber.tree.TreeBlockType;
+import com.songoda.ultimatetimber.tree.TreeDefinition;
 import com.songoda.ultimatetimber.utils.BlockUtils;
 import org.bukkit.Bukkit;
 import org.bukkit.Location;
@@ -38,11 +41,29 @@ public abstract class TreeAnimation {
     }
 
     /**
-     * Plays this tree topple animation
+     * Starts this tree topple animation
+     * The animation is then advanced once per tick by the TreeAnimationManager until {@link #tick()} returns true
+     */
+    public abstract void start();
+
+    /**
+     * Advances this tree topple animation by one tick
      *
-     * @param whenFinished The runnable to run when the animation is done
+     * @return True if the animation is done, otherwise false
      */
-    public abstract void playAnimation(Runnable whenFinished);
+    public abstract boolean tick();
+
+    /**
+     * Finishes this tree topple animation right away
+     * Every block that is still falling lands where it is, subclasses also break the blocks that haven't fallen yet
+     */
+    public void finish() {
+        TreeAnimationManager treeAnimationManager = UltimateTimber.getInstance().getTreeAnimationManager();
+        this.fallingTreeBlocks.forEachTreeBlock(fallingTreeBlock -> {
+            treeAnimationManager.runFallingBlockImpact(this, fallingTreeBlock);
+            fallingTreeBlock.getBlock().remove();
+        });
+    }
 
     /**
      * Gets the type of tree animation that this is
@@ -110,10 +131,45 @@ public abstract class TreeAnimation {
         BlockUtils.configureFallingBlock(fallingBlock);
 
         FallingTreeBlock fallingTreeBlock = new FallingTreeBlock(fallingBlock, treeBlock.getTreeBlockType());
+        UltimateTimber.getInstance().getTreeAnimationManager().registerFallingBlock(this, fallingTreeBlock);
         this.replaceBlock(treeBlock);
         return fallingTreeBlock;
     }
 
+    /**
+     * Stops this tree topple animation where it is
+     * Every block that is still falling is removed without dropping anything
+     */
+    public void cancel() {
+        this.fallingTreeBlocks.forEachTreeBlock(fallingTreeBlock -> fallingTreeBlock.getBlock().remove());
+    }
+
+    /**
+     * Checks if a tree block is still one of the materials of the tree definition
+     *
+     * @param treeBlock The tree block to check
+     * @return True if the block is still part of the tree, otherwise false
+     */
+    protected boolean isStillTreeBlock(ITreeBlock<Block> treeBlock) {
+        TreeDefinition treeDefinition = this.detectedTree.getTreeDefinition();
+        CompatibleMaterial material = CompatibleMaterial.getMaterial(treeBlock.getBlock());
+        if (treeBlock.getTreeBlockType().equals(TreeBlockType.LOG))
+            return treeDefinition.getLogMaterial().stream().anyMatch(x -> x.equals(material));
+        if (treeBlock.getTreeBlockType().equals(TreeBlockType.LEAF))
+            return treeDefinition.getLeafMaterial().stream().anyMatch(x -> x.equals(material));
+        return true;
+    }
+
+    /**
+     * Breaks a tree block right away, dropping its loot
+     *
+     * @param treeBlock The tree block to break
+     */
+    protected void breakTreeBlock(ITreeBlock<Block> treeBlock) {
+        UltimateTimber.getInstance().getTreeDefinitionManager().dropTreeLoot(this.detectedTree.getTreeDefinition(), treeBlock, this.player, this.hasSilkTouch, false);
+        this.replaceBlock((TreeBlock) treeBlock);
+    }
+
     /**
      * Replaces a given block with a new one
      *
@@ -130,12 +186,8 @@ public abstract class TreeAnimation {
      * @param fallingBlock The FallingBlock to remove
      */
     public void removeFallingBlock(FallingBlock fallingBlock) {
-        for (ITreeBlock<FallingBlock> fallingTreeBlock : this.fallingTreeBlocks.getAllTreeBlocks()) {
-            if (fallingTreeBlock.getBlock().equals(fallingBlock)) {
-                this.fallingTreeBlocks.remove(fallingTreeBlock);
-                return;
-            }
-        }
+        // Falling tree blocks are keyed by entity id, so the tree block type doesn't matter here
+        this.fallingTreeBlocks.remove(new FallingTreeBlock(fallingBlock, null));
     }
 
 }
@@ -0,0 +1,195 @@
+package com.songoda.ultimatetimber.animation;
+
+import com.songoda.core.compatibility.CompatibleMaterial;
+import com.songoda.ultimatetimber.UltimateTimber;
+import com.songoda.ultimatetimber.manager.ConfigurationManager;
+import com.songoda.ultimatetimber.manager.TreeAnimationManager;
+import com.songoda.ultimatetimber.tree.DetectedTree;
+import com.songoda.ultimatetimber.tree.ITreeBlock;
+import com.songoda.ultimatetimber.tree.LandedTreeBlock;
+import com.songoda.ultimatetimber.tree.TreeBlock;
+import com.songoda.ultimatetimber.tree.TreeBlockType;
+import com.songoda.ultimatetimber.utils.ParticleUtils;
+import com.songoda.ultimatetimber.utils.SoundUtils;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.entity.BlockDisplay;
+import org.bukkit.entity.Player;
+import org.bukkit.util.Transformation;
+import org.bukkit.util.Vector;
+import org.joml.Quaternionf;
+import org.joml.Vector3f;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Topples the tree as a whole by rotating it around its base with block display entities, requires 1.19.4 or newer
+ * Display entities have no physics, the server only sends a few transformations that the client interpolates between
+ * Every block lands at once when the tree hits the ground
+ */
+public class TreeAnimationDisplay extends TreeAnimation {
+
+    private static final int FALL_TICKS = 30;
+    private static final int KEYFRAME_TICKS = 5;
+
+    private final List<DisplayBlock> displayBlocks;
+    private Location pivot;
+    private float axisX, axisZ;
+    private int timer;
+
+    public TreeAnimationDisplay(DetectedTree detectedTree, Player player) {
+        super(TreeAnimationType.DISPLAY, detectedTree, player);
+        this.displayBlocks = new ArrayList<>();
+    }
+
+    @Override
+    public void start() {
+        boolean useCustomSound = ConfigurationManager.Setting.USE_CUSTOM_SOUNDS.getBoolean();
+        boolean useCustomParticles = ConfigurationManager.Setting.USE_CUSTOM_PARTICLES.getBoolean();
+
+        ITreeBlock<Block> initialTreeBlock = this.detectedTree.getDetectedTreeBlocks().getInitialLogBlock();
+        if (useCustomSound)
+            SoundUtils.playFallingSound(initialTreeBlock);
+
+        // Fall along the closest axis away from the player, so every block lands lined up with the block grid
+        Vector direction = initialTreeBlock.getLocation().clone().subtract(this.player.getLocation()).toVector();
+        int directionX = 0, directionZ = 0;
+        if (Math.abs(direction.getX()) >= Math.abs(direction.getZ())) {
+            directionX = direction.getX() >= 0 ? 1 : -1;
+        } else {
+            directionZ = direction.getZ() >= 0 ? 1 : -1;
+        }
+
+        // Rotating around up x direction turns up into the direction of the fall
+        this.axisX = directionZ;
+        this.axisZ = -directionX;
+
+        // The tree tips over the bottom edge of its base on the side it falls towards
+        World world = initialTreeBlock.getWorld();
+        this.pivot = new Location(world,
+                initialTreeBlock.getBlockX() + Math.max(directionX, 0),
+                initialTreeBlock.getBlockY(),
+                initialTreeBlock.getBlockZ() + Math.max(directionZ, 0));
+
+        for (ITreeBlock<Block> treeBlock : this.detectedTree.getDetectedTreeBlocks().getAllTreeBlocksView()) {
+            Block block = treeBlock.getBlock();
+            if (CompatibleMaterial.getMaterial(block).isAir()) {
+                this.replaceBlock((TreeBlock) treeBlock);
+                continue;
+            }
+
+            if (useCustomParticles)
+                ParticleUtils.playFallingParticles(treeBlock);
+
+            BlockData blockData = block.getBlockData();
+            Vector3f offset = new Vector3f(
+                    (float) (treeBlock.getBlockX() - this.pivot.getX()),
+                    (float) (treeBlock.getBlockY() - this.pivot.getY()),
+                    (float) (treeBlock.getBlockZ() - this.pivot.getZ()));
+
+            BlockDisplay blockDisplay = world.spawn(this.pivot, BlockDisplay.class);
+            blockDisplay.setPersistent(false);
+            blockDisplay.setBlock(blockData);
+            blockDisplay.setTransformation(this.getTransformation(offset, 0));
+            this.displayBlocks.add(new DisplayBlock(blockDisplay, blockData, offset, treeBlock.getTreeBlockType()));
+
+            this.replaceBlock((TreeBlock) treeBlock);
+        }
+    }
+
+    @Override
+    public boolean tick() {
+        this.timer++;
+
+        // Each keyframe is sent a tick ahead, the client then interpolates to it over the next few ticks
+        if (this.timer <= FALL_TICKS && (this.timer - 1) % KEYFRAME_TICKS == 0) {
+            float angle = getAngle(this.timer - 1 + KEYFRAME_TICKS);
+            for (DisplayBlock displayBlock : this.displayBlocks) {
+                displayBlock.blockDisplay.setInterpolationDelay(0);
+                displayBlock.blockDisplay.setInterpolationDuration(KEYFRAME_TICKS);
+                displayBlock.blockDisplay.setTransformation(this.getTransformation(displayBlock.offset, angle));
+            }
+        }
+
+        if (this.timer <= FALL_TICKS)
+            return false;
+
+        this.land();
+        return true;
+    }
+
+    @Override
+    public void finish() {
+        this.land();
+        super.finish();
+    }
+
+    @Override
+    public void cancel() {
+        for (DisplayBlock displayBlock : this.displayBlocks)
+            displayBlock.blockDisplay.remove();
+        this.displayBlocks.clear();
+        super.cancel();
+    }
+
+    /**
+     * Resolves the impact of every block where it ends up once the tree lies flat, then removes the display entities
+     */
+    private void land() {
+        TreeAnimationManager treeAnimationManager = UltimateTimber.getInstance().getTreeAnimationManager();
+        Quaternionf rotation = new Quaternionf().rotationAxis((float) (Math.PI / 2), this.axisX, 0, this.axisZ);
+        for (DisplayBlock displayBlock : this.displayBlocks) {
+            // The block ends up wherever its center is rotated to
+            Vector3f center = rotation.transform(new Vector3f(displayBlock.offset.x + 0.5F, displayBlock.offset.y + 0.5F, displayBlock.offset.z + 0.5F), new Vector3f());
+            Location location = new Location(this.pivot.getWorld(),
+                    Math.floor(this.pivot.getX() + center.x),
+                    Math.floor(this.pivot.getY() + center.y),
+                    Math.floor(this.pivot.getZ() + center.z));
+
+            treeAnimationManager.runBlockImpact(this, new LandedTreeBlock(displayBlock.blockData, location, displayBlock.treeBlockType));
+            displayBlock.blockDisplay.remove();
+        }
+        this.displayBlocks.clear();
+    }
+
+    /**
+     * Gets the transformation that shows a block rotated around the pivot
+     * The display entity sits at the pivot, so the block's offset is rotated along with the block itself
+     */
+    private Transformation getTransformation(Vector3f offset, float angle) {
+        Quaternionf rotation = new Quaternionf().rotationAxis(angle, this.axisX, 0, this.axisZ);
+        Vector3f translation = rotation.transform(new Vector3f(offset.x, offset.y, offset.z), new Vector3f());
+        return new Transformation(translation, rotation, new Vector3f(1, 1, 1), new Quaternionf());
+    }
+
+    /**
+     * Gets how far the tree has tipped over after some ticks, speeding up like it's falling
+     */
+    private static float getAngle(int ticks) {
+        double progress = Math.min(1, (double) ticks / FALL_TICKS);
+        return (float) (Math.PI / 2 * progress * progress);
+    }
+
+    /**
+     * A block of the tree shown by a display entity
+     */
+    private static class DisplayBlock {
+
+        private final BlockDisplay blockDisplay;
+        private final BlockData blockData;
+        private final Vector3f offset;
+        private final TreeBlockType treeBlockType;
+
+        private DisplayBlock(BlockDisplay blockDisplay, BlockData blockData, Vector3f offset, TreeBlockType treeBlockType) {
+            this.blockDisplay = blockDisplay;
+            this.blockData = blockData;
+            this.offset = offset;
+            this.treeBlockType = treeBlockType;
+        }
+
+    }
+
+}
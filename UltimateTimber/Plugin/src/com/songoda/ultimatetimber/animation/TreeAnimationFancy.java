@@ -1,8 +1,6 @@
 package com.songoda.ultimatetimber.animation;
 
-import com.songoda.ultimatetimber.UltimateTimber;
 import com.songoda.ultimatetimber.manager.ConfigurationManager;
-import com.songoda.ultimatetimber.manager.TreeAnimationManager;
 import com.songoda.ultimatetimber.tree.DetectedTree;
 import com.songoda.ultimatetimber.tree.FallingTreeBlock;
 import com.songoda.ultimatetimber.tree.ITreeBlock;
@@ -14,19 +12,22 @@ import com.songoda.ultimatetimber.utils.SoundUtils;
 import org.bukkit.block.Block;
 import org.bukkit.entity.FallingBlock;
 import org.bukkit.entity.Player;
-import org.bukkit.scheduler.BukkitRunnable;
 import org.bukkit.util.Vector;
 
 public class TreeAnimationFancy extends TreeAnimation {
 
+    private static final int FALL_DELAY = 20;
+    private static final int MAX_FALL_TICKS = 4 * 20;
+
+    private int timer;
+
     public TreeAnimationFancy(DetectedTree detectedTree, Player player) {
         super(TreeAnimationType.FANCY, detectedTree, player);
+        this.timer = -FALL_DELAY;
     }
 
     @Override
-    public void playAnimation(Runnable whenFinished) {
-        UltimateTimber ultimateTimber = UltimateTimber.getInstance();
-
+    public void start() {
         boolean useCustomSound = ConfigurationManager.Setting.USE_CUSTOM_SOUNDS.getBoolean();
         boolean useCustomParticles = ConfigurationManager.Setting.USE_CUSTOM_PARTICLES.getBoolean();
 
@@ -39,7 +40,7 @@ public class TreeAnimationFancy extends TreeAnimation {
         Vector velocityVector = initialTreeBlock.getLocation().clone().subtract(this.player.getLocation().clone()).toVector().normalize().setY(0);
 
         this.fallingTreeBlocks = new TreeBlockSet<>(initialFallingBlock);
-        for (ITreeBlock<Block> treeBlock : this.detectedTree.getDetectedTreeBlocks().getAllTreeBlocks()) {
+        for (ITreeBlock<Block> treeBlock : this.detectedTree.getDetectedTreeBlocks().getAllTreeBlocksView()) {
             FallingTreeBlock fallingTreeBlock = this.convertToFallingBlock((TreeBlock)treeBlock);
             if (fallingTreeBlock == null)
                 continue;
@@ -54,42 +55,40 @@ public class TreeAnimationFancy extends TreeAnimation {
             fallingBlock.setVelocity(velocityVector.clone().multiply(multiplier));
             fallingBlock.setVelocity(fallingBlock.getVelocity().multiply(0.3));
         }
+    }
+
+    @Override
+    public boolean tick() {
+        // The tree hangs in the air for a moment before it starts to fall
+        if (this.timer < 0) {
+            this.timer++;
+            return false;
+        }
+
+        if (this.timer == 0) {
+            this.fallingTreeBlocks.forEachTreeBlock(fallingTreeBlock -> {
+                FallingBlock fallingBlock = fallingTreeBlock.getBlock();
+                BlockUtils.toggleGravityFallingBlock(fallingBlock, true);
+                fallingBlock.setVelocity(fallingBlock.getVelocity().multiply(1.5));
+            });
+        }
+
+        if (this.fallingTreeBlocks.isEmpty())
+            return true;
+
+        this.fallingTreeBlocks.forEachTreeBlock(fallingTreeBlock -> {
+            FallingBlock fallingBlock = fallingTreeBlock.getBlock();
+            fallingBlock.setVelocity(fallingBlock.getVelocity().clone().subtract(new Vector(0, 0.05, 0)));
+        });
+
+        this.timer++;
+
+        if (this.timer > MAX_FALL_TICKS) {
+            this.finish();
+            return true;
+        }
 
-        new BukkitRunnable() {
-            int timer = 0;
-
-            @Override
-            public void run() {
-                if (this.timer == 0) {
-                    for (ITreeBlock<FallingBlock> fallingTreeBlock : TreeAnimationFancy.this.fallingTreeBlocks.getAllTreeBlocks()) {
-                        FallingBlock fallingBlock = fallingTreeBlock.getBlock();
-                        BlockUtils.toggleGravityFallingBlock(fallingBlock, true);
-                        fallingBlock.setVelocity(fallingBlock.getVelocity().multiply(1.5));
-                    }
-                }
-
-                if (TreeAnimationFancy.this.fallingTreeBlocks.getAllTreeBlocks().isEmpty()) {
-                    whenFinished.run();
-                    this.cancel();
-                    return;
-                }
-
-                for (ITreeBlock<FallingBlock> fallingTreeBlock : TreeAnimationFancy.this.fallingTreeBlocks.getAllTreeBlocks()) {
-                    FallingBlock fallingBlock = fallingTreeBlock.getBlock();
-                    fallingBlock.setVelocity(fallingBlock.getVelocity().clone().subtract(new Vector(0, 0.05, 0)));
-                }
-
-                this.timer++;
-
-                if (this.timer > 4 * 20) {
-                    TreeAnimationManager treeAnimationManager = ultimateTimber.getTreeAnimationManager();
-                    for (ITreeBlock<FallingBlock> fallingTreeBlock : TreeAnimationFancy.this.fallingTreeBlocks.getAllTreeBlocks())
-                        treeAnimationManager.runFallingBlockImpact(TreeAnimationFancy.this, fallingTreeBlock);
-                    whenFinished.run();
-                    this.cancel();
-                }
-            }
-        }.runTaskTimer(ultimateTimber, 20L, 1L);
+        return false;
     }
 
 }
@@ -7,6 +7,7 @@ public enum TreeAnimationType {
     FANCY,
     DISINTEGRATE,
     CRUMBLE,
+    DISPLAY,
     NONE;
 
     /**
@@ -21,4 +22,13 @@ public enum TreeAnimationType {
                 return value;
         return TreeAnimationType.FANCY;
     }
+
+    /**
+     * Checks if animations of this type spawn falling blocks
+     *
+     * @return True if animations of this type spawn falling blocks, otherwise false
+     */
+    public boolean usesFallingBlocks() {
+        return this == FANCY || this == CRUMBLE;
+    }
 }
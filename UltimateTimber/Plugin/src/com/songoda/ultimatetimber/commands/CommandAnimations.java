@@ -0,0 +1,123 @@
+package com.songoda.ultimatetimber.commands;
+
+import com.songoda.core.commands.AbstractCommand;
+import com.songoda.ultimatetimber.UltimateTimber;
+import com.songoda.ultimatetimber.manager.ConfigurationManager;
+import com.songoda.ultimatetimber.manager.PerformanceManager;
+import com.songoda.ultimatetimber.manager.TreeAnimationManager;
+import org.bukkit.command.CommandSender;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class CommandAnimations extends AbstractCommand {
+
+    private final UltimateTimber plugin;
+
+    public CommandAnimations(UltimateTimber plugin) {
+        super(CommandType.CONSOLE_OK, "animations");
+        this.plugin = plugin;
+    }
+
+    @Override
+    protected ReturnType runCommand(CommandSender sender, String... args) {
+        TreeAnimationManager treeAnimationManager = plugin.getTreeAnimationManager();
+        if (args.length == 0) {
+            plugin.getLocale().getMessage("command.animations.status")
+                    .processPlaceholder("animations", treeAnimationManager.getActiveAnimationCount())
+                    .processPlaceholder("blocks", treeAnimationManager.getFallingBlockCount())
+                    .processPlaceholder("last", formatMillis(treeAnimationManager.getLastTickNanos()))
+                    .processPlaceholder("average", formatMillis(treeAnimationManager.getAverageTickNanos()))
+                    .processPlaceholder("max", formatMillis(treeAnimationManager.getMaxTickNanos()))
+                    .sendPrefixedMessage(sender);
+            int maxFallingBlocks = ConfigurationManager.Setting.MAX_FALLING_BLOCKS.getInt();
+            plugin.getLocale().getMessage("command.animations.budget")
+                    .processPlaceholder("used", treeAnimationManager.getFallingBlockBudgetUsage())
+                    .processPlaceholder("max", maxFallingBlocks > 0 ? String.valueOf(maxFallingBlocks) : "-")
+                    .processPlaceholder("queued", treeAnimationManager.getQueuedAnimationCount())
+                    .processPlaceholder("degraded", treeAnimationManager.getDegradedAnimationCount())
+                    .sendPrefixedMessage(sender);
+            PerformanceManager performanceManager = plugin.getPerformanceManager();
+            plugin.getLocale().getMessage("command.animations.load")
+                    .processPlaceholder("level", performanceManager.getLoadLevel().name().toLowerCase())
+                    .processPlaceholder("average", String.format("%.1f", performanceManager.getAverageTickMillis()))
+                    .processPlaceholder("lowered", performanceManager.getTimesLowered())
+                    .sendPrefixedMessage(sender);
+            if (treeAnimationManager.isPaused())
+                plugin.getLocale().getMessage("command.animations.is-paused").sendPrefixedMessage(sender);
+            return ReturnType.SUCCESS;
+        }
+
+        switch (args[0].toLowerCase()) {
+            case "pause":
+                treeAnimationManager.setPaused(true);
+                plugin.getLocale().getMessage("command.animations.paused").sendPrefixedMessage(sender);
+                return ReturnType.SUCCESS;
+            case "resume":
+                treeAnimationManager.setPaused(false);
+                plugin.getLocale().getMessage("command.animations.resumed").sendPrefixedMessage(sender);
+                return ReturnType.SUCCESS;
+            case "finish":
+                plugin.getLocale().getMessage("command.animations.finished")
+                        .processPlaceholder("animations", treeAnimationManager.finishAnimations())
+                        .sendPrefixedMessage(sender);
+                return ReturnType.SUCCESS;
+            case "history":
+                this.sendHistory(sender);
+                return ReturnType.SUCCESS;
+            case "cancel":
+                plugin.getLocale().getMessage("command.animations.cancelled")
+                        .processPlaceholder("animations", treeAnimationManager.cancelAnimations())
+                        .sendPrefixedMessage(sender);
+                return ReturnType.SUCCESS;
+            default:
+                return ReturnType.SYNTAX_ERROR;
+        }
+    }
+
+    private void sendHistory(CommandSender sender) {
+        List<PerformanceManager.Transition> transitions = plugin.getPerformanceManager().getTransitions();
+        if (transitions.isEmpty()) {
+            plugin.getLocale().getMessage("command.animations.history-none").sendPrefixedMessage(sender);
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        for (PerformanceManager.Transition transition : transitions) {
+            plugin.getLocale().getMessage("command.animations.history")
+                    .processPlaceholder("ago", TimeUnit.MILLISECONDS.toSeconds(now - transition.getTime()))
+                    .processPlaceholder("from", transition.getFrom().name().toLowerCase())
+                    .processPlaceholder("to", transition.getTo().name().toLowerCase())
+                    .processPlaceholder("average", String.format("%.1f", transition.getAverageTickMillis()))
+                    .sendPrefixedMessage(sender);
+        }
+    }
+
+    private static String formatMillis(long nanos) {
+        return String.format("%.3f", nanos / 1000000.0);
+    }
+
+    @Override
+    protected List<String> onTab(CommandSender sender, String... args) {
+        if (args.length == 1)
+            return Arrays.asList("pause", "resume", "finish", "cancel", "history");
+        return null;
+    }
+
+    @Override
+    public String getPermissionNode() {
+        return "ultimatetimber.animations";
+    }
+
+    @Override
+    public String getSyntax() {
+        return "animations [pause|resume|finish|cancel|history]";
+    }
+
+    @Override
+    public String getDescription() {
+        return plugin.getLocale().getMessage("command.animations.description").getMessage();
+    }
+
+}
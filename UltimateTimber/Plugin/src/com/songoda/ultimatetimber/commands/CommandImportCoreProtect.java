@@ -0,0 +1,90 @@
+package com.songoda.ultimatetimber.commands;
+
+import com.songoda.core.commands.AbstractCommand;
+import com.songoda.ultimatetimber.UltimateTimber;
+import com.songoda.ultimatetimber.placed.CoreProtectImport;
+import org.bukkit.command.CommandSender;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+public class CommandImportCoreProtect extends AbstractCommand {
+
+    private final UltimateTimber plugin;
+
+    public CommandImportCoreProtect(UltimateTimber plugin) {
+        super(CommandType.CONSOLE_OK, "importcoreprotect");
+        this.plugin = plugin;
+    }
+
+    @Override
+    protected ReturnType runCommand(CommandSender sender, String... args) {
+        CoreProtectImport running = plugin.getPlacedBlockManager().getCoreProtectImport();
+        if (args.length > 0 && args[0].equalsIgnoreCase("cancel")) {
+            if (running == null) {
+                plugin.getLocale().getMessage("command.importcoreprotect.not-running").sendPrefixedMessage(sender);
+                return ReturnType.FAILURE;
+            }
+            running.cancel();
+            return ReturnType.SUCCESS;
+        }
+
+        if (args.length > 0 && !args[0].equalsIgnoreCase("restart"))
+            return ReturnType.SYNTAX_ERROR;
+
+        if (running != null) {
+            plugin.getLocale().getMessage("command.importcoreprotect.running").sendPrefixedMessage(sender);
+            return ReturnType.FAILURE;
+        }
+
+        if (!plugin.getPlacedBlockManager().isTrackingPlacedBlocks()) {
+            plugin.getLocale().getMessage("command.importcoreprotect.not-tracking").sendPrefixedMessage(sender);
+            return ReturnType.FAILURE;
+        }
+
+        // Importing into chunk storage would load every chunk in the history on the main thread
+        if (!plugin.getPlacedBlockManager().canImportBlocks()) {
+            plugin.getLocale().getMessage("command.importcoreprotect.chunk-storage").sendPrefixedMessage(sender);
+            return ReturnType.FAILURE;
+        }
+
+        File coreProtectFolder = new File(plugin.getDataFolder().getParentFile(), "CoreProtect");
+        YamlConfiguration coreProtectConfig = YamlConfiguration.loadConfiguration(new File(coreProtectFolder, "config.yml"));
+        File database = new File(coreProtectFolder, "database.db");
+        if (coreProtectConfig.getBoolean("use-mysql", false) || !database.exists()) {
+            plugin.getLocale().getMessage("command.importcoreprotect.no-database").sendPrefixedMessage(sender);
+            return ReturnType.FAILURE;
+        }
+
+        CoreProtectImport coreProtectImport = new CoreProtectImport(plugin, sender, database, coreProtectConfig.getString("table-prefix", "co_"));
+        if (args.length > 0)
+            coreProtectImport.resetCheckpoint();
+        plugin.getPlacedBlockManager().startCoreProtectImport(coreProtectImport);
+        return ReturnType.SUCCESS;
+    }
+
+    @Override
+    protected List<String> onTab(CommandSender sender, String... args) {
+        if (args.length == 1)
+            return Arrays.asList("restart", "cancel");
+        return null;
+    }
+
+    @Override
+    public String getPermissionNode() {
+        return "ultimatetimber.importcoreprotect";
+    }
+
+    @Override
+    public String getSyntax() {
+        return "importcoreprotect [restart|cancel]";
+    }
+
+    @Override
+    public String getDescription() {
+        return plugin.getLocale().getMessage("command.importcoreprotect.description").getMessage();
+    }
+
+}
@@ -0,0 +1,191 @@
+package com.songoda.ultimatetimber.commands;
+
+import com.songoda.core.commands.AbstractCommand;
+import com.songoda.core.locale.Message;
+import com.songoda.ultimatetimber.UltimateTimber;
+import com.songoda.ultimatetimber.manager.TreeDetectionManager.DetectionBenchmark;
+import com.songoda.ultimatetimber.misc.BlockPositions;
+import com.songoda.ultimatetimber.misc.LongHashSet;
+import com.songoda.ultimatetimber.placed.PlacedBlockIndex;
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+public class CommandPlacedBlocks extends AbstractCommand {
+
+    private static final int BENCHMARK_CHUNK_RADIUS = 16;
+    private static final int BENCHMARK_HEIGHT = 128;
+    private static final int BENCHMARK_PLACED_BLOCKS = 2000000;
+    private static final long BENCHMARK_WARMUP_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long BENCHMARK_NANOS = TimeUnit.SECONDS.toNanos(3);
+
+    private final UltimateTimber plugin;
+    private volatile boolean benchmarking;
+
+    public CommandPlacedBlocks(UltimateTimber plugin) {
+        super(CommandType.CONSOLE_OK, "placedblocks");
+        this.plugin = plugin;
+    }
+
+    @Override
+    protected ReturnType runCommand(CommandSender sender, String... args) {
+        if (args.length > 0) {
+            if (!args[0].equalsIgnoreCase("benchmark"))
+                return ReturnType.SYNTAX_ERROR;
+            this.benchmark(sender);
+            return ReturnType.SUCCESS;
+        }
+
+        boolean any = false;
+        for (World world : Bukkit.getWorlds()) {
+            PlacedBlockIndex placedBlocks = plugin.getPlacedBlockManager().getPlacedBlocks(world);
+            if (placedBlocks == null)
+                continue;
+
+            any = true;
+            plugin.getLocale().getMessage("command.placedblocks.world")
+                    .processPlaceholder("world", world.getName())
+                    .processPlaceholder("blocks", placedBlocks.size())
+                    .processPlaceholder("chunks", placedBlocks.getChunkCount())
+                    .processPlaceholder("size", placedBlocks.getFilterSize() / 1024)
+                    .processPlaceholder("expected", String.format("%.3f", placedBlocks.getExpectedFalsePositiveRate() * 100))
+                    .processPlaceholder("observed", String.format("%.3f", placedBlocks.getObservedFalsePositiveRate() * 100))
+                    .sendPrefixedMessage(sender);
+        }
+
+        if (!any)
+            plugin.getLocale().getMessage("command.placedblocks.none").sendPrefixedMessage(sender);
+        return ReturnType.SUCCESS;
+    }
+
+    /**
+     * Compares detecting the tree the sender is looking at with and without the Bloom filter, on an index with millions of placed blocks
+     * The placed blocks surround the tree without touching it, the same as most blocks checked while detecting a tree were never placed
+     * Only one index is built at a time to keep the memory used down
+     */
+    private void benchmark(CommandSender sender) {
+        if (this.benchmarking)
+            return;
+
+        DetectionBenchmark detectionBenchmark = null;
+        if (sender instanceof Player)
+            detectionBenchmark = plugin.getTreeDetectionManager().captureDetection(((Player) sender).getTargetBlock((Set<Material>) null, 10));
+        if (detectionBenchmark == null) {
+            plugin.getLocale().getMessage("command.placedblocks.benchmark-no-tree").sendPrefixedMessage(sender);
+            return;
+        }
+
+        this.benchmarking = true;
+        plugin.getLocale().getMessage("command.placedblocks.benchmark-started")
+                .processPlaceholder("blocks", BENCHMARK_PLACED_BLOCKS)
+                .sendPrefixedMessage(sender);
+
+        DetectionBenchmark benchmark = detectionBenchmark;
+        Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
+            try {
+                LongHashSet treeBlocks = benchmark.detect(new PlacedBlockIndex(0, false));
+                if (treeBlocks.isEmpty()) {
+                    this.sendMessage(sender, plugin.getLocale().getMessage("command.placedblocks.benchmark-no-tree"));
+                    return;
+                }
+
+                long seed = System.nanoTime();
+                PlacedBlockIndex filtered = createIndex(benchmark, treeBlocks, seed, true);
+                double filteredRate = detect(benchmark, filtered);
+                long filterSize = filtered.getFilterSize();
+                double observed = filtered.getObservedFalsePositiveRate();
+
+                // Let the filtered index be collected before the unfiltered one is built
+                filtered = null;
+
+                double unfilteredRate = detect(benchmark, createIndex(benchmark, treeBlocks, seed, false));
+                this.sendMessage(sender, plugin.getLocale().getMessage("command.placedblocks.benchmark-result")
+                        .processPlaceholder("blocks", treeBlocks.size())
+                        .processPlaceholder("filtered", String.format("%.0f", filteredRate))
+                        .processPlaceholder("unfiltered", String.format("%.0f", unfilteredRate))
+                        .processPlaceholder("speedup", String.format("%.2f", filteredRate / unfilteredRate))
+                        .processPlaceholder("size", filterSize / 1024)
+                        .processPlaceholder("observed", String.format("%.3f", observed * 100)));
+            } catch (Exception ex) {
+                plugin.getLogger().log(Level.WARNING, "Failed to benchmark placed block lookups", ex);
+            } finally {
+                this.benchmarking = false;
+            }
+        });
+    }
+
+    /**
+     * Creates an index of random placed blocks around the tree, never placing any block of the tree itself
+     */
+    private static PlacedBlockIndex createIndex(DetectionBenchmark benchmark, LongHashSet treeBlocks, long seed, boolean filtered) {
+        PlacedBlockIndex placedBlocks = new PlacedBlockIndex(0, filtered);
+        Random random = new Random(seed);
+        int range = BENCHMARK_CHUNK_RADIUS * 16 * 2;
+        for (int i = 0; i < BENCHMARK_PLACED_BLOCKS; i++) {
+            int x = benchmark.getX() + random.nextInt(range) - range / 2;
+            int y = benchmark.getY() + random.nextInt(BENCHMARK_HEIGHT) - BENCHMARK_HEIGHT / 4;
+            int z = benchmark.getZ() + random.nextInt(range) - range / 2;
+            if (!treeBlocks.contains(BlockPositions.pack(x, y, z)))
+                placedBlocks.setPlaced(x, y, z, true);
+        }
+        return placedBlocks;
+    }
+
+    /**
+     * Detects the tree over and over for a while
+     *
+     * @return The number of trees detected per second
+     */
+    private static double detect(DetectionBenchmark benchmark, PlacedBlockIndex placedBlocks) {
+        // Run it for a while first so the JIT has compiled it before it is timed
+        long end = System.nanoTime() + BENCHMARK_WARMUP_NANOS;
+        while (System.nanoTime() < end)
+            benchmark.detect(placedBlocks);
+
+        int detections = 0;
+        long start = System.nanoTime();
+        end = start + BENCHMARK_NANOS;
+        while (System.nanoTime() < end) {
+            benchmark.detect(placedBlocks);
+            detections++;
+        }
+        return detections / ((System.nanoTime() - start) / (double) TimeUnit.SECONDS.toNanos(1));
+    }
+
+    private void sendMessage(CommandSender sender, Message message) {
+        if (plugin.isEnabled())
+            Bukkit.getScheduler().runTask(plugin, () -> message.sendPrefixedMessage(sender));
+    }
+
+    @Override
+    protected List<String> onTab(CommandSender sender, String... args) {
+        if (args.length == 1)
+            return Collections.singletonList("benchmark");
+        return null;
+    }
+
+    @Override
+    public String getPermissionNode() {
+        return "ultimatetimber.placedblocks";
+    }
+
+    @Override
+    public String getSyntax() {
+        return "placedblocks [benchmark]";
+    }
+
+    @Override
+    public String getDescription() {
+        return plugin.getLocale().getMessage("command.placedblocks.description").getMessage();
+    }
+
+}
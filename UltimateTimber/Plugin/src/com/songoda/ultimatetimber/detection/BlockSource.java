@@ -0,0 +1,38 @@
+package com.songoda.ultimatetimber.detection;
+
+import com.songoda.core.compatibility.CompatibleMaterial;
+import org.bukkit.World;
+
+/**
+ * Provides the blocks that tree detection reads
+ */
+public interface BlockSource {
+
+    /**
+     * Gets the world the blocks are in
+     *
+     * @return The World
+     */
+    World getWorld();
+
+    /**
+     * Gets the material of the block at the given coordinates
+     *
+     * @param x The block x coordinate
+     * @param y The block y coordinate
+     * @param z The block z coordinate
+     * @return The CompatibleMaterial of the block
+     */
+    CompatibleMaterial getMaterial(int x, int y, int z);
+
+    /**
+     * Gets the vanilla leaf state of the block at the given coordinates, only supported on 1.13+
+     *
+     * @param x The block x coordinate
+     * @param y The block y coordinate
+     * @param z The block z coordinate
+     * @return The leaf state packed by {@link LeafStates}, or {@link LeafStates#NONE} if the block isn't leaves
+     */
+    int getLeafState(int x, int y, int z);
+
+}
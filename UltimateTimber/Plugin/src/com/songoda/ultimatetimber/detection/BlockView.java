@@ -0,0 +1,171 @@
+package com.songoda.ultimatetimber.detection;
+
+import com.songoda.core.compatibility.CompatibleMaterial;
+import com.songoda.ultimatetimber.manager.PlacedBlockManager;
+import com.songoda.ultimatetimber.misc.BlockPositions;
+import com.songoda.ultimatetimber.misc.LongIntHashMap;
+import com.songoda.ultimatetimber.placed.PlacedBlockIndex;
+import com.songoda.ultimatetimber.tree.TreeDefinitionIndex;
+import org.bukkit.World;
+
+/**
+ * Caches what is known about each block read during a single tree detection
+ * Each position is read from the underlying source at most once, and checked against the placed blocks at most once
+ */
+public class BlockView implements BlockSource {
+
+    private static final int NOT_CACHED = -1;
+    private static final int MATERIAL_MASK = 0xFFFFF;
+    private static final int NO_MATERIAL = MATERIAL_MASK;
+    private static final int LOG = 1 << 20;
+    private static final int LEAF = 1 << 21;
+    private static final int PLACED_CHECKED = 1 << 22;
+    private static final int PLACED = 1 << 23;
+    private static final int LEAF_STATE_SHIFT = 24;
+    private static final int LEAF_STATE_MASK = 0x1F;
+    private static final int LEAF_STATE_CHECKED = 1 << 29;
+    private static final int NOT_LEAVES = 1 << 30;
+
+    private static final CompatibleMaterial[] MATERIALS = CompatibleMaterial.values();
+
+    private final BlockSource source;
+    private final TreeDefinitionIndex treeDefinitionIndex;
+    private final PlacedBlockManager placedBlockManager;
+    private final PlacedBlockIndex placedBlocks;
+    private final LongIntHashMap cache;
+    private int readCount;
+
+    public BlockView(BlockSource source, TreeDefinitionIndex treeDefinitionIndex, PlacedBlockManager placedBlockManager) {
+        this(source, treeDefinitionIndex, placedBlockManager, null);
+    }
+
+    /**
+     * Creates a view that checks placed blocks against a given index instead of the tracked ones, such as for a benchmark
+     * Every log counts as natural
+     */
+    public BlockView(BlockSource source, TreeDefinitionIndex treeDefinitionIndex, PlacedBlockIndex placedBlocks) {
+        this(source, treeDefinitionIndex, null, placedBlocks);
+    }
+
+    private BlockView(BlockSource source, TreeDefinitionIndex treeDefinitionIndex, PlacedBlockManager placedBlockManager, PlacedBlockIndex placedBlocks) {
+        this.source = source;
+        this.treeDefinitionIndex = treeDefinitionIndex;
+        this.placedBlockManager = placedBlockManager;
+        this.placedBlocks = placedBlocks;
+        this.cache = new LongIntHashMap(NOT_CACHED, 1024);
+    }
+
+    @Override
+    public World getWorld() {
+        return this.source.getWorld();
+    }
+
+    @Override
+    public CompatibleMaterial getMaterial(int x, int y, int z) {
+        int material = this.getEntry(BlockPositions.pack(x, y, z), x, y, z) & MATERIAL_MASK;
+        return material == NO_MATERIAL ? null : MATERIALS[material];
+    }
+
+    @Override
+    public int getLeafState(int x, int y, int z) {
+        long position = BlockPositions.pack(x, y, z);
+        int entry = this.getEntry(position, x, y, z);
+        if ((entry & LEAF_STATE_CHECKED) == 0) {
+            int leafState = this.source.getLeafState(x, y, z);
+            entry |= LEAF_STATE_CHECKED | (leafState == LeafStates.NONE ? NOT_LEAVES : (leafState & LEAF_STATE_MASK) << LEAF_STATE_SHIFT);
+            this.cache.put(position, entry);
+        }
+
+        if ((entry & NOT_LEAVES) != 0)
+            return LeafStates.NONE;
+        return (entry >>> LEAF_STATE_SHIFT) & LEAF_STATE_MASK;
+    }
+
+    /**
+     * Gets a mask of the TreeDefinitions that use the block at the given coordinates as a log
+     *
+     * @param x The block x coordinate
+     * @param y The block y coordinate
+     * @param z The block z coordinate
+     * @return The mask of matching TreeDefinitions
+     */
+    public long getLogMask(int x, int y, int z) {
+        int entry = this.getEntry(BlockPositions.pack(x, y, z), x, y, z);
+        if ((entry & LOG) == 0)
+            return 0;
+        return this.treeDefinitionIndex.getLogMask(MATERIALS[entry & MATERIAL_MASK]);
+    }
+
+    /**
+     * Gets a mask of the TreeDefinitions that use the block at the given coordinates as a leaf
+     *
+     * @param x The block x coordinate
+     * @param y The block y coordinate
+     * @param z The block z coordinate
+     * @return The mask of matching TreeDefinitions
+     */
+    public long getLeafMask(int x, int y, int z) {
+        int entry = this.getEntry(BlockPositions.pack(x, y, z), x, y, z);
+        if ((entry & LEAF) == 0)
+            return 0;
+        return this.treeDefinitionIndex.getLeafMask(MATERIALS[entry & MATERIAL_MASK]);
+    }
+
+    /**
+     * Checks if the block at the given coordinates was placed by a player
+     * Logs that aren't known to be natural count as placed when only natural trees may be toppled
+     *
+     * @param x The block x coordinate
+     * @param y The block y coordinate
+     * @param z The block z coordinate
+     * @return True if the block is placed, otherwise false
+     */
+    public boolean isPlaced(int x, int y, int z) {
+        long position = BlockPositions.pack(x, y, z);
+        int entry = this.getEntry(position, x, y, z);
+        if ((entry & PLACED_CHECKED) == 0) {
+            entry |= PLACED_CHECKED;
+            World world = this.source.getWorld();
+            if (this.placedBlocks != null) {
+                if (this.placedBlocks.isPlaced(x, y, z))
+                    entry |= PLACED;
+            } else if (this.placedBlockManager.isBlockPlaced(world, x, y, z)
+                    || ((entry & LOG) != 0 && !this.placedBlockManager.isNaturalLog(world, x, y, z))) {
+                entry |= PLACED;
+            }
+            this.cache.put(position, entry);
+        }
+        return (entry & PLACED) != 0;
+    }
+
+    /**
+     * Gets the number of distinct blocks read from the underlying source
+     *
+     * @return The number of blocks read
+     */
+    public int getReadCount() {
+        return this.readCount;
+    }
+
+    private int getEntry(long position, int x, int y, int z) {
+        int entry = this.cache.get(position);
+        if (entry != NOT_CACHED)
+            return entry;
+
+        this.readCount++;
+        CompatibleMaterial material = this.source.getMaterial(x, y, z);
+        if (material == null) {
+            entry = NO_MATERIAL;
+        } else {
+            entry = material.ordinal();
+            if (this.treeDefinitionIndex.getLogMask(material) != 0)
+                entry |= LOG;
+            if (this.treeDefinitionIndex.getLeafMask(material) != 0)
+                entry |= LEAF;
+        }
+
+        this.cache.put(position, entry);
+        return entry;
+    }
+
+}
@@ -0,0 +1,85 @@
+package com.songoda.ultimatetimber.detection;
+
+import com.songoda.ultimatetimber.misc.BlockPositions;
+import com.songoda.ultimatetimber.misc.LongArrayList;
+
+/**
+ * A queue of packed block positions that always hands out the lowest position first
+ * Positions at the same height come out in the order they were added
+ */
+public class HeightOrderedFrontier {
+
+    private static final int HEIGHT_OFFSET = 2048;
+    private static final int HEIGHTS = 4096;
+
+    private final LongArrayList[] buckets = new LongArrayList[HEIGHTS];
+    private final int[] readIndices = new int[HEIGHTS];
+    private int lowestBucket = HEIGHTS;
+    private int size;
+
+    /**
+     * Adds a position to this frontier
+     *
+     * @param position The packed position to add
+     */
+    public void add(long position) {
+        int bucket = BlockPositions.unpackY(position) + HEIGHT_OFFSET;
+        if (this.buckets[bucket] == null)
+            this.buckets[bucket] = new LongArrayList();
+
+        this.buckets[bucket].add(position);
+        this.lowestBucket = Math.min(this.lowestBucket, bucket);
+        this.size++;
+    }
+
+    /**
+     * Removes the lowest position from this frontier
+     *
+     * @return The lowest packed position
+     * @throws IllegalStateException If this frontier is empty
+     */
+    public long poll() {
+        this.skipEmptyBuckets();
+        this.size--;
+        return this.buckets[this.lowestBucket].get(this.readIndices[this.lowestBucket]++);
+    }
+
+    /**
+     * Gets the height of the lowest position in this frontier without removing it
+     *
+     * @return The y coordinate of the lowest position
+     * @throws IllegalStateException If this frontier is empty
+     */
+    public int peekY() {
+        this.skipEmptyBuckets();
+        return this.lowestBucket - HEIGHT_OFFSET;
+    }
+
+    /**
+     * Moves up to the lowest bucket that still has positions left to hand out
+     */
+    private void skipEmptyBuckets() {
+        if (this.size == 0)
+            throw new IllegalStateException("The frontier is empty");
+
+        while (true) {
+            LongArrayList bucket = this.buckets[this.lowestBucket];
+            if (bucket != null && this.readIndices[this.lowestBucket] < bucket.size())
+                return;
+
+            if (bucket != null) {
+                bucket.clear();
+                this.readIndices[this.lowestBucket] = 0;
+            }
+            this.lowestBucket++;
+        }
+    }
+
+    /**
+     * @return True if this frontier has no positions, otherwise false
+     */
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+}
@@ -0,0 +1,59 @@
+package com.songoda.ultimatetimber.detection;
+
+import org.bukkit.block.data.BlockData;
+import org.bukkit.block.data.type.Leaves;
+
+/**
+ * Packs the vanilla distance and persistent state of leaves into an int
+ * Only available on 1.13+, where leaves have block data
+ */
+public class LeafStates {
+
+    /**
+     * The state of a block that isn't a leaf
+     */
+    public static final int NONE = -1;
+
+    /**
+     * The distance vanilla gives to leaves that aren't connected to a log and will decay
+     */
+    public static final int DECAY_DISTANCE = 7;
+
+    private static final int DISTANCE_MASK = 0xF;
+    private static final int PERSISTENT = 1 << 4;
+
+    /**
+     * Gets the packed leaf state of some block data
+     *
+     * @param blockData The BlockData to read
+     * @return The packed leaf state, or {@link #NONE} if the block data isn't leaves
+     */
+    public static int of(BlockData blockData) {
+        if (!(blockData instanceof Leaves))
+            return NONE;
+
+        Leaves leaves = (Leaves) blockData;
+        return Math.min(leaves.getDistance(), DISTANCE_MASK) | (leaves.isPersistent() ? PERSISTENT : 0);
+    }
+
+    /**
+     * Gets the vanilla distance from a leaf to the closest log through other leaves
+     *
+     * @param leafState The packed leaf state
+     * @return The distance
+     */
+    public static int getDistance(int leafState) {
+        return leafState & DISTANCE_MASK;
+    }
+
+    /**
+     * Checks if a leaf won't decay, which vanilla uses for leaves placed by players
+     *
+     * @param leafState The packed leaf state
+     * @return True if the leaf is persistent, otherwise false
+     */
+    public static boolean isPersistent(int leafState) {
+        return (leafState & PERSISTENT) != 0;
+    }
+
+}
@@ -0,0 +1,156 @@
+package com.songoda.ultimatetimber.detection;
+
+import com.songoda.ultimatetimber.misc.BlockPositions;
+import com.songoda.ultimatetimber.misc.LongArrayList;
+
+import java.util.Arrays;
+
+/**
+ * Holds the squared distance from every block around a set of logs to the closest log
+ * Built once per detection with an exact euclidean distance transform, so checking a leaf is a single array lookup
+ */
+public class LogDistanceField {
+
+    /**
+     * The max number of blocks a field can cover before it costs more to build than it saves
+     */
+    private static final int MAX_VOLUME = 1 << 22;
+    private static final int INFINITY = Integer.MAX_VALUE;
+
+    private final int minX, minY, minZ;
+    private final int sizeX, sizeY, sizeZ;
+    private final int[] distances;
+
+    private LogDistanceField(int minX, int minY, int minZ, int sizeX, int sizeY, int sizeZ) {
+        this.minX = minX;
+        this.minY = minY;
+        this.minZ = minZ;
+        this.sizeX = sizeX;
+        this.sizeY = sizeY;
+        this.sizeZ = sizeZ;
+        this.distances = new int[sizeX * sizeY * sizeZ];
+    }
+
+    /**
+     * Builds a distance field around the given logs
+     *
+     * @param logBlocks   The packed positions of the logs
+     * @param maxDistance The max distance from a log that will be looked up
+     * @return A new LogDistanceField, or null if there are no logs or the area around them is too large
+     */
+    public static LogDistanceField build(LongArrayList logBlocks, int maxDistance) {
+        if (logBlocks.isEmpty())
+            return null;
+
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, minZ = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE, maxZ = Integer.MIN_VALUE;
+        for (int i = 0; i < logBlocks.size(); i++) {
+            long position = logBlocks.get(i);
+            int x = BlockPositions.unpackX(position), y = BlockPositions.unpackY(position), z = BlockPositions.unpackZ(position);
+            minX = Math.min(minX, x);
+            minY = Math.min(minY, y);
+            minZ = Math.min(minZ, z);
+            maxX = Math.max(maxX, x);
+            maxY = Math.max(maxY, y);
+            maxZ = Math.max(maxZ, z);
+        }
+
+        // Anything further than the max distance along a single axis is out of range anyway
+        int padding = Math.max(0, maxDistance);
+        long sizeX = maxX - minX + 1L + 2L * padding, sizeY = maxY - minY + 1L + 2L * padding, sizeZ = maxZ - minZ + 1L + 2L * padding;
+        if (sizeX * sizeY * sizeZ > MAX_VOLUME)
+            return null;
+
+        LogDistanceField field = new LogDistanceField(minX - padding, minY - padding, minZ - padding, (int) sizeX, (int) sizeY, (int) sizeZ);
+        field.compute(logBlocks);
+        return field;
+    }
+
+    /**
+     * Gets the squared distance from a block to the closest log
+     *
+     * @param x The block x coordinate
+     * @param y The block y coordinate
+     * @param z The block z coordinate
+     * @return The squared distance, or Integer.MAX_VALUE if the block is outside of the field
+     */
+    public int getDistanceSquared(int x, int y, int z) {
+        int localX = x - this.minX, localY = y - this.minY, localZ = z - this.minZ;
+        if (localX < 0 || localX >= this.sizeX || localY < 0 || localY >= this.sizeY || localZ < 0 || localZ >= this.sizeZ)
+            return INFINITY;
+        return this.distances[this.index(localX, localY, localZ)];
+    }
+
+    private int index(int localX, int localY, int localZ) {
+        return localX + this.sizeX * (localZ + this.sizeZ * localY);
+    }
+
+    private void compute(LongArrayList logBlocks) {
+        Arrays.fill(this.distances, INFINITY);
+        for (int i = 0; i < logBlocks.size(); i++) {
+            long position = logBlocks.get(i);
+            this.distances[this.index(BlockPositions.unpackX(position) - this.minX, BlockPositions.unpackY(position) - this.minY,
+                    BlockPositions.unpackZ(position) - this.minZ)] = 0;
+        }
+
+        // The squared distance separates by axis, so transforming along each axis in turn gives the exact 3D distance
+        int maxLength = Math.max(this.sizeX, Math.max(this.sizeY, this.sizeZ));
+        int[] values = new int[maxLength], parabolas = new int[maxLength];
+        double[] boundaries = new double[maxLength + 1];
+
+        for (int y = 0; y < this.sizeY; y++)
+            for (int z = 0; z < this.sizeZ; z++)
+                this.transform(this.index(0, y, z), 1, this.sizeX, values, parabolas, boundaries);
+
+        for (int y = 0; y < this.sizeY; y++)
+            for (int x = 0; x < this.sizeX; x++)
+                this.transform(this.index(x, y, 0), this.sizeX, this.sizeZ, values, parabolas, boundaries);
+
+        for (int z = 0; z < this.sizeZ; z++)
+            for (int x = 0; x < this.sizeX; x++)
+                this.transform(this.index(x, 0, z), this.sizeX * this.sizeZ, this.sizeY, values, parabolas, boundaries);
+    }
+
+    /**
+     * Runs a one dimensional squared distance transform along a line of the field
+     * Finds the lower envelope of the parabolas rooted at each finite sample, as described by Felzenszwalb and Huttenlocher
+     */
+    private void transform(int offset, int stride, int length, int[] values, int[] parabolas, double[] boundaries) {
+        for (int i = 0; i < length; i++)
+            values[i] = this.distances[offset + i * stride];
+
+        int count = 0;
+        for (int q = 0; q < length; q++) {
+            if (values[q] == INFINITY)
+                continue;
+
+            double intersection = Double.NEGATIVE_INFINITY;
+            while (count > 0) {
+                int p = parabolas[count - 1];
+                intersection = ((values[q] + (double) q * q) - (values[p] + (double) p * p)) / (2.0 * (q - p));
+                if (intersection > boundaries[count - 1])
+                    break;
+                count--;
+                intersection = Double.NEGATIVE_INFINITY;
+            }
+
+            parabolas[count] = q;
+            boundaries[count] = intersection;
+            count++;
+        }
+
+        // Nothing to measure from on this line yet
+        if (count == 0)
+            return;
+
+        boundaries[count] = Double.POSITIVE_INFINITY;
+        int k = 0;
+        for (int q = 0; q < length; q++) {
+            while (boundaries[k + 1] < q)
+                k++;
+            int p = parabolas[k];
+            this.distances[offset + q * stride] = (q - p) * (q - p) + values[p];
+        }
+    }
+
+}
@@ -0,0 +1,115 @@
+package com.songoda.ultimatetimber.detection;
+
+import com.songoda.core.compatibility.CompatibleMaterial;
+import com.songoda.core.compatibility.ServerVersion;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.World;
+
+/**
+ * Reads blocks from chunk snapshots captured around a position, safe to use off of the main thread
+ * Requires 1.13+ so block types can be read from the snapshots without legacy data values
+ */
+public class SnapshotBlockSource implements BlockSource {
+
+    private final World world;
+    private final int minChunkX, minChunkZ, width;
+    private final int minY, maxY;
+    private final ChunkSnapshot[] snapshots;
+    private volatile boolean incomplete;
+
+    private SnapshotBlockSource(World world, int minChunkX, int minChunkZ, int width, int minY, int maxY) {
+        this.world = world;
+        this.minChunkX = minChunkX;
+        this.minChunkZ = minChunkZ;
+        this.width = width;
+        this.minY = minY;
+        this.maxY = maxY;
+        this.snapshots = new ChunkSnapshot[width * width];
+    }
+
+    /**
+     * Captures the loaded chunks within a radius of a block, must be called on the main thread
+     * Chunks that aren't loaded are left out and mark the source as incomplete if they are read
+     *
+     * @param world  The world to capture from
+     * @param x      The center block x coordinate
+     * @param z      The center block z coordinate
+     * @param radius The radius in blocks to capture
+     * @return A new SnapshotBlockSource
+     */
+    public static SnapshotBlockSource capture(World world, int x, int z, int radius) {
+        int minChunkX = (x - radius) >> 4, maxChunkX = (x + radius) >> 4;
+        int minChunkZ = (z - radius) >> 4, maxChunkZ = (z + radius) >> 4;
+        int width = Math.max(maxChunkX - minChunkX, maxChunkZ - minChunkZ) + 1;
+        int minY = ServerVersion.isServerVersionAtLeast(ServerVersion.V1_17) ? world.getMinHeight() : 0;
+
+        SnapshotBlockSource source = new SnapshotBlockSource(world, minChunkX, minChunkZ, width, minY, world.getMaxHeight());
+        for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++)
+            for (int chunkZ = minChunkZ; chunkZ <= maxChunkZ; chunkZ++)
+                if (world.isChunkLoaded(chunkX, chunkZ))
+                    source.snapshots[(chunkX - minChunkX) * width + (chunkZ - minChunkZ)] = world.getChunkAt(chunkX, chunkZ).getChunkSnapshot(false, false, false);
+        return source;
+    }
+
+    @Override
+    public World getWorld() {
+        return this.world;
+    }
+
+    @Override
+    public CompatibleMaterial getMaterial(int x, int y, int z) {
+        ChunkSnapshot snapshot = this.getSnapshot(x, y, z);
+        if (snapshot == null)
+            return CompatibleMaterial.AIR;
+
+        return CompatibleMaterial.getMaterial(snapshot.getBlockType(x & 15, y, z & 15));
+    }
+
+    @Override
+    public int getLeafState(int x, int y, int z) {
+        ChunkSnapshot snapshot = this.getSnapshot(x, y, z);
+        if (snapshot == null)
+            return LeafStates.NONE;
+
+        return LeafStates.of(snapshot.getBlockData(x & 15, y, z & 15));
+    }
+
+    /**
+     * Gets the snapshot containing a block
+     *
+     * @param x The block x coordinate
+     * @param y The block y coordinate
+     * @param z The block z coordinate
+     * @return The ChunkSnapshot, or null if the block is outside of the world height or the captured chunks
+     */
+    private ChunkSnapshot getSnapshot(int x, int y, int z) {
+        if (y < this.minY || y >= this.maxY)
+            return null;
+
+        int chunkX = (x >> 4) - this.minChunkX, chunkZ = (z >> 4) - this.minChunkZ;
+        ChunkSnapshot snapshot = null;
+        if (chunkX >= 0 && chunkX < this.width && chunkZ >= 0 && chunkZ < this.width)
+            snapshot = this.snapshots[chunkX * this.width + chunkZ];
+
+        if (snapshot == null)
+            this.incomplete = true;
+        return snapshot;
+    }
+
+    /**
+     * Checks if a block outside of the captured chunks was read
+     *
+     * @return True if detection needs blocks that weren't captured, otherwise false
+     */
+    public boolean isIncomplete() {
+        return this.incomplete;
+    }
+
+    /**
+     * Marks this source as incomplete so the detection using it is redone on the main thread
+     */
+    public void markIncomplete() {
+        this.incomplete = true;
+    }
+
+}
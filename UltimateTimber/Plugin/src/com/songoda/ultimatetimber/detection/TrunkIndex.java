@@ -0,0 +1,74 @@
+package com.songoda.ultimatetimber.detection;
+
+import com.songoda.ultimatetimber.misc.LongIntHashMap;
+
+import java.util.Arrays;
+
+/**
+ * Indexes trunk blocks by their x/z column, keeping the lowest and highest Y of each column
+ * Trunks are found by scanning straight up and down, so the blocks of a column are always contiguous
+ */
+public class TrunkIndex {
+
+    private final LongIntHashMap columnIndices = new LongIntHashMap(-1, 4);
+    private int[] columnX = new int[4], columnZ = new int[4], minY = new int[4], maxY = new int[4];
+    private int size;
+
+    /**
+     * Adds a trunk block to this index
+     *
+     * @param x The block x coordinate
+     * @param y The block y coordinate
+     * @param z The block z coordinate
+     */
+    public void add(int x, int y, int z) {
+        long columnKey = ((long) x << 32) | (z & 0xFFFFFFFFL);
+        int column = this.columnIndices.get(columnKey);
+        if (column != -1) {
+            this.minY[column] = Math.min(this.minY[column], y);
+            this.maxY[column] = Math.max(this.maxY[column], y);
+            return;
+        }
+
+        if (this.size == this.columnX.length) {
+            int capacity = this.size << 1;
+            this.columnX = Arrays.copyOf(this.columnX, capacity);
+            this.columnZ = Arrays.copyOf(this.columnZ, capacity);
+            this.minY = Arrays.copyOf(this.minY, capacity);
+            this.maxY = Arrays.copyOf(this.maxY, capacity);
+        }
+
+        this.columnIndices.put(columnKey, this.size);
+        this.columnX[this.size] = x;
+        this.columnZ[this.size] = z;
+        this.minY[this.size] = y;
+        this.maxY[this.size] = y;
+        this.size++;
+    }
+
+    /**
+     * Gets the squared distance from a block to the closest trunk block
+     *
+     * @param x The block x coordinate
+     * @param y The block y coordinate
+     * @param z The block z coordinate
+     * @return The squared distance, or Long.MAX_VALUE if there are no trunk blocks
+     */
+    public long getDistanceSquared(int x, int y, int z) {
+        long closest = Long.MAX_VALUE;
+        for (int i = 0; i < this.size; i++) {
+            long dx = x - this.columnX[i], dz = z - this.columnZ[i];
+            long dy = y < this.minY[i] ? this.minY[i] - y : y > this.maxY[i] ? y - this.maxY[i] : 0;
+            closest = Math.min(closest, dx * dx + dy * dy + dz * dz);
+        }
+        return closest;
+    }
+
+    /**
+     * @return True if this index has no trunk blocks, otherwise false
+     */
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+}
@@ -0,0 +1,32 @@
+package com.songoda.ultimatetimber.detection;
+
+import com.songoda.core.compatibility.CompatibleMaterial;
+import org.bukkit.World;
+
+/**
+ * Reads blocks directly from a loaded world, must only be used on the main thread
+ */
+public class WorldBlockSource implements BlockSource {
+
+    private final World world;
+
+    public WorldBlockSource(World world) {
+        this.world = world;
+    }
+
+    @Override
+    public World getWorld() {
+        return this.world;
+    }
+
+    @Override
+    public CompatibleMaterial getMaterial(int x, int y, int z) {
+        return CompatibleMaterial.getMaterial(this.world.getBlockAt(x, y, z));
+    }
+
+    @Override
+    public int getLeafState(int x, int y, int z) {
+        return LeafStates.of(this.world.getBlockAt(x, y, z).getBlockData());
+    }
+
+}
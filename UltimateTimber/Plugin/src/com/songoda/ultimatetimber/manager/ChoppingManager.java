@@ -67,7 +67,7 @@ public class ChoppingManager extends Manager {
      * @param player The player to cooldown
      */
     public void cooldownPlayer(Player player) {
-        if (!this.useCooldown || player.hasPermission("ultimatetimber.bypasscooldown"))
+        if (!this.hasCooldown(player))
             return;
 
         this.cooldownedPlayers.put(player.getUniqueId(), false);
@@ -76,6 +76,16 @@ public class ChoppingManager extends Manager {
                 this.cooldownedPlayers.remove(player.getUniqueId()), this.cooldownAmount * 20L);
     }
 
+    /**
+     * Checks if a player is put into cooldown after toppling a tree
+     *
+     * @param player The player to check
+     * @return True if the player gets a cooldown, otherwise false
+     */
+    public boolean hasCooldown(Player player) {
+        return this.useCooldown && !player.hasPermission("ultimatetimber.bypasscooldown");
+    }
+
     /**
      * Checks if a player is in cooldown
      *
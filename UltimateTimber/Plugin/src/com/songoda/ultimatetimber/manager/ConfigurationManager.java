@@ -14,8 +14,11 @@ public class ConfigurationManager extends Manager {
         LOCALE(SettingType.STRING),
         DISABLED_WORLDS(SettingType.STRING_LIST),
         MAX_LOGS_PER_CHOP(SettingType.INT),
+        DETECTION_PROBE_LIMIT(SettingType.INT),
+        DETECTION_TIME_LIMIT(SettingType.INT),
         DESTROY_LEAVES(SettingType.BOOLEAN),
         LEAVES_REQUIRED_FOR_TREE(SettingType.INT),
+        USE_VANILLA_LEAF_DISTANCE(SettingType.BOOLEAN),
         REALISTIC_TOOL_DAMAGE(SettingType.BOOLEAN),
         PROTECT_TOOL(SettingType.BOOLEAN),
         APPLY_SILK_TOUCH(SettingType.BOOLEAN),
@@ -24,6 +27,10 @@ public class ConfigurationManager extends Manager {
         BREAK_ENTIRE_TREE_BASE(SettingType.BOOLEAN),
         DESTROY_INITIATED_BLOCK(SettingType.BOOLEAN),
         ONLY_DETECT_LOGS_UPWARDS(SettingType.BOOLEAN),
+        ASYNC_TREE_DETECTION(SettingType.BOOLEAN),
+        ASYNC_TREE_DETECTION_THREADS(SettingType.INT),
+        PRE_DETECT_TREES(SettingType.BOOLEAN),
+        PRE_DETECT_TREES_EXPIRY(SettingType.INT),
         ONLY_TOPPLE_WHILE(SettingType.STRING),
         ALLOW_CREATIVE_MODE(SettingType.BOOLEAN),
         REQUIRE_CHOP_PERMISSION(SettingType.BOOLEAN),
@@ -42,11 +49,21 @@ public class ConfigurationManager extends Manager {
         BONUS_LOOT_MULTIPLIER(SettingType.DOUBLE),
         IGNORE_PLACED_BLOCKS(SettingType.BOOLEAN),
         IGNORE_PLACED_BLOCKS_MEMORY_SIZE(SettingType.INT),
+        IGNORE_PLACED_BLOCKS_STORAGE(SettingType.STRING),
+        NATURAL_TREES_ONLY(SettingType.BOOLEAN),
         HOOKS_APPLY_EXPERIENCE(SettingType.BOOLEAN),
         HOOKS_APPLY_EXTRA_DROPS(SettingType.BOOLEAN),
         HOOKS_REQUIRE_ABILITY_ACTIVE(SettingType.BOOLEAN),
         TREE_ANIMATION_TYPE(SettingType.STRING),
         SCATTER_TREE_BLOCKS_ON_GROUND(SettingType.BOOLEAN),
+        MAX_FALLING_BLOCKS(SettingType.INT),
+        MAX_FALLING_BLOCKS_PER_CHUNK(SettingType.INT),
+        FALLING_BLOCKS_OVER_BUDGET(SettingType.STRING),
+        ADAPTIVE_ANIMATIONS(SettingType.BOOLEAN),
+        ADAPTIVE_ANIMATIONS_LAG_THRESHOLD(SettingType.INT),
+        ADAPTIVE_ANIMATIONS_RECOVER_THRESHOLD(SettingType.INT),
+        ADAPTIVE_ANIMATIONS_RECOVER_DELAY(SettingType.INT),
+        ADAPTIVE_ANIMATIONS_MAX_LOGS_PER_CHOP(SettingType.INT),
         FRAGILE_BLOCKS(SettingType.STRING_LIST);
 
         private SettingType settingType;
@@ -0,0 +1,249 @@
+package com.songoda.ultimatetimber.manager;
+
+import com.songoda.ultimatetimber.UltimateTimber;
+import com.songoda.ultimatetimber.animation.TreeAnimationType;
+import org.bukkit.Bukkit;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches how long server ticks take and lowers the tree animation and detection limits while the server is lagging
+ * Ticks are timed from one to the next, so this works on any server, but can't tell a healthy 50 ms tick from a faster one
+ */
+public class PerformanceManager extends Manager implements Runnable {
+
+    private static final int SAMPLE_TICKS = 5 * 20;
+    private static final int EVALUATE_TICKS = 20;
+    private static final long LOWER_COOLDOWN = TimeUnit.SECONDS.toMillis(5);
+    private static final int MAX_TRANSITIONS = 50;
+
+    private final long[] tickNanos;
+    private int tickIndex, tickCount, ticksSinceEvaluate;
+    private long lastTickTime;
+    private final Deque<Transition> transitions;
+    private int timesLowered;
+    private long lastTransitionTime, recoveringSince;
+    private volatile LoadLevel loadLevel;
+    private final int taskId;
+
+    // Written by reload, which can run while trees are being detected off of the main thread
+    private volatile boolean enabled;
+    private volatile double lagThreshold, recoverThreshold;
+    private volatile long recoverDelay;
+    private volatile int maxLogsWhileLagging;
+
+    public PerformanceManager(UltimateTimber ultimateTimber) {
+        super(ultimateTimber);
+        this.tickNanos = new long[SAMPLE_TICKS];
+        this.transitions = new ArrayDeque<>();
+        this.loadLevel = LoadLevel.NORMAL;
+        this.taskId = Bukkit.getScheduler().runTaskTimer(this.plugin, this, 0, 1L).getTaskId();
+    }
+
+    @Override
+    public void reload() {
+        this.enabled = ConfigurationManager.Setting.ADAPTIVE_ANIMATIONS.getBoolean();
+        this.lagThreshold = ConfigurationManager.Setting.ADAPTIVE_ANIMATIONS_LAG_THRESHOLD.getInt();
+        this.recoverThreshold = Math.min(this.lagThreshold, ConfigurationManager.Setting.ADAPTIVE_ANIMATIONS_RECOVER_THRESHOLD.getInt());
+        this.recoverDelay = TimeUnit.SECONDS.toMillis(ConfigurationManager.Setting.ADAPTIVE_ANIMATIONS_RECOVER_DELAY.getInt());
+        this.maxLogsWhileLagging = ConfigurationManager.Setting.ADAPTIVE_ANIMATIONS_MAX_LOGS_PER_CHOP.getInt();
+
+        if (!this.enabled && this.loadLevel != LoadLevel.NORMAL)
+            this.setLoadLevel(LoadLevel.NORMAL, this.getAverageTickMillis());
+    }
+
+    @Override
+    public void disable() {
+        Bukkit.getScheduler().cancelTask(this.taskId);
+    }
+
+    @Override
+    public void run() {
+        long now = System.nanoTime();
+        if (this.lastTickTime != 0) {
+            this.tickNanos[this.tickIndex] = now - this.lastTickTime;
+            this.tickIndex = (this.tickIndex + 1) % SAMPLE_TICKS;
+            this.tickCount = Math.min(this.tickCount + 1, SAMPLE_TICKS);
+        }
+        this.lastTickTime = now;
+
+        if (++this.ticksSinceEvaluate < EVALUATE_TICKS)
+            return;
+
+        this.ticksSinceEvaluate = 0;
+        if (this.enabled && this.tickCount == SAMPLE_TICKS)
+            this.evaluate();
+    }
+
+    /**
+     * Lowers the load level a step when ticks take too long, and raises it a step once they have been fast enough for a while
+     * The gap between the two thresholds and the recover delay keep the level from flapping back and forth
+     */
+    private void evaluate() {
+        double averageTickMillis = this.getAverageTickMillis();
+        long now = System.currentTimeMillis();
+
+        if (averageTickMillis > this.lagThreshold) {
+            this.recoveringSince = 0;
+
+            // Wait for the samples from before the last step to roll out of the window before lowering again
+            if (this.loadLevel.ordinal() < LoadLevel.values().length - 1 && now - this.lastTransitionTime >= LOWER_COOLDOWN) {
+                this.timesLowered++;
+                this.setLoadLevel(LoadLevel.values()[this.loadLevel.ordinal() + 1], averageTickMillis);
+            }
+        } else if (averageTickMillis < this.recoverThreshold && this.loadLevel != LoadLevel.NORMAL) {
+            if (this.recoveringSince == 0) {
+                this.recoveringSince = now;
+            } else if (now - this.recoveringSince >= this.recoverDelay) {
+                this.recoveringSince = now;
+                this.setLoadLevel(LoadLevel.values()[this.loadLevel.ordinal() - 1], averageTickMillis);
+            }
+        } else {
+            this.recoveringSince = 0;
+        }
+    }
+
+    private void setLoadLevel(LoadLevel loadLevel, double averageTickMillis) {
+        Transition transition = new Transition(System.currentTimeMillis(), this.loadLevel, loadLevel, averageTickMillis);
+        this.transitions.addLast(transition);
+        if (this.transitions.size() > MAX_TRANSITIONS)
+            this.transitions.removeFirst();
+
+        this.loadLevel = loadLevel;
+        this.lastTransitionTime = transition.getTime();
+        this.plugin.getLogger().info(String.format("Ticks are taking %.1f ms on average, tree animations changed from %s to %s load",
+                averageTickMillis, transition.getFrom().name().toLowerCase(), transition.getTo().name().toLowerCase()));
+    }
+
+    /**
+     * Gets the animation type to play right now, stepping down from the configured type while the server is lagging
+     *
+     * @param treeAnimationType The configured TreeAnimationType
+     * @return The TreeAnimationType to play
+     */
+    public TreeAnimationType getAnimationType(TreeAnimationType treeAnimationType) {
+        for (int i = 0; i < this.loadLevel.ordinal(); i++) {
+            switch (treeAnimationType) {
+                case FANCY:
+                    treeAnimationType = TreeAnimationType.CRUMBLE;
+                    break;
+                case CRUMBLE:
+                case DISINTEGRATE:
+                case DISPLAY:
+                    treeAnimationType = TreeAnimationType.NONE;
+                    break;
+            }
+        }
+        return treeAnimationType;
+    }
+
+    /**
+     * Gets the max number of logs to detect in a tree right now, safe to call from any thread
+     *
+     * @param maxLogBlocks The configured max number of logs, or 0 for no limit
+     * @return The max number of logs to detect, or 0 for no limit
+     */
+    public int getMaxLogBlocks(int maxLogBlocks) {
+        // Read once so a reload in between can't mix two different limits
+        int maxLogsWhileLagging = this.maxLogsWhileLagging;
+        if (this.loadLevel == LoadLevel.NORMAL || maxLogsWhileLagging <= 0)
+            return maxLogBlocks;
+        return maxLogBlocks <= 0 ? maxLogsWhileLagging : Math.min(maxLogBlocks, maxLogsWhileLagging);
+    }
+
+    /**
+     * @return The current LoadLevel
+     */
+    public LoadLevel getLoadLevel() {
+        return this.loadLevel;
+    }
+
+    /**
+     * @return The average time between ticks over the last 5 seconds, in milliseconds
+     */
+    public double getAverageTickMillis() {
+        if (this.tickCount == 0)
+            return 0;
+
+        long total = 0;
+        for (int i = 0; i < this.tickCount; i++)
+            total += this.tickNanos[i];
+        return total / (double) this.tickCount / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * @return The number of times the load level was lowered since the server started
+     */
+    public int getTimesLowered() {
+        return this.timesLowered;
+    }
+
+    /**
+     * Gets the most recent changes of the load level, oldest first
+     *
+     * @return A list of Transitions
+     */
+    public List<Transition> getTransitions() {
+        return new ArrayList<>(this.transitions);
+    }
+
+    /**
+     * How far tree animations are stepped down from what is configured
+     */
+    public enum LoadLevel {
+        NORMAL,
+        REDUCED,
+        MINIMAL
+    }
+
+    /**
+     * A change of the load level
+     */
+    public static class Transition {
+
+        private final long time;
+        private final LoadLevel from, to;
+        private final double averageTickMillis;
+
+        private Transition(long time, LoadLevel from, LoadLevel to, double averageTickMillis) {
+            this.time = time;
+            this.from = from;
+            this.to = to;
+            this.averageTickMillis = averageTickMillis;
+        }
+
+        /**
+         * @return The time the load level changed, in milliseconds since the epoch
+         */
+        public long getTime() {
+            return this.time;
+        }
+
+        /**
+         * @return The LoadLevel before the change
+         */
+        public LoadLevel getFrom() {
+            return this.from;
+        }
+
+        /**
+         * @return The LoadLevel after the change
+         */
+        public LoadLevel getTo() {
+            return this.to;
+        }
+
+        /**
+         * @return The average tick length that caused the change, in milliseconds
+         */
+        public double getAverageTickMillis() {
+            return this.averageTickMillis;
+        }
+
+    }
+
+}
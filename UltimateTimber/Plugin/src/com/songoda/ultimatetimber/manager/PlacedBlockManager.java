@@ -1,11 +1,24 @@
 package com.songoda.ultimatetimber.manager;
 
+import com.songoda.core.compatibility.CompatibleMaterial;
+import com.songoda.core.compatibility.ServerVersion;
 import com.songoda.ultimatetimber.UltimateTimber;
 import com.songoda.ultimatetimber.events.TreeFellEvent;
+import com.songoda.ultimatetimber.placed.BlockTracker;
+import com.songoda.ultimatetimber.placed.ChunkDataStorage;
+import com.songoda.ultimatetimber.placed.CoreProtectImport;
+import com.songoda.ultimatetimber.placed.PlacedBlockIndex;
+import com.songoda.ultimatetimber.placed.PlacedBlockStorage;
+import com.songoda.ultimatetimber.placed.PlacedBlockStorageType;
+import com.songoda.ultimatetimber.placed.PlacedChunk;
+import com.songoda.ultimatetimber.placed.RegionFileStorage;
 import com.songoda.ultimatetimber.tree.ITreeBlock;
+import com.songoda.ultimatetimber.tree.TreeDefinitionIndex;
 import org.bukkit.Bukkit;
-import org.bukkit.Location;
+import org.bukkit.Chunk;
+import org.bukkit.ChunkSnapshot;
 import org.bukkit.Material;
+import org.bukkit.World;
 import org.bukkit.block.Block;
 import org.bukkit.block.BlockState;
 import org.bukkit.event.EventHandler;
@@ -14,18 +27,21 @@ import org.bukkit.event.Listener;
 import org.bukkit.event.block.BlockBreakEvent;
 import org.bukkit.event.block.BlockPlaceEvent;
 import org.bukkit.event.block.LeavesDecayEvent;
+import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.event.world.ChunkPopulateEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
 import org.bukkit.event.world.StructureGrowEvent;
+import org.bukkit.event.world.WorldSaveEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
 
-import java.util.Collections;
-import java.util.LinkedHashMap;
-import java.util.Map;
-import java.util.Set;
+import java.io.File;
 
 public class PlacedBlockManager extends Manager implements Listener {
 
-    private Set<Location> placedBlocks;
-    private boolean ignorePlacedBlocks;
-    private int maxPlacedBlockMemorySize;
+    private BlockTracker placedBlocks;
+    private BlockTracker naturalLogs;
+    private boolean[] naturalLogMaterials;
+    private CoreProtectImport coreProtectImport;
 
     public PlacedBlockManager(UltimateTimber ultimateTimber) {
         super(ultimateTimber);
@@ -34,81 +50,220 @@ public class PlacedBlockManager extends Manager implements Listener {
 
     @Override
     public void reload() {
-        this.ignorePlacedBlocks = ConfigurationManager.Setting.IGNORE_PLACED_BLOCKS.getBoolean();
-        this.maxPlacedBlockMemorySize = ConfigurationManager.Setting.IGNORE_PLACED_BLOCKS_MEMORY_SIZE.getInt();
-
-        // Ensures the oldest entry is removed if it exceeds the limit
-        this.placedBlocks = Collections.newSetFromMap(new LinkedHashMap<Location, Boolean>() {
-            @Override
-            protected boolean removeEldestEntry(Map.Entry<Location, Boolean> eldest) {
-                return this.size() > PlacedBlockManager.this.maxPlacedBlockMemorySize;
+        // Save everything with the old settings before they change
+        this.closeTrackers();
+
+        PlacedBlockStorageType storageType = PlacedBlockStorageType.fromString(ConfigurationManager.Setting.IGNORE_PLACED_BLOCKS_STORAGE.getString());
+        if (ConfigurationManager.Setting.IGNORE_PLACED_BLOCKS.getBoolean()) {
+            this.placedBlocks = new BlockTracker(this.createStorage(storageType, "placed-blocks"), ConfigurationManager.Setting.IGNORE_PLACED_BLOCKS_MEMORY_SIZE.getInt());
+            this.placedBlocks.loadAll();
+        }
+
+        if (ConfigurationManager.Setting.NATURAL_TREES_ONLY.getBoolean()) {
+            if (ServerVersion.isServerVersionAtLeast(ServerVersion.V1_13)) {
+                // Natural logs are never evicted, forgetting them would make their trees impossible to topple
+                this.naturalLogs = new BlockTracker(this.createStorage(storageType, "natural-logs"), 0);
+                this.naturalLogs.loadAll();
+            } else {
+                this.plugin.getLogger().warning("Only toppling natural trees requires 1.13 or newer, all trees can be toppled instead.");
             }
-        });
+        }
     }
 
     @Override
     public void disable() {
-        this.placedBlocks.clear();
+        // The import thread would otherwise wait for main thread tasks that never run
+        if (this.coreProtectImport != null)
+            this.coreProtectImport.cancel();
+
+        this.closeTrackers();
     }
 
-    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
-    public void onBlockPlaced(BlockPlaceEvent event) {
-        if (!this.ignorePlacedBlocks)
+    /**
+     * Saves and stops tracking blocks
+     */
+    private void closeTrackers() {
+        if (this.placedBlocks != null) {
+            this.placedBlocks.close();
+            this.placedBlocks = null;
+        }
+
+        if (this.naturalLogs != null) {
+            this.naturalLogs.close();
+            this.naturalLogs = null;
+        }
+
+        this.naturalLogMaterials = null;
+    }
+
+    /**
+     * Creates the storage for tracked blocks
+     *
+     * @param storageType The type of storage to create
+     * @param name        The name to store the blocks under
+     * @return The PlacedBlockStorage, or null if the blocks should only be kept in memory
+     */
+    private PlacedBlockStorage createStorage(PlacedBlockStorageType storageType, String name) {
+        switch (storageType) {
+            case CHUNK:
+                if (ServerVersion.isServerVersionAtLeast(ServerVersion.V1_16))
+                    return new ChunkDataStorage(this.plugin, name.replace('-', '_'));
+                this.plugin.getLogger().warning("Storing " + name + " in chunks requires 1.16 or newer, storing them in files instead.");
+            case FILE:
+                return new RegionFileStorage(this.plugin, new File(this.plugin.getDataFolder(), name));
+            default:
+                return null;
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChunkLoad(ChunkLoadEvent event) {
+        Chunk chunk = event.getChunk();
+        if (this.placedBlocks != null)
+            this.placedBlocks.loadChunk(event.getWorld(), chunk.getX(), chunk.getZ());
+        if (this.naturalLogs != null)
+            this.naturalLogs.loadChunk(event.getWorld(), chunk.getX(), chunk.getZ());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChunkUnload(ChunkUnloadEvent event) {
+        if (this.placedBlocks != null)
+            this.placedBlocks.unloadChunk(event.getChunk());
+        if (this.naturalLogs != null)
+            this.naturalLogs.unloadChunk(event.getChunk());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChunkPopulate(ChunkPopulateEvent event) {
+        if (this.naturalLogs == null)
             return;
 
+        // Scanning a whole chunk is too slow for the main thread, so only copy it here
+        BlockTracker naturalLogs = this.naturalLogs;
+        boolean[] naturalLogMaterials = this.getNaturalLogMaterials();
+        World world = event.getWorld();
+        ChunkSnapshot snapshot = event.getChunk().getChunkSnapshot(false, false, false);
+        int minY = ServerVersion.isServerVersionAtLeast(ServerVersion.V1_17) ? world.getMinHeight() : 0, maxY = world.getMaxHeight();
+        Bukkit.getScheduler().runTaskAsynchronously(this.plugin, () -> {
+            PlacedChunk chunk = findNaturalLogs(snapshot, naturalLogMaterials, minY, maxY);
+            if (!chunk.isEmpty() && this.plugin.isEnabled())
+                Bukkit.getScheduler().runTask(this.plugin, () -> {
+                    if (this.naturalLogs == naturalLogs)
+                        naturalLogs.addChunk(world, chunk);
+                });
+        });
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onWorldSave(WorldSaveEvent event) {
+        if (this.placedBlocks != null)
+            this.placedBlocks.saveWorld(event.getWorld());
+        if (this.naturalLogs != null)
+            this.naturalLogs.saveWorld(event.getWorld());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onWorldUnload(WorldUnloadEvent event) {
+        if (this.placedBlocks != null)
+            this.placedBlocks.unloadWorld(event.getWorld());
+        if (this.naturalLogs != null)
+            this.naturalLogs.unloadWorld(event.getWorld());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockPlaced(BlockPlaceEvent event) {
         // Ignore stripping logs
         if (event.getBlockPlaced().getType().name().contains("STRIPPED") && !event.getBlockReplacedState().getType().equals(Material.AIR))
             return;
 
         this.internalProtect(event.getBlock(), true);
+        this.internalNatural(event.getBlock(), false);
     }
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onBlockBreak(BlockBreakEvent event) {
-        if (!this.ignorePlacedBlocks)
-            return;
-
+        // Natural logs are kept, the tree they belong to may still be detected after the break
         this.internalProtect(event.getBlock(), false);
     }
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onLeafDecay(LeavesDecayEvent event) {
-        if (!this.ignorePlacedBlocks)
-            return;
-
         this.internalProtect(event.getBlock(), false);
     }
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onStructureGrow(StructureGrowEvent event) {
-        if (!this.ignorePlacedBlocks)
-            return;
-
-        for (BlockState blockState : event.getBlocks())
+        boolean[] naturalLogMaterials = this.naturalLogs != null ? this.getNaturalLogMaterials() : null;
+        for (BlockState blockState : event.getBlocks()) {
             this.internalProtect(blockState.getBlock(), false);
+            if (naturalLogMaterials != null && naturalLogMaterials[blockState.getType().ordinal()])
+                this.internalNatural(blockState.getBlock(), true);
+        }
     }
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onTreeFell(TreeFellEvent event) {
-        if (!this.ignorePlacedBlocks)
-            return;
-
-        for (ITreeBlock<Block> treeBlock : event.getDetectedTree().getDetectedTreeBlocks().getAllTreeBlocks())
+        for (ITreeBlock<Block> treeBlock : event.getDetectedTree().getDetectedTreeBlocks().getAllTreeBlocksView()) {
             this.internalProtect(treeBlock.getBlock(), false);
+            this.internalNatural(treeBlock.getBlock(), false);
+        }
     }
 
     /**
      * Handles when a block is placed/broken
      */
     private void internalProtect(Block block, boolean isPlaced) {
-        if (isPlaced) {
-            if (this.isBlockPlaced(block))
-                return;
+        if (this.placedBlocks != null)
+            this.placedBlocks.setTracked(block.getWorld(), block.getX(), block.getY(), block.getZ(), isPlaced);
+    }
 
-            this.placedBlocks.add(block.getLocation());
-        } else {
-            this.placedBlocks.remove(block.getLocation());
+    /**
+     * Handles when a natural log grows/is replaced
+     */
+    private void internalNatural(Block block, boolean isNatural) {
+        if (this.naturalLogs != null)
+            this.naturalLogs.setTracked(block.getWorld(), block.getX(), block.getY(), block.getZ(), isNatural);
+    }
+
+    /**
+     * Gets which materials are logs of any tree definition, indexed by Material ordinal
+     */
+    private boolean[] getNaturalLogMaterials() {
+        if (this.naturalLogMaterials == null) {
+            TreeDefinitionIndex treeDefinitionIndex = this.plugin.getTreeDefinitionManager().getTreeDefinitionIndex();
+            Material[] materials = Material.values();
+            boolean[] naturalLogMaterials = new boolean[materials.length];
+            for (Material material : materials)
+                naturalLogMaterials[material.ordinal()] = treeDefinitionIndex.getLogMask(CompatibleMaterial.getMaterial(material)) != 0;
+            this.naturalLogMaterials = naturalLogMaterials;
         }
+        return this.naturalLogMaterials;
+    }
+
+    /**
+     * Finds every log in a freshly generated chunk
+     *
+     * @param snapshot            The ChunkSnapshot to scan
+     * @param naturalLogMaterials Which materials are logs, indexed by Material ordinal
+     * @param minY                The lowest block y coordinate of the world
+     * @param maxY                The highest block y coordinate of the world, exclusive
+     * @return A PlacedChunk with every log placed
+     */
+    private static PlacedChunk findNaturalLogs(ChunkSnapshot snapshot, boolean[] naturalLogMaterials, int minY, int maxY) {
+        PlacedChunk chunk = new PlacedChunk(PlacedBlockIndex.getChunkKey(snapshot.getX(), snapshot.getZ()));
+        int baseX = snapshot.getX() << 4, baseZ = snapshot.getZ() << 4;
+        for (int sectionY = minY >> 4; sectionY < maxY >> 4; sectionY++) {
+            // Sections of a snapshot are numbered from the bottom of the world
+            if (snapshot.isSectionEmpty(sectionY - (minY >> 4)))
+                continue;
+
+            for (int y = sectionY << 4; y < (sectionY + 1) << 4; y++)
+                for (int z = 0; z < 16; z++)
+                    for (int x = 0; x < 16; x++)
+                        if (naturalLogMaterials[snapshot.getBlockType(x, y, z).ordinal()])
+                            chunk.setPlaced(baseX | x, y, baseZ | z, true);
+        }
+        return chunk;
     }
 
     /**
@@ -118,7 +273,108 @@ public class PlacedBlockManager extends Manager implements Listener {
      * @return True if the block is placed, otherwise false
      */
     public boolean isBlockPlaced(Block block) {
-        return this.placedBlocks.contains(block.getLocation());
+        return this.isBlockPlaced(block.getWorld(), block.getX(), block.getY(), block.getZ());
+    }
+
+    /**
+     * Gets if a block is placed, safe to call off of the main thread
+     *
+     * @param world The World the block is in
+     * @param x     The block x coordinate
+     * @param y     The block y coordinate
+     * @param z     The block z coordinate
+     * @return True if the block is placed, otherwise false
+     */
+    public boolean isBlockPlaced(World world, int x, int y, int z) {
+        BlockTracker placedBlocks = this.placedBlocks;
+        return placedBlocks != null && placedBlocks.isTracked(world, x, y, z);
+    }
+
+    /**
+     * Gets if a log may be toppled as part of a natural tree, safe to call off of the main thread
+     *
+     * @param world The World the log is in
+     * @param x     The block x coordinate
+     * @param y     The block y coordinate
+     * @param z     The block z coordinate
+     * @return True if the log was generated or grown, or if every log may be toppled, otherwise false
+     */
+    public boolean isNaturalLog(World world, int x, int y, int z) {
+        BlockTracker naturalLogs = this.naturalLogs;
+        return naturalLogs == null || naturalLogs.isTracked(world, x, y, z);
+    }
+
+    /**
+     * Marks a block as placed or not placed, such as when importing block history
+     * The chunk the block is in doesn't need to be loaded, it will be merged with its stored blocks
+     *
+     * @param world  The World the block is in
+     * @param x      The block x coordinate
+     * @param y      The block y coordinate
+     * @param z      The block z coordinate
+     * @param placed If the block is placed
+     */
+    public void setBlockPlaced(World world, int x, int y, int z, boolean placed) {
+        if (this.placedBlocks != null) {
+            this.placedBlocks.prepareChunk(world, x >> 4, z >> 4);
+            this.placedBlocks.setTracked(world, x, y, z, placed);
+        }
+
+        if (placed && this.naturalLogs != null) {
+            this.naturalLogs.prepareChunk(world, x >> 4, z >> 4);
+            this.naturalLogs.setTracked(world, x, y, z, false);
+        }
+    }
+
+    /**
+     * Checks if placed blocks are being tracked
+     *
+     * @return True if placed blocks are tracked, otherwise false
+     */
+    public boolean isTrackingPlacedBlocks() {
+        return this.placedBlocks != null;
+    }
+
+    /**
+     * Checks if block history can be imported without loading every chunk it touches on the main thread
+     *
+     * @return True if the blocks are stored in a way that can be imported, otherwise false
+     */
+    public boolean canImportBlocks() {
+        return (this.placedBlocks == null || !this.placedBlocks.requiresLoadedChunks())
+                && (this.naturalLogs == null || !this.naturalLogs.requiresLoadedChunks());
+    }
+
+    /**
+     * Runs an import of block history off of the main thread
+     *
+     * @param coreProtectImport The CoreProtectImport to run
+     */
+    public void startCoreProtectImport(CoreProtectImport coreProtectImport) {
+        this.coreProtectImport = coreProtectImport;
+        Bukkit.getScheduler().runTaskAsynchronously(this.plugin, coreProtectImport);
+    }
+
+    /**
+     * Gets the import of block history that is running
+     *
+     * @return The running CoreProtectImport, or null if no import is running
+     */
+    public CoreProtectImport getCoreProtectImport() {
+        if (this.coreProtectImport != null && this.coreProtectImport.isFinished())
+            this.coreProtectImport = null;
+        return this.coreProtectImport;
+    }
+
+    /**
+     * Gets the placed blocks that are being tracked in a world
+     *
+     * @param world The World
+     * @return The PlacedBlockIndex of the world, or null if no placed blocks are tracked in it
+     */
+    public PlacedBlockIndex getPlacedBlocks(World world) {
+        BlockTracker placedBlocks = this.placedBlocks;
+        return placedBlocks != null ? placedBlocks.getIndex(world) : null;
     }
 
 }
@@ -6,15 +6,22 @@ import com.songoda.ultimatetimber.UltimateTimber;
 import com.songoda.ultimatetimber.animation.TreeAnimation;
 import com.songoda.ultimatetimber.animation.TreeAnimationCrumble;
 import com.songoda.ultimatetimber.animation.TreeAnimationDisintegrate;
+import com.songoda.ultimatetimber.animation.TreeAnimationDisplay;
 import com.songoda.ultimatetimber.animation.TreeAnimationFancy;
 import com.songoda.ultimatetimber.animation.TreeAnimationNone;
 import com.songoda.ultimatetimber.animation.TreeAnimationType;
+import com.songoda.ultimatetimber.misc.BlockPositions;
+import com.songoda.ultimatetimber.misc.LongIntHashMap;
+import com.songoda.ultimatetimber.misc.LongObjectHashMap;
+import com.songoda.ultimatetimber.placed.PlacedBlockIndex;
 import com.songoda.ultimatetimber.tree.DetectedTree;
 import com.songoda.ultimatetimber.tree.ITreeBlock;
+import com.songoda.ultimatetimber.tree.TreeBlockSet;
 import com.songoda.ultimatetimber.tree.TreeDefinition;
 import com.songoda.ultimatetimber.utils.ParticleUtils;
 import com.songoda.ultimatetimber.utils.SoundUtils;
 import org.bukkit.Bukkit;
+import org.bukkit.World;
 import org.bukkit.block.Block;
 import org.bukkit.entity.Entity;
 import org.bukkit.entity.EntityType;
@@ -26,50 +33,241 @@ import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.entity.EntityChangeBlockEvent;
 
-import java.util.HashSet;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 
 public class TreeAnimationManager extends Manager implements Listener, Runnable {
 
+    private static final int TICK_SAMPLES = 100;
+    private static final int MAX_QUEUE_TICKS = 5 * 20;
+
     private final Set<TreeAnimation> activeAnimations;
+    private final LongObjectHashMap<AnimatedFallingBlock> fallingBlocks;
+    private final Map<UUID, LongObjectHashMap<TreeAnimation>> animatedBlocks;
+    private final Map<TreeAnimation, FallingBlockReservation> reservations;
+    private final Map<UUID, LongIntHashMap> chunkReservations;
+    private final Deque<QueuedAnimation> queuedAnimations;
+    private final long[] tickNanos;
+    private int tickIndex, tickCount;
+    private int reservedFallingBlocks;
+    private long currentTick, degradedAnimations;
+    private boolean paused;
+    private final boolean displaysSupported;
     private final int taskId;
 
     public TreeAnimationManager(UltimateTimber ultimateTimber) {
         super(ultimateTimber);
-        this.activeAnimations = new HashSet<>();
-        this.taskId = -1;
+        this.activeAnimations = new LinkedHashSet<>();
+        this.fallingBlocks = new LongObjectHashMap<>();
+        this.animatedBlocks = new HashMap<>();
+        this.reservations = new HashMap<>();
+        this.chunkReservations = new HashMap<>();
+        this.queuedAnimations = new ArrayDeque<>();
+        this.tickNanos = new long[TICK_SAMPLES];
+        this.displaysSupported = isDisplaySupported();
         Bukkit.getPluginManager().registerEvents(this, ultimateTimber);
-        Bukkit.getScheduler().runTaskTimer(this.plugin, this, 0, 1L);
+        this.taskId = Bukkit.getScheduler().runTaskTimer(this.plugin, this, 0, 1L).getTaskId();
     }
 
     @Override
     public void reload() {
-        this.activeAnimations.clear();
+        // Animations keep playing with the tree definitions they started with
     }
 
     @Override
     public void disable() {
-        this.activeAnimations.clear();
+        // Land everything now so no loot is lost and no falling blocks are left behind
+        this.finishAnimations();
+        this.paused = false;
         Bukkit.getScheduler().cancelTask(this.taskId);
     }
 
+    /**
+     * Advances every active animation by one tick
+     * This is the only task driving tree animations, so each animation is a state machine advanced here in a single pass
+     */
     @Override
     public void run() {
-        for (TreeAnimation treeAnimation : this.activeAnimations) {
-            Set<ITreeBlock<FallingBlock>> groundedBlocks = new HashSet<>();
-            for (ITreeBlock<FallingBlock> fallingTreeBlock : treeAnimation.getFallingTreeBlocks().getAllTreeBlocks()) {
-                FallingBlock fallingBlock = fallingTreeBlock.getBlock();
-                if (fallingBlock.isDead() || ServerVersion.isServerVersionAtLeast(ServerVersion.V1_17) && fallingBlock.isOnGround())
-                    groundedBlocks.add(fallingTreeBlock);
-            }
+        long start = System.nanoTime();
+        this.currentTick++;
+        if (!this.paused)
+            this.startQueuedAnimations();
 
-            for (ITreeBlock<FallingBlock> fallingBlock : groundedBlocks) {
-                this.runFallingBlockImpact(treeAnimation, fallingBlock);
-                if (ServerVersion.isServerVersionAtLeast(ServerVersion.V1_17))
-                    fallingBlock.getBlock().remove();
-                treeAnimation.getFallingTreeBlocks().remove(fallingBlock);
+        if (!this.paused && !this.activeAnimations.isEmpty()) {
+            // Copied since animations may finish while ticking
+            for (TreeAnimation treeAnimation : new ArrayList<>(this.activeAnimations)) {
+                this.landFallingBlocks(treeAnimation);
+                if (treeAnimation.tick())
+                    this.unregisterTreeAnimation(treeAnimation);
             }
         }
+
+        this.tickNanos[this.tickIndex] = System.nanoTime() - start;
+        this.tickIndex = (this.tickIndex + 1) % TICK_SAMPLES;
+        this.tickCount = Math.min(this.tickCount + 1, TICK_SAMPLES);
+    }
+
+    /**
+     * Resolves the impact of every falling block of an animation that has hit the ground
+     */
+    private void landFallingBlocks(TreeAnimation treeAnimation) {
+        // Blocks can be removed from the set while iterating over it, so grounded blocks are handled in place
+        treeAnimation.getFallingTreeBlocks().forEachTreeBlock(fallingTreeBlock -> {
+            FallingBlock fallingBlock = fallingTreeBlock.getBlock();
+            if (!fallingBlock.isDead() && !(ServerVersion.isServerVersionAtLeast(ServerVersion.V1_17) && fallingBlock.isOnGround()))
+                return;
+
+            this.runFallingBlockImpact(treeAnimation, fallingTreeBlock);
+            if (ServerVersion.isServerVersionAtLeast(ServerVersion.V1_17))
+                fallingBlock.remove();
+        });
+    }
+
+    /**
+     * Pauses or resumes every active animation
+     * Blocks that are already falling keep falling, but no animation advances while paused
+     *
+     * @param paused If the animations should be paused
+     */
+    public void setPaused(boolean paused) {
+        this.paused = paused;
+    }
+
+    /**
+     * @return True if the animations are paused, otherwise false
+     */
+    public boolean isPaused() {
+        return this.paused;
+    }
+
+    /**
+     * Finishes every active animation right away
+     * Falling blocks land where they are and blocks that haven't fallen yet are broken, dropping their loot as usual
+     *
+     * @return The number of animations that were finished
+     */
+    public int finishAnimations() {
+        int finished = this.queuedAnimations.size();
+        while (!this.queuedAnimations.isEmpty()) {
+            // Trees that are still waiting are toppled without an animation
+            TreeAnimation queuedAnimation = this.queuedAnimations.poll().treeAnimation;
+            this.unindexTreeAnimation(queuedAnimation);
+            new TreeAnimationNone(queuedAnimation.getDetectedTree(), queuedAnimation.getPlayer()).start();
+        }
+
+        List<TreeAnimation> treeAnimations = new ArrayList<>(this.activeAnimations);
+        for (TreeAnimation treeAnimation : treeAnimations) {
+            treeAnimation.finish();
+            this.unregisterTreeAnimation(treeAnimation);
+        }
+        return finished + treeAnimations.size();
+    }
+
+    /**
+     * Stops every active animation where it is
+     * Falling blocks are removed without dropping anything and blocks that haven't fallen yet are left standing
+     *
+     * @return The number of animations that were cancelled
+     */
+    public int cancelAnimations() {
+        int cancelled = this.queuedAnimations.size();
+        while (!this.queuedAnimations.isEmpty())
+            this.unindexTreeAnimation(this.queuedAnimations.poll().treeAnimation);
+
+        List<TreeAnimation> treeAnimations = new ArrayList<>(this.activeAnimations);
+        for (TreeAnimation treeAnimation : treeAnimations) {
+            treeAnimation.cancel();
+            this.unregisterTreeAnimation(treeAnimation);
+        }
+        return cancelled + treeAnimations.size();
+    }
+
+    /**
+     * @return The number of animations that are playing
+     */
+    public int getActiveAnimationCount() {
+        return this.activeAnimations.size();
+    }
+
+    /**
+     * @return The number of falling blocks spawned by the animations that are playing
+     */
+    public int getFallingBlockCount() {
+        return this.fallingBlocks.size();
+    }
+
+    /**
+     * Gets how many falling blocks of the budget are in use
+     * Each animation that uses falling blocks holds one for every block of its tree until that block lands
+     *
+     * @return The number of falling blocks in use
+     */
+    public int getFallingBlockBudgetUsage() {
+        return this.reservedFallingBlocks;
+    }
+
+    /**
+     * Gets how many falling blocks of the budget are in use by trees in a chunk
+     *
+     * @param world  The World the chunk is in
+     * @param chunkX The chunk x coordinate
+     * @param chunkZ The chunk z coordinate
+     * @return The number of falling blocks in use by trees in the chunk
+     */
+    public int getFallingBlockBudgetUsage(World world, int chunkX, int chunkZ) {
+        LongIntHashMap worldReservations = this.chunkReservations.get(world.getUID());
+        return worldReservations != null ? worldReservations.get(PlacedBlockIndex.getChunkKey(chunkX, chunkZ)) : 0;
+    }
+
+    /**
+     * @return The number of trees waiting for falling blocks to land before they start their animation
+     */
+    public int getQueuedAnimationCount() {
+        return this.queuedAnimations.size();
+    }
+
+    /**
+     * @return The number of trees toppled without an animation since they would have gone over the falling block budget
+     */
+    public long getDegradedAnimationCount() {
+        return this.degradedAnimations;
+    }
+
+    /**
+     * @return The time the last tick of the animations took, in nanoseconds
+     */
+    public long getLastTickNanos() {
+        return this.tickNanos[(this.tickIndex + TICK_SAMPLES - 1) % TICK_SAMPLES];
+    }
+
+    /**
+     * @return The average time a tick of the animations took over the last few seconds, in nanoseconds
+     */
+    public long getAverageTickNanos() {
+        if (this.tickCount == 0)
+            return 0;
+
+        long total = 0;
+        for (int i = 0; i < this.tickCount; i++)
+            total += this.tickNanos[i];
+        return total / this.tickCount;
+    }
+
+    /**
+     * @return The longest time a tick of the animations took over the last few seconds, in nanoseconds
+     */
+    public long getMaxTickNanos() {
+        long max = 0;
+        for (int i = 0; i < this.tickCount; i++)
+            max = Math.max(max, this.tickNanos[i]);
+        return max;
     }
 
     /**
@@ -79,19 +277,134 @@ public class TreeAnimationManager extends Manager implements Listener, Runnable
      * @param player       The Player who toppled the tree
      */
     public void runAnimation(DetectedTree detectedTree, Player player) {
-        switch (TreeAnimationType.fromString(ConfigurationManager.Setting.TREE_ANIMATION_TYPE.getString())) {
+        TreeAnimationType treeAnimationType = TreeAnimationType.fromString(ConfigurationManager.Setting.TREE_ANIMATION_TYPE.getString());
+        TreeAnimation treeAnimation = this.createTreeAnimation(this.plugin.getPerformanceManager().getAnimationType(treeAnimationType), detectedTree, player);
+        if (!treeAnimation.getTreeAnimationType().usesFallingBlocks()) {
+            this.registerTreeAnimation(treeAnimation);
+            return;
+        }
+
+        // Trees wait their turn behind any tree that is already waiting for the budget
+        int blocks = detectedTree.getDetectedTreeBlocks().size();
+        if (this.queuedAnimations.isEmpty() && this.fitsFallingBlockBudget(treeAnimation, blocks)) {
+            this.registerTreeAnimation(treeAnimation);
+        } else if (this.canFitFallingBlockBudget(blocks) && !"NONE".equalsIgnoreCase(ConfigurationManager.Setting.FALLING_BLOCKS_OVER_BUDGET.getString())) {
+            this.indexTreeAnimation(treeAnimation);
+            this.queuedAnimations.add(new QueuedAnimation(treeAnimation, blocks, this.currentTick));
+        } else {
+            this.degradedAnimations++;
+            this.registerTreeAnimation(new TreeAnimationNone(detectedTree, player));
+        }
+    }
+
+    /**
+     * Creates a tree animation of the given type
+     */
+    private TreeAnimation createTreeAnimation(TreeAnimationType treeAnimationType, DetectedTree detectedTree, Player player) {
+        switch (treeAnimationType) {
             case FANCY:
-                this.registerTreeAnimation(new TreeAnimationFancy(detectedTree, player));
-                break;
+                return new TreeAnimationFancy(detectedTree, player);
             case DISINTEGRATE:
-                this.registerTreeAnimation(new TreeAnimationDisintegrate(detectedTree, player));
-                break;
+                return new TreeAnimationDisintegrate(detectedTree, player);
             case CRUMBLE:
-                this.registerTreeAnimation(new TreeAnimationCrumble(detectedTree, player));
-                break;
-            case NONE:
-                this.registerTreeAnimation(new TreeAnimationNone(detectedTree, player));
-                break;
+                return new TreeAnimationCrumble(detectedTree, player);
+            case DISPLAY:
+                // Block display entities were added in 1.19.4
+                if (this.displaysSupported)
+                    return new TreeAnimationDisplay(detectedTree, player);
+                return new TreeAnimationFancy(detectedTree, player);
+            default:
+                return new TreeAnimationNone(detectedTree, player);
+        }
+    }
+
+    private static boolean isDisplaySupported() {
+        try {
+            Class.forName("org.bukkit.entity.BlockDisplay");
+            return true;
+        } catch (ClassNotFoundException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Starts the queued animations that fit in the falling block budget, in the order they were queued
+     * Trees that have waited too long are toppled without an animation instead
+     */
+    private void startQueuedAnimations() {
+        while (!this.queuedAnimations.isEmpty()) {
+            QueuedAnimation queuedAnimation = this.queuedAnimations.peek();
+            TreeAnimation treeAnimation = queuedAnimation.treeAnimation;
+            if (this.fitsFallingBlockBudget(treeAnimation, queuedAnimation.blocks)) {
+                this.queuedAnimations.poll();
+                this.startTreeAnimation(treeAnimation);
+            } else if (this.currentTick - queuedAnimation.queuedTick >= MAX_QUEUE_TICKS) {
+                this.queuedAnimations.poll();
+                this.unindexTreeAnimation(treeAnimation);
+                this.degradedAnimations++;
+                this.registerTreeAnimation(new TreeAnimationNone(treeAnimation.getDetectedTree(), treeAnimation.getPlayer()));
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Checks if an animation fits in what is left of the global and per chunk falling block budgets
+     */
+    private boolean fitsFallingBlockBudget(TreeAnimation treeAnimation, int blocks) {
+        int maxFallingBlocks = ConfigurationManager.Setting.MAX_FALLING_BLOCKS.getInt();
+        if (maxFallingBlocks > 0 && this.reservedFallingBlocks + blocks > maxFallingBlocks)
+            return false;
+
+        int maxFallingBlocksPerChunk = ConfigurationManager.Setting.MAX_FALLING_BLOCKS_PER_CHUNK.getInt();
+        if (maxFallingBlocksPerChunk <= 0)
+            return true;
+
+        LongIntHashMap worldReservations = this.chunkReservations.get(this.getWorld(treeAnimation).getUID());
+        return worldReservations == null || worldReservations.get(this.getChunkKey(treeAnimation)) + blocks <= maxFallingBlocksPerChunk;
+    }
+
+    /**
+     * Checks if a tree is small enough to ever fit in the falling block budgets
+     */
+    private boolean canFitFallingBlockBudget(int blocks) {
+        int maxFallingBlocks = ConfigurationManager.Setting.MAX_FALLING_BLOCKS.getInt();
+        int maxFallingBlocksPerChunk = ConfigurationManager.Setting.MAX_FALLING_BLOCKS_PER_CHUNK.getInt();
+        return (maxFallingBlocks <= 0 || blocks <= maxFallingBlocks) && (maxFallingBlocksPerChunk <= 0 || blocks <= maxFallingBlocksPerChunk);
+    }
+
+    /**
+     * Holds falling blocks of the budget for an animation, one for every block of its tree
+     */
+    private void reserveFallingBlocks(TreeAnimation treeAnimation) {
+        int blocks = treeAnimation.getDetectedTree().getDetectedTreeBlocks().size();
+        FallingBlockReservation reservation = new FallingBlockReservation(this.getWorld(treeAnimation).getUID(), this.getChunkKey(treeAnimation));
+        this.reservations.put(treeAnimation, reservation);
+        this.changeReservation(reservation, blocks);
+    }
+
+    /**
+     * Gives falling blocks held by an animation back to the budget
+     */
+    private void releaseFallingBlocks(TreeAnimation treeAnimation, int blocks) {
+        FallingBlockReservation reservation = this.reservations.get(treeAnimation);
+        if (reservation != null)
+            this.changeReservation(reservation, -Math.min(blocks, reservation.blocks));
+    }
+
+    private void changeReservation(FallingBlockReservation reservation, int blocks) {
+        reservation.blocks += blocks;
+        this.reservedFallingBlocks += blocks;
+
+        LongIntHashMap worldReservations = this.chunkReservations.computeIfAbsent(reservation.worldId, uuid -> new LongIntHashMap(0));
+        int chunkBlocks = worldReservations.get(reservation.chunkKey) + blocks;
+        if (chunkBlocks > 0) {
+            worldReservations.put(reservation.chunkKey, chunkBlocks);
+        } else {
+            worldReservations.remove(reservation.chunkKey);
+            if (worldReservations.isEmpty())
+                this.chunkReservations.remove(reservation.worldId);
         }
     }
 
@@ -101,11 +414,31 @@ public class TreeAnimationManager extends Manager implements Listener, Runnable
      * @param block The block to check
      */
     public boolean isBlockInAnimation(Block block) {
-        for (TreeAnimation treeAnimation : this.activeAnimations)
-            for (ITreeBlock<Block> treeBlock : treeAnimation.getDetectedTree().getDetectedTreeBlocks().getAllTreeBlocks())
-                if (treeBlock.getBlock().equals(block))
-                    return true;
-        return false;
+        return this.getAnimationForBlock(block) != null;
+    }
+
+    /**
+     * Gets the TreeAnimation that a given block is part of, for as long as the animation is playing
+     *
+     * @param block The block
+     * @return The TreeAnimation, or null if the block isn't in an animation
+     */
+    public TreeAnimation getAnimationForBlock(Block block) {
+        return this.getAnimationForBlock(block.getWorld(), block.getX(), block.getY(), block.getZ());
+    }
+
+    /**
+     * Gets the TreeAnimation that a block at the given position is part of, for as long as the animation is playing
+     *
+     * @param world The World the block is in
+     * @param x     The block x coordinate
+     * @param y     The block y coordinate
+     * @param z     The block z coordinate
+     * @return The TreeAnimation, or null if the block isn't in an animation
+     */
+    public TreeAnimation getAnimationForBlock(World world, int x, int y, int z) {
+        LongObjectHashMap<TreeAnimation> worldBlocks = this.animatedBlocks.get(world.getUID());
+        return worldBlocks != null ? worldBlocks.get(BlockPositions.pack(x, y, z)) : null;
     }
 
     /**
@@ -114,32 +447,128 @@ public class TreeAnimationManager extends Manager implements Listener, Runnable
      * @param fallingBlock The falling block to check
      */
     public boolean isBlockInAnimation(FallingBlock fallingBlock) {
-        for (TreeAnimation treeAnimation : this.activeAnimations)
-            for (ITreeBlock<FallingBlock> treeBlock : treeAnimation.getFallingTreeBlocks().getAllTreeBlocks())
-                if (treeBlock.getBlock().equals(fallingBlock))
-                    return true;
-        return false;
+        return this.getAnimatedFallingBlock(fallingBlock) != null;
     }
 
     /**
-     * Gets a TreeAnimation that a given falling block is in
+     * Gets the TreeAnimation that a given falling block is in
      *
-     * @return A TreeAnimation
+     * @param fallingBlock The falling block
+     * @return The TreeAnimation, or null if the falling block isn't in an animation
      */
-    private TreeAnimation getAnimationForBlock(FallingBlock fallingBlock) {
-        for (TreeAnimation treeAnimation : this.activeAnimations)
-            for (ITreeBlock<FallingBlock> treeBlock : treeAnimation.getFallingTreeBlocks().getAllTreeBlocks())
-                if (treeBlock.getBlock().equals(fallingBlock))
-                    return treeAnimation;
-        return null;
+    public TreeAnimation getAnimationForBlock(FallingBlock fallingBlock) {
+        AnimatedFallingBlock animatedFallingBlock = this.getAnimatedFallingBlock(fallingBlock);
+        return animatedFallingBlock != null ? animatedFallingBlock.treeAnimation : null;
+    }
+
+    /**
+     * Registers a falling block spawned by a tree animation, so it can be found by its entity id
+     * Must be called for every falling block an animation spawns
+     *
+     * @param treeAnimation    The TreeAnimation that spawned the falling block
+     * @param fallingTreeBlock The falling tree block
+     */
+    public void registerFallingBlock(TreeAnimation treeAnimation, ITreeBlock<FallingBlock> fallingTreeBlock) {
+        this.fallingBlocks.put(fallingTreeBlock.getBlock().getEntityId(), new AnimatedFallingBlock(treeAnimation, fallingTreeBlock));
+    }
+
+    /**
+     * Gets the registered falling tree block for a falling block
+     */
+    private AnimatedFallingBlock getAnimatedFallingBlock(FallingBlock fallingBlock) {
+        return this.fallingBlocks.get(fallingBlock.getEntityId());
+    }
+
+    /**
+     * Removes a falling tree block from an animation and stops tracking it
+     */
+    private void removeFallingBlock(TreeAnimation treeAnimation, ITreeBlock<FallingBlock> fallingTreeBlock) {
+        treeAnimation.getFallingTreeBlocks().remove(fallingTreeBlock);
+
+        long entityId = fallingTreeBlock.getBlock().getEntityId();
+        AnimatedFallingBlock animatedFallingBlock = this.fallingBlocks.get(entityId);
+        if (animatedFallingBlock != null && animatedFallingBlock.fallingTreeBlock == fallingTreeBlock) {
+            this.fallingBlocks.remove(entityId);
+            this.releaseFallingBlocks(treeAnimation, 1);
+        }
     }
 
     /**
      * Registers and runs a tree animation
      */
     private void registerTreeAnimation(TreeAnimation treeAnimation) {
+        this.indexTreeAnimation(treeAnimation);
+        this.startTreeAnimation(treeAnimation);
+    }
+
+    /**
+     * Runs a tree animation that has already been indexed
+     */
+    private void startTreeAnimation(TreeAnimation treeAnimation) {
+        if (treeAnimation.getTreeAnimationType().usesFallingBlocks())
+            this.reserveFallingBlocks(treeAnimation);
+
         this.activeAnimations.add(treeAnimation);
-        treeAnimation.playAnimation(() -> this.activeAnimations.remove(treeAnimation));
+        treeAnimation.start();
+    }
+
+    /**
+     * Marks the blocks of a tree animation as being in the animation
+     */
+    private void indexTreeAnimation(TreeAnimation treeAnimation) {
+        TreeBlockSet<Block> detectedTreeBlocks = treeAnimation.getDetectedTree().getDetectedTreeBlocks();
+        LongObjectHashMap<TreeAnimation> worldBlocks = this.animatedBlocks.computeIfAbsent(this.getWorld(treeAnimation).getUID(), uuid -> new LongObjectHashMap<>());
+        detectedTreeBlocks.forEachTreeBlock(treeBlock -> worldBlocks.put(treeBlock.getKey(), treeAnimation));
+    }
+
+    /**
+     * Stops tracking a finished tree animation and any falling blocks it left behind
+     */
+    private void unregisterTreeAnimation(TreeAnimation treeAnimation) {
+        if (!this.activeAnimations.remove(treeAnimation))
+            return;
+
+        this.unindexTreeAnimation(treeAnimation);
+
+        TreeBlockSet<FallingBlock> fallingTreeBlocks = treeAnimation.getFallingTreeBlocks();
+        if (fallingTreeBlocks != null)
+            fallingTreeBlocks.forEachTreeBlock(fallingTreeBlock -> this.removeFallingBlock(treeAnimation, fallingTreeBlock));
+
+        // Blocks that never fell, such as blocks that were already gone, are given back all at once
+        this.releaseFallingBlocks(treeAnimation, Integer.MAX_VALUE);
+        this.reservations.remove(treeAnimation);
+    }
+
+    /**
+     * Forgets which blocks are in a tree animation
+     */
+    private void unindexTreeAnimation(TreeAnimation treeAnimation) {
+        UUID worldId = this.getWorld(treeAnimation).getUID();
+        LongObjectHashMap<TreeAnimation> worldBlocks = this.animatedBlocks.get(worldId);
+        if (worldBlocks != null) {
+            // Only forget the blocks this animation still owns
+            treeAnimation.getDetectedTree().getDetectedTreeBlocks().forEachTreeBlock(treeBlock -> {
+                if (worldBlocks.get(treeBlock.getKey()) == treeAnimation)
+                    worldBlocks.remove(treeBlock.getKey());
+            });
+            if (worldBlocks.isEmpty())
+                this.animatedBlocks.remove(worldId);
+        }
+    }
+
+    /**
+     * Gets the World a tree animation is playing in
+     */
+    private World getWorld(TreeAnimation treeAnimation) {
+        return treeAnimation.getDetectedTree().getDetectedTreeBlocks().getInitialLogBlock().getBlock().getWorld();
+    }
+
+    /**
+     * Gets the key of the chunk a tree animation's tree grows in
+     */
+    private long getChunkKey(TreeAnimation treeAnimation) {
+        Block block = treeAnimation.getDetectedTree().getDetectedTreeBlocks().getInitialLogBlock().getBlock();
+        return PlacedBlockIndex.getChunkKey(block.getX() >> 4, block.getZ() >> 4);
     }
 
     /**
@@ -149,6 +578,18 @@ public class TreeAnimationManager extends Manager implements Listener, Runnable
      * @param treeBlock     The tree block to impact
      */
     public void runFallingBlockImpact(TreeAnimation treeAnimation, ITreeBlock<FallingBlock> treeBlock) {
+        this.runBlockImpact(treeAnimation, treeBlock);
+        this.removeFallingBlock(treeAnimation, treeBlock);
+    }
+
+    /**
+     * Reacts to a tree block hitting the ground, whatever the animation moved it with
+     * Plays the landing effects, breaks fragile blocks below it, drops its loot and may replant a sapling
+     *
+     * @param treeAnimation The tree animation for the tree block
+     * @param treeBlock     The tree block to impact, located where it landed
+     */
+    public void runBlockImpact(TreeAnimation treeAnimation, ITreeBlock<?> treeBlock) {
         TreeDefinitionManager treeDefinitionManager = this.plugin.getTreeDefinitionManager();
         boolean useCustomSound = ConfigurationManager.Setting.USE_CUSTOM_SOUNDS.getBoolean();
         boolean useCustomParticles = ConfigurationManager.Setting.USE_CUSTOM_PARTICLES.getBoolean();
@@ -167,7 +608,6 @@ public class TreeAnimationManager extends Manager implements Listener, Runnable
 
         treeDefinitionManager.dropTreeLoot(treeDefinition, treeBlock, treeAnimation.getPlayer(), treeAnimation.hasSilkTouch(), false);
         this.plugin.getSaplingManager().replantSaplingWithChance(treeDefinition, treeBlock);
-        treeAnimation.getFallingTreeBlocks().remove(treeBlock);
     }
 
     @EventHandler(priority = EventPriority.HIGH)
@@ -175,8 +615,10 @@ public class TreeAnimationManager extends Manager implements Listener, Runnable
         if (!event.getEntityType().equals(EntityType.FALLING_BLOCK))
             return;
 
+        // Falling blocks from elsewhere aren't registered, so they are rejected with a single lookup
         FallingBlock fallingBlock = (FallingBlock) event.getEntity();
-        if (!this.isBlockInAnimation(fallingBlock))
+        AnimatedFallingBlock animatedFallingBlock = this.getAnimatedFallingBlock(fallingBlock);
+        if (animatedFallingBlock == null)
             return;
 
         if (ConfigurationManager.Setting.FALLING_BLOCKS_DEAL_DAMAGE.getBoolean()) {
@@ -188,13 +630,59 @@ public class TreeAnimationManager extends Manager implements Listener, Runnable
         }
 
         if (ConfigurationManager.Setting.SCATTER_TREE_BLOCKS_ON_GROUND.getBoolean()) {
-            TreeAnimation treeAnimation = this.getAnimationForBlock(fallingBlock);
-            if (treeAnimation != null) {
-                treeAnimation.removeFallingBlock(fallingBlock);
-                return;
-            }
+            this.removeFallingBlock(animatedFallingBlock.treeAnimation, animatedFallingBlock.fallingTreeBlock);
+            return;
         }
 
         event.setCancelled(true);
     }
+
+    /**
+     * The falling blocks of the budget held by an animation
+     */
+    private static class FallingBlockReservation {
+
+        private final UUID worldId;
+        private final long chunkKey;
+        private int blocks;
+
+        private FallingBlockReservation(UUID worldId, long chunkKey) {
+            this.worldId = worldId;
+            this.chunkKey = chunkKey;
+        }
+
+    }
+
+    /**
+     * A tree animation waiting for falling blocks to land before it can start
+     */
+    private static class QueuedAnimation {
+
+        private final TreeAnimation treeAnimation;
+        private final int blocks;
+        private final long queuedTick;
+
+        private QueuedAnimation(TreeAnimation treeAnimation, int blocks, long queuedTick) {
+            this.treeAnimation = treeAnimation;
+            this.blocks = blocks;
+            this.queuedTick = queuedTick;
+        }
+
+    }
+
+    /**
+     * A falling tree block along with the animation it belongs to
+     */
+    private static class AnimatedFallingBlock {
+
+        private final TreeAnimation treeAnimation;
+        private final ITreeBlock<FallingBlock> fallingTreeBlock;
+
+        private AnimatedFallingBlock(TreeAnimation treeAnimation, ITreeBlock<FallingBlock> fallingTreeBlock) {
+            this.treeAnimation = treeAnimation;
+            this.fallingTreeBlock = fallingTreeBlock;
+        }
+
+    }
+
 }
@@ -10,6 +10,7 @@ import com.songoda.ultimatetimber.UltimateTimber;
 import com.songoda.ultimatetimber.tree.ITreeBlock;
 import com.songoda.ultimatetimber.tree.TreeBlockType;
 import com.songoda.ultimatetimber.tree.TreeDefinition;
+import com.songoda.ultimatetimber.tree.TreeDefinitionIndex;
 import com.songoda.ultimatetimber.tree.TreeLoot;
 import com.songoda.ultimatetimber.utils.BlockUtils;
 import org.bukkit.Bukkit;
@@ -25,6 +26,7 @@ import org.bukkit.inventory.meta.ItemMeta;
 
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Random;
 import java.util.Set;
@@ -37,6 +39,7 @@ public class TreeDefinitionManager extends Manager {
     private final Set<CompatibleMaterial> globalPlantableSoil;
     private final Set<TreeLoot> globalLogLoot, globalLeafLoot, globalEntireTreeLoot;
     private final Set<ItemStack> globalRequiredTools;
+    private volatile TreeDefinitionIndex treeDefinitionIndex;
 
     private boolean globalAxeRequired;
     private ItemStack requiredAxe;
@@ -45,7 +48,8 @@ public class TreeDefinitionManager extends Manager {
     public TreeDefinitionManager(UltimateTimber ultimateTimber) {
         super(ultimateTimber);
         this.random = new Random();
-        this.treeDefinitions = new HashSet<>();
+        this.treeDefinitions = new LinkedHashSet<>();
+        this.treeDefinitionIndex = new TreeDefinitionIndex(this.treeDefinitions);
         this.globalPlantableSoil = new HashSet<>();
         this.globalLogLoot = new HashSet<>();
         this.globalLeafLoot = new HashSet<>();
@@ -69,6 +73,11 @@ public class TreeDefinitionManager extends Manager {
         ConfigurationSection treeSection = config.getConfigurationSection("trees");
         top:
         for (String key : treeSection.getKeys(false)) {
+            if (this.treeDefinitions.size() >= TreeDefinitionIndex.MAX_TREE_DEFINITIONS) {
+                this.plugin.getLogger().warning("Only " + TreeDefinitionIndex.MAX_TREE_DEFINITIONS + " trees can be defined, ignoring tree " + key + ".");
+                continue;
+            }
+
             ConfigurationSection tree = treeSection.getConfigurationSection(key);
 
             Set<CompatibleMaterial> logMaterials = new HashSet<>();
@@ -139,6 +148,8 @@ public class TreeDefinitionManager extends Manager {
                     maxLeafDistanceFromLog, detectLeavesDiagonally, dropOriginalLog, dropOriginalLeaf, logLoot, leafLoot, entireTreeLoot, requiredTools, requiredAxe));
         }
 
+        this.treeDefinitionIndex = new TreeDefinitionIndex(this.treeDefinitions);
+
         // Load global plantable soil
         for (String material : config.getStringList("global-plantable-soil"))
             this.globalPlantableSoil.add(CompatibleMaterial.getMaterial(material));
@@ -261,6 +272,17 @@ public class TreeDefinitionManager extends Manager {
     @Override
     public void disable() {
         this.treeDefinitions.clear();
+        this.treeDefinitionIndex = new TreeDefinitionIndex(this.treeDefinitions);
+    }
+
+    /**
+     * Gets the index of log and leaf materials to the TreeDefinitions that use them
+     * A new index is made on every reload, so the same index should be used for an entire tree detection
+     *
+     * @return The current TreeDefinitionIndex
+     */
+    public TreeDefinitionIndex getTreeDefinitionIndex() {
+        return this.treeDefinitionIndex;
     }
 
     /**
@@ -271,7 +293,19 @@ public class TreeDefinitionManager extends Manager {
      * @return A Set of TreeDefinitions for the given Block
      */
     public Set<TreeDefinition> getTreeDefinitionsForLog(Block block) {
-        return this.narrowTreeDefinition(this.treeDefinitions, block, TreeBlockType.LOG);
+        return this.getTreeDefinitionsForLog(CompatibleMaterial.getMaterial(block));
+    }
+
+    /**
+     * Gets a Set of possible TreeDefinitions that match the given log material
+     *
+     * @param material The CompatibleMaterial to check
+     *
+     * @return A Set of TreeDefinitions for the given material
+     */
+    public Set<TreeDefinition> getTreeDefinitionsForLog(CompatibleMaterial material) {
+        TreeDefinitionIndex treeDefinitionIndex = this.treeDefinitionIndex;
+        return treeDefinitionIndex.getTreeDefinitions(treeDefinitionIndex.getLogMask(material));
     }
 
     /**
@@ -284,31 +318,21 @@ public class TreeDefinitionManager extends Manager {
      * @return A Set of TreeDefinitions narrowed down
      */
     public Set<TreeDefinition> narrowTreeDefinition(Set<TreeDefinition> possibleTreeDefinitions, Block block, TreeBlockType treeBlockType) {
-        Set<TreeDefinition> matchingTreeDefinitions = new HashSet<>();
-        switch (treeBlockType) {
-            case LOG:
-                for (TreeDefinition treeDefinition : possibleTreeDefinitions) {
-                    for (CompatibleMaterial material : treeDefinition.getLogMaterial()) {
-                        if (material.equals(CompatibleMaterial.getMaterial(block))) {
-                            matchingTreeDefinitions.add(treeDefinition);
-                            break;
-                        }
-                    }
-                }
-                break;
-            case LEAF:
-                for (TreeDefinition treeDefinition : possibleTreeDefinitions) {
-                    for (CompatibleMaterial material : treeDefinition.getLeafMaterial()) {
-                        if (material.equals(CompatibleMaterial.getMaterial(block))) {
-                            matchingTreeDefinitions.add(treeDefinition);
-                            break;
-                        }
-                    }
-                }
-                break;
-        }
+        return this.narrowTreeDefinition(possibleTreeDefinitions, CompatibleMaterial.getMaterial(block), treeBlockType);
+    }
 
-        return matchingTreeDefinitions;
+    /**
+     * Narrows a Set of TreeDefinitions down to ones matching the given material and TreeBlockType
+     *
+     * @param possibleTreeDefinitions The possible TreeDefinitions
+     * @param material                The CompatibleMaterial to narrow to
+     * @param treeBlockType           The TreeBlockType of the given material
+     *
+     * @return A Set of TreeDefinitions narrowed down
+     */
+    public Set<TreeDefinition> narrowTreeDefinition(Set<TreeDefinition> possibleTreeDefinitions, CompatibleMaterial material, TreeBlockType treeBlockType) {
+        TreeDefinitionIndex treeDefinitionIndex = this.treeDefinitionIndex;
+        return treeDefinitionIndex.getTreeDefinitions(treeDefinitionIndex.getMask(possibleTreeDefinitions) & treeDefinitionIndex.getMask(material, treeBlockType));
     }
 
     /**
@@ -444,7 +468,7 @@ public class TreeDefinitionManager extends Manager {
         }
 
         // Add to inventory or drop on ground
-        if (addToInventory && player.getWorld().equals(treeBlock.getLocation().getWorld())) {
+        if (addToInventory && player.getWorld().equals(treeBlock.getWorld())) {
             List<ItemStack> extraItems = new ArrayList<>();
             for (ItemStack lootedItem : lootedItems)
                 extraItems.addAll(player.getInventory().addItem(lootedItem).values());
@@ -462,9 +486,9 @@ public class TreeDefinitionManager extends Manager {
             Bukkit.getServer().dispatchCommand(Bukkit.getConsoleSender(),
                     lootedCommand.replace("%player%", player.getName())
                             .replace("%type%", treeDefinition.getKey())
-                            .replace("%xPos%", treeBlock.getLocation().getBlockX() + "")
-                            .replace("%yPos%", treeBlock.getLocation().getBlockY() + "")
-                            .replace("%zPos%", treeBlock.getLocation().getBlockZ() + ""));
+                            .replace("%xPos%", treeBlock.getBlockX() + "")
+                            .replace("%yPos%", treeBlock.getBlockY() + "")
+                            .replace("%zPos%", treeBlock.getBlockZ() + ""));
     }
 
     /**
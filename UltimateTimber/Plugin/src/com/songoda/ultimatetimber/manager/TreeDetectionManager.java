@@ -1,64 +1,125 @@
 package com.songoda.ultimatetimber.manager;
 
 import com.songoda.core.compatibility.CompatibleMaterial;
+import com.songoda.core.compatibility.ServerVersion;
 import com.songoda.ultimatetimber.UltimateTimber;
+import com.songoda.ultimatetimber.detection.BlockSource;
+import com.songoda.ultimatetimber.detection.BlockView;
+import com.songoda.ultimatetimber.detection.HeightOrderedFrontier;
+import com.songoda.ultimatetimber.detection.LeafStates;
+import com.songoda.ultimatetimber.detection.LogDistanceField;
+import com.songoda.ultimatetimber.detection.SnapshotBlockSource;
+import com.songoda.ultimatetimber.detection.TrunkIndex;
+import com.songoda.ultimatetimber.detection.WorldBlockSource;
+import com.songoda.ultimatetimber.misc.BlockPositions;
+import com.songoda.ultimatetimber.misc.LongArrayList;
+import com.songoda.ultimatetimber.misc.LongHashSet;
+import com.songoda.ultimatetimber.misc.LongIntHashMap;
+import com.songoda.ultimatetimber.placed.PlacedBlockIndex;
 import com.songoda.ultimatetimber.tree.*;
-import org.bukkit.Location;
+import org.bukkit.Bukkit;
+import org.bukkit.World;
 import org.bukkit.block.Block;
-import org.bukkit.block.BlockFace;
 import org.bukkit.util.Vector;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
 
 public class TreeDetectionManager extends Manager {
 
-    private final Set<Vector> VALID_TRUNK_OFFSETS, VALID_BRANCH_OFFSETS, VALID_LEAF_OFFSETS;
+    private final int[] VALID_TRUNK_OFFSETS, VALID_BRANCH_OFFSETS, VALID_LEAF_OFFSETS;
 
     private TreeDefinitionManager treeDefinitionManager;
     private PlacedBlockManager placedBlockManager;
-    private int numLeavesRequiredForTree;
-    private boolean onlyBreakLogsUpwards, entireTreeBase, destroyLeaves;
+    private PerformanceManager performanceManager;
+    private int numLeavesRequiredForTree, maxLogBlocks, maxProbedBlocks;
+    private long maxDetectionNanos;
+    private boolean onlyBreakLogsUpwards, entireTreeBase, destroyLeaves, useVanillaLeafDistance;
+    private ExecutorService detectionExecutor;
 
     public TreeDetectionManager(UltimateTimber ultimateTimber) {
         super(ultimateTimber);
 
-        this.VALID_BRANCH_OFFSETS = new HashSet<>();
-        this.VALID_TRUNK_OFFSETS = new HashSet<>();
-        this.VALID_LEAF_OFFSETS = new HashSet<>();
+        Set<Vector> branchOffsets = new HashSet<>();
+        Set<Vector> trunkOffsets = new HashSet<>();
+        Set<Vector> leafOffsets = new HashSet<>();
 
         // 3x2x3 centered around log, excluding -y axis
         for (int y = 0; y <= 1; y++)
             for (int x = -1; x <= 1; x++)
                 for (int z = -1; z <= 1; z++)
-                    this.VALID_BRANCH_OFFSETS.add(new Vector(x, y, z));
+                    branchOffsets.add(new Vector(x, y, z));
 
         // 3x3x3 centered around log
         for (int y = -1; y <= 1; y++)
             for (int x = -1; x <= 1; x++)
                 for (int z = -1; z <= 1; z++)
-                    this.VALID_TRUNK_OFFSETS.add(new Vector(x, y, z));
+                    trunkOffsets.add(new Vector(x, y, z));
 
         // Adjacent blocks to log
         for (int i = -1; i <= 1; i += 2) {
-            this.VALID_LEAF_OFFSETS.add(new Vector(i, 0, 0));
-            this.VALID_LEAF_OFFSETS.add(new Vector(0, i, 0));
-            this.VALID_LEAF_OFFSETS.add(new Vector(0, 0, i));
+            leafOffsets.add(new Vector(i, 0, 0));
+            leafOffsets.add(new Vector(0, i, 0));
+            leafOffsets.add(new Vector(0, 0, i));
         }
+
+        // Flattened in set iteration order so blocks are visited in the same order as they always have been
+        this.VALID_BRANCH_OFFSETS = this.flattenOffsets(branchOffsets);
+        this.VALID_TRUNK_OFFSETS = this.flattenOffsets(trunkOffsets);
+        this.VALID_LEAF_OFFSETS = this.flattenOffsets(leafOffsets);
     }
 
     @Override
     public void reload() {
         this.treeDefinitionManager = this.plugin.getTreeDefinitionManager();
         this.placedBlockManager = this.plugin.getPlacedBlockManager();
+        this.performanceManager = this.plugin.getPerformanceManager();
         this.numLeavesRequiredForTree = ConfigurationManager.Setting.LEAVES_REQUIRED_FOR_TREE.getInt();
+        this.maxLogBlocks = ConfigurationManager.Setting.MAX_LOGS_PER_CHOP.getInt();
+        this.maxProbedBlocks = ConfigurationManager.Setting.DETECTION_PROBE_LIMIT.getInt();
+        this.maxDetectionNanos = TimeUnit.MILLISECONDS.toNanos(ConfigurationManager.Setting.DETECTION_TIME_LIMIT.getInt());
         this.onlyBreakLogsUpwards = ConfigurationManager.Setting.ONLY_DETECT_LOGS_UPWARDS.getBoolean();
         this.entireTreeBase = ConfigurationManager.Setting.BREAK_ENTIRE_TREE_BASE.getBoolean();
         this.destroyLeaves = ConfigurationManager.Setting.DESTROY_LEAVES.getBoolean();
+        this.useVanillaLeafDistance = ConfigurationManager.Setting.USE_VANILLA_LEAF_DISTANCE.getBoolean() && ServerVersion.isServerVersionAtLeast(ServerVersion.V1_13);
+
+        // Detections already running on the old threads are allowed to finish
+        this.shutdownExecutor();
+        if (ConfigurationManager.Setting.ASYNC_TREE_DETECTION.getBoolean() && ServerVersion.isServerVersionAtLeast(ServerVersion.V1_13)) {
+            AtomicInteger threadCount = new AtomicInteger();
+            this.detectionExecutor = Executors.newFixedThreadPool(Math.max(1, ConfigurationManager.Setting.ASYNC_TREE_DETECTION_THREADS.getInt()), runnable -> {
+                Thread thread = new Thread(runnable, "UltimateTimber Detection Thread #" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
     }
 
     @Override
     public void disable() {
+        this.shutdownExecutor();
+    }
 
+    private void shutdownExecutor() {
+        if (this.detectionExecutor == null)
+            return;
+
+        this.detectionExecutor.shutdown();
+        this.detectionExecutor = null;
+    }
+
+    /**
+     * Checks if trees will be detected off of the main thread by {@link #detectTreeAsync(Block)}
+     *
+     * @return True if async detection is enabled, otherwise false
+     */
+    public boolean isAsyncDetectionEnabled() {
+        return this.detectionExecutor != null;
     }
 
     /**
@@ -68,222 +129,705 @@ public class TreeDetectionManager extends Manager {
      * @return A DetectedTree if one was found, otherwise null
      */
     public DetectedTree detectTree(Block initialBlock) {
-        TreeDefinitionManager treeDefinitionManager = this.plugin.getTreeDefinitionManager();
+        CompatibleMaterial initialMaterial = CompatibleMaterial.getMaterial(initialBlock);
+        return this.detectTree(initialBlock.getWorld(), initialBlock.getX(), initialBlock.getY(), initialBlock.getZ(), initialMaterial);
+    }
+
+    /**
+     * Detects a tree on the main thread given the position and material of an initial starting block
+     * The initial block itself is never read, so it may have already been broken
+     *
+     * @param world           The World of the initial block
+     * @param x               The initial block x coordinate
+     * @param y               The initial block y coordinate
+     * @param z               The initial block z coordinate
+     * @param initialMaterial The material of the initial block
+     * @return A DetectedTree if one was found, otherwise null
+     */
+    private DetectedTree detectTree(World world, int x, int y, int z, CompatibleMaterial initialMaterial) {
+        TreeDefinitionIndex treeDefinitionIndex = this.treeDefinitionManager.getTreeDefinitionIndex();
+        long possibleTreeDefinitions = treeDefinitionIndex.getLogMask(initialMaterial);
+        if (possibleTreeDefinitions == 0)
+            return null;
 
-        TreeBlock initialTreeBlock = new TreeBlock(initialBlock, TreeBlockType.LOG);
-        TreeBlockSet<Block> detectedTreeBlocks = new TreeBlockSet<>(initialTreeBlock);
-        Set<TreeDefinition> possibleTreeDefinitions = this.treeDefinitionManager.getTreeDefinitionsForLog(initialBlock);
+        DetectionResult result = this.detect(new WorldBlockSource(world), x, y, z, treeDefinitionIndex, possibleTreeDefinitions);
+        return result == null ? null : result.toDetectedTree();
+    }
 
-        if (possibleTreeDefinitions.isEmpty())
+    /**
+     * Detects a tree given an initial starting block, searching off of the main thread if async detection is enabled
+     * The surrounding chunks are captured immediately, so the initial block may be broken once this returns
+     * The returned future is always completed on the main thread, with null if no tree was found
+     *
+     * @param initialBlock The starting Block of the detection
+     * @return A CompletableFuture for the DetectedTree
+     */
+    public CompletableFuture<DetectedTree> detectTreeAsync(Block initialBlock) {
+        CompletableFuture<DetectedTree> future = new CompletableFuture<>();
+        if (this.detectionExecutor == null) {
+            future.complete(this.detectTree(initialBlock));
+            return future;
+        }
+
+        World world = initialBlock.getWorld();
+        int x = initialBlock.getX(), y = initialBlock.getY(), z = initialBlock.getZ();
+        CompatibleMaterial initialMaterial = CompatibleMaterial.getMaterial(initialBlock);
+        TreeDefinitionIndex treeDefinitionIndex = this.treeDefinitionManager.getTreeDefinitionIndex();
+        long possibleTreeDefinitions = treeDefinitionIndex.getLogMask(initialMaterial);
+        if (possibleTreeDefinitions == 0) {
+            future.complete(null);
+            return future;
+        }
+
+        SnapshotBlockSource source = SnapshotBlockSource.capture(world, x, z, this.getSearchRadius(treeDefinitionIndex, possibleTreeDefinitions));
+        this.detectionExecutor.execute(() -> {
+            DetectionResult result;
+            try {
+                result = this.detect(source, x, y, z, treeDefinitionIndex, possibleTreeDefinitions);
+            } catch (Exception ex) {
+                this.plugin.getLogger().log(Level.WARNING, "Failed to detect tree asynchronously, retrying on the main thread", ex);
+                result = null;
+                source.markIncomplete();
+            }
+
+            if (!this.plugin.isEnabled()) {
+                future.complete(null);
+                return;
+            }
+
+            DetectionResult detectionResult = result;
+            Bukkit.getScheduler().runTask(this.plugin, () -> {
+                try {
+                    // The tree reached outside of the captured chunks or changed while it was being detected, detect it again in the world
+                    if (source.isIncomplete() || (detectionResult != null && !this.isStillValid(detectionResult))) {
+                        future.complete(this.detectTree(world, x, y, z, initialMaterial));
+                    } else {
+                        future.complete(detectionResult == null ? null : detectionResult.toDetectedTree());
+                    }
+                } catch (Exception ex) {
+                    future.completeExceptionally(ex);
+                }
+            });
+        });
+
+        return future;
+    }
+
+    /**
+     * Gets how far from the initial block a tree can reach, used to decide which chunks to capture
+     *
+     * @param treeDefinitionIndex The index of the tree definitions
+     * @param treeDefinitions     The mask of possible tree definitions
+     * @return The search radius in blocks
+     */
+    private int getSearchRadius(TreeDefinitionIndex treeDefinitionIndex, long treeDefinitions) {
+        double maxLogDistance = Math.sqrt(treeDefinitionIndex.getMaxLogDistanceFromTrunkSquared(treeDefinitions));
+        int maxLeafDistance = treeDefinitionIndex.getMaxLeafDistanceFromLog(treeDefinitions);
+        if (!this.onlyBreakLogsUpwards)
+            maxLogDistance *= Math.sqrt(1.5);
+
+        // Leaves check the blocks around them for logs of other trees
+        return (int) Math.ceil(maxLogDistance) + maxLeafDistance + 2;
+    }
+
+    /**
+     * Captures the blocks around a tree so its detection can be repeated off of the main thread, such as to benchmark it
+     *
+     * @param initialBlock The starting Block of the detection
+     * @return A DetectionBenchmark, or null if the block isn't a log of any tree
+     */
+    public DetectionBenchmark captureDetection(Block initialBlock) {
+        TreeDefinitionIndex treeDefinitionIndex = this.treeDefinitionManager.getTreeDefinitionIndex();
+        long possibleTreeDefinitions = treeDefinitionIndex.getLogMask(CompatibleMaterial.getMaterial(initialBlock));
+        if (possibleTreeDefinitions == 0)
             return null;
 
+        int x = initialBlock.getX(), y = initialBlock.getY(), z = initialBlock.getZ();
+        SnapshotBlockSource source = SnapshotBlockSource.capture(initialBlock.getWorld(), x, z, this.getSearchRadius(treeDefinitionIndex, possibleTreeDefinitions));
+        return new DetectionBenchmark(source, x, y, z, treeDefinitionIndex, possibleTreeDefinitions);
+    }
+
+    /**
+     * Checks that the blocks of a previously detected tree still match the world
+     * The initial block is skipped since it may have already been broken
+     *
+     * @param detectedTree The DetectedTree to check
+     * @return True if every detected block is still valid, otherwise false
+     */
+    public boolean isStillValid(DetectedTree detectedTree) {
+        TreeDefinition treeDefinition = detectedTree.getTreeDefinition();
+        TreeBlockSet<Block> detectedTreeBlocks = detectedTree.getDetectedTreeBlocks();
+        for (ITreeBlock<Block> treeBlock : detectedTreeBlocks.getLogBlocks())
+            if (treeBlock != detectedTreeBlocks.getInitialLogBlock() && !this.isStillValid(treeBlock.getBlock(), treeDefinition.getLogMaterial()))
+                return false;
+
+        for (ITreeBlock<Block> treeBlock : detectedTreeBlocks.getLeafBlocks())
+            if (!this.isStillValid(treeBlock.getBlock(), treeDefinition.getLeafMaterial()))
+                return false;
+
+        return true;
+    }
+
+    private boolean isStillValid(Block block, Set<CompatibleMaterial> materials) {
+        return materials.contains(CompatibleMaterial.getMaterial(block)) && !this.placedBlockManager.isBlockPlaced(block);
+    }
+
+    /**
+     * Checks that the blocks of a detection still match the world, must be called on the main thread
+     * The initial block is skipped since it may have already been broken
+     *
+     * @param result The result to check
+     * @return True if every detected block is still valid, otherwise false
+     */
+    private boolean isStillValid(DetectionResult result) {
+        for (int i = 1; i < result.logBlocks.size(); i++)
+            if (!this.isStillValid(result, result.logBlocks.get(i), TreeBlockType.LOG))
+                return false;
+
+        for (int i = 0; i < result.leafBlocks.size(); i++)
+            if (!this.isStillValid(result, result.leafBlocks.get(i), TreeBlockType.LEAF))
+                return false;
+
+        return true;
+    }
+
+    private boolean isStillValid(DetectionResult result, long position, TreeBlockType treeBlockType) {
+        int x = BlockPositions.unpackX(position), y = BlockPositions.unpackY(position), z = BlockPositions.unpackZ(position);
+        CompatibleMaterial material = CompatibleMaterial.getMaterial(result.world.getBlockAt(x, y, z));
+        return (result.treeDefinitionIndex.getMask(material, treeBlockType) & result.treeDefinitions) != 0
+                && !this.placedBlockManager.isBlockPlaced(result.world, x, y, z)
+                && (treeBlockType != TreeBlockType.LOG || this.placedBlockManager.isNaturalLog(result.world, x, y, z));
+    }
+
+    /**
+     * Detects a tree given the position of an initial starting block
+     * Only reads blocks through the given source, so this is safe to run off of the main thread with a snapshot source
+     *
+     * @param source                  The source to read blocks from
+     * @param initialX                The initial block x coordinate
+     * @param initialY                The initial block y coordinate
+     * @param initialZ                The initial block z coordinate
+     * @param treeDefinitionIndex     The index of the tree definitions
+     * @param possibleTreeDefinitions The mask of tree definitions matching the initial block
+     * @return A DetectionResult if a tree was found, otherwise null
+     */
+    private DetectionResult detect(BlockSource source, int initialX, int initialY, int initialZ, TreeDefinitionIndex treeDefinitionIndex, long possibleTreeDefinitions) {
+        return this.detect(new BlockView(source, treeDefinitionIndex, this.placedBlockManager), initialX, initialY, initialZ, treeDefinitionIndex, possibleTreeDefinitions);
+    }
+
+    private DetectionResult detect(BlockView blockView, int initialX, int initialY, int initialZ, TreeDefinitionIndex treeDefinitionIndex, long possibleTreeDefinitions) {
+        Detection detection = new Detection(blockView, treeDefinitionIndex);
+        this.setTreeDefinitions(detection, possibleTreeDefinitions);
+        detection.maxLogBlocks = this.performanceManager.getMaxLogBlocks(this.maxLogBlocks);
+        long initialPosition = BlockPositions.pack(initialX, initialY, initialZ);
+        detection.logBlocks.add(initialPosition);
+        detection.logPositions.add(initialPosition);
+
         // Detect tree trunk
-        List<Block> trunkBlocks = new ArrayList<>();
-        trunkBlocks.add(initialBlock);
-        Block targetBlock = initialBlock;
-        while (this.isValidLogType(possibleTreeDefinitions, null, (targetBlock = targetBlock.getRelative(BlockFace.UP)))) {
-            trunkBlocks.add(targetBlock);
-            possibleTreeDefinitions.retainAll(this.treeDefinitionManager.narrowTreeDefinition(possibleTreeDefinitions, targetBlock, TreeBlockType.LOG));
+        LongArrayList trunkBlocks = detection.trunkBlocks;
+        trunkBlocks.add(initialPosition);
+        int targetY = initialY;
+        while (this.isValidLogType(detection, false, initialX, ++targetY, initialZ)) {
+            trunkBlocks.add(BlockPositions.pack(initialX, targetY, initialZ));
+            this.narrow(detection, initialX, targetY, initialZ, TreeBlockType.LOG);
         }
 
         if (!this.onlyBreakLogsUpwards) {
-            targetBlock = initialBlock;
-            while (this.isValidLogType(possibleTreeDefinitions, null, (targetBlock = targetBlock.getRelative(BlockFace.DOWN)))) {
-                trunkBlocks.add(targetBlock);
-                possibleTreeDefinitions.retainAll(this.treeDefinitionManager.narrowTreeDefinition(possibleTreeDefinitions, targetBlock, TreeBlockType.LOG));
+            targetY = initialY;
+            while (this.isValidLogType(detection, false, initialX, --targetY, initialZ)) {
+                trunkBlocks.add(BlockPositions.pack(initialX, targetY, initialZ));
+                this.narrow(detection, initialX, targetY, initialZ, TreeBlockType.LOG);
             }
         }
 
         // Lowest blocks at the front of the list
-        Collections.reverse(trunkBlocks);
+        trunkBlocks.reverse();
+        for (int i = 0; i < trunkBlocks.size(); i++) {
+            long position = trunkBlocks.get(i);
+            detection.trunkIndex.add(BlockPositions.unpackX(position), BlockPositions.unpackY(position), BlockPositions.unpackZ(position));
+        }
 
         // Detect branches off the main trunk
-        for (Block trunkBlock : trunkBlocks)
-            this.recursiveBranchSearch(possibleTreeDefinitions, trunkBlocks, detectedTreeBlocks, trunkBlock, initialBlock.getLocation().getBlockY());
+        this.branchSearch(detection, initialY);
 
         // Detect leaves off the trunk/branches
-        Set<ITreeBlock<Block>> branchBlocks = new HashSet<>(detectedTreeBlocks.getLogBlocks());
-        for (ITreeBlock<Block> branchBlock : branchBlocks)
-            this.recursiveLeafSearch(possibleTreeDefinitions, detectedTreeBlocks, branchBlock.getBlock(), new HashSet<>());
+        int logCount = detection.logBlocks.size();
+        for (int i = 0; i < logCount && !detection.aborted; i++)
+            this.leafSearch(detection, detection.logBlocks.get(i));
+
+        // Ran out of time or blocks to check, don't topple part of a tree that wasn't fully checked
+        if (detection.aborted)
+            return null;
 
         // Use the first tree definition in the set
-        TreeDefinition actualTreeDefinition = possibleTreeDefinitions.iterator().next();
+        TreeDefinition actualTreeDefinition = treeDefinitionIndex.getFirstTreeDefinition(detection.treeDefinitions);
 
         // Trees need at least a certain number of leaves
-        if (detectedTreeBlocks.getLeafBlocks().size() < this.numLeavesRequiredForTree)
+        if (detection.leafBlocks.size() < this.numLeavesRequiredForTree)
             return null;
 
         // Remove leaves if we don't care about the leaves
         if (!this.destroyLeaves)
-            detectedTreeBlocks.removeAll(TreeBlockType.LEAF);
+            detection.leafBlocks.clear();
 
         // Check that the tree isn't on the ground if enabled
         if (this.entireTreeBase) {
-            Set<Block> groundBlocks = new HashSet<>();
-            for (ITreeBlock<Block> treeBlock : detectedTreeBlocks.getLogBlocks())
-                if (treeBlock != detectedTreeBlocks.getInitialLogBlock() && treeBlock.getLocation().getBlockY() == initialBlock.getLocation().getBlockY())
-                    groundBlocks.add(treeBlock.getBlock());
-
-            for (Block block : groundBlocks) {
-                Block blockBelow = block.getRelative(BlockFace.DOWN);
-                boolean blockBelowIsLog = this.isValidLogType(possibleTreeDefinitions, null, blockBelow);
-                boolean blockBelowIsSoil = false;
-                for (CompatibleMaterial material : treeDefinitionManager.getPlantableSoilMaterial(actualTreeDefinition)) {
-                    if (material.equals(CompatibleMaterial.getMaterial(blockBelow))) {
-                        blockBelowIsSoil = true;
-                        break;
-                    }
-                }
-
+            Set<CompatibleMaterial> plantableSoil = this.treeDefinitionManager.getPlantableSoilMaterial(actualTreeDefinition);
+            for (int i = 1; i < detection.logBlocks.size(); i++) {
+                long position = detection.logBlocks.get(i);
+                if (BlockPositions.unpackY(position) != initialY)
+                    continue;
+
+                int x = BlockPositions.unpackX(position), z = BlockPositions.unpackZ(position);
+                boolean blockBelowIsLog = this.isValidLogType(detection, false, x, initialY - 1, z);
+                boolean blockBelowIsSoil = plantableSoil.contains(detection.blockView.getMaterial(x, initialY - 1, z));
                 if (blockBelowIsLog || blockBelowIsSoil)
                     return null;
             }
         }
 
-        return new DetectedTree(actualTreeDefinition, detectedTreeBlocks);
+        return new DetectionResult(blockView.getWorld(), actualTreeDefinition, treeDefinitionIndex, detection.treeDefinitions, detection.logBlocks, detection.leafBlocks);
     }
 
     /**
-     * Recursively searches for branches off a given block
+     * Searches for branches off the trunk, expanding from the lowest logs first
+     * Once the max number of logs per chop has been found, only the logs at the height being expanded are still searched
+     * With only-detect-logs-upwards on, every log below that height has been found by then, so sortAndLimit keeps the
+     * same layers it would for the whole tree, only which logs it keeps of the highest layer may differ
+     * With it off, branches can lead back down, so a lower log only reachable through higher logs may be missed
      *
-     * @param treeDefinitions The possible tree definitions
-     * @param trunkBlocks     The tree trunk blocks
-     * @param treeBlocks      The detected tree blocks
-     * @param block           The next block to check for a branch
-     * @param startingBlockY  The Y coordinate of the initial block
+     * @param detection      The detection in progress
+     * @param startingBlockY The Y coordinate of the initial block
      */
-    private void recursiveBranchSearch(Set<TreeDefinition> treeDefinitions, List<Block> trunkBlocks, TreeBlockSet<Block> treeBlocks, Block block, int startingBlockY) {
-        for (Vector offset : this.onlyBreakLogsUpwards ? this.VALID_BRANCH_OFFSETS : this.VALID_TRUNK_OFFSETS) {
-            Block targetBlock = block.getRelative(offset.getBlockX(), offset.getBlockY(), offset.getBlockZ());
-            TreeBlock treeBlock = new TreeBlock(targetBlock, TreeBlockType.LOG);
-            if (this.isValidLogType(treeDefinitions, trunkBlocks, targetBlock) && !treeBlocks.contains(treeBlock)) {
-                treeBlocks.add(treeBlock);
-                treeDefinitions.retainAll(this.treeDefinitionManager.narrowTreeDefinition(treeDefinitions, targetBlock, TreeBlockType.LOG));
-                if (!this.onlyBreakLogsUpwards || targetBlock.getLocation().getBlockY() > startingBlockY)
-                    this.recursiveBranchSearch(treeDefinitions, trunkBlocks, treeBlocks, targetBlock, startingBlockY);
+    private void branchSearch(Detection detection, int startingBlockY) {
+        HeightOrderedFrontier frontier = new HeightOrderedFrontier();
+        for (int i = 0; i < detection.trunkBlocks.size(); i++)
+            frontier.add(detection.trunkBlocks.get(i));
+
+        int[] offsets = this.onlyBreakLogsUpwards ? this.VALID_BRANCH_OFFSETS : this.VALID_TRUNK_OFFSETS;
+        int cutoffY = Integer.MAX_VALUE;
+        while (!frontier.isEmpty() && frontier.peekY() <= cutoffY) {
+            if (this.isOverBudget(detection))
+                return;
+
+            long position = frontier.poll();
+            int positionX = BlockPositions.unpackX(position), positionY = BlockPositions.unpackY(position), positionZ = BlockPositions.unpackZ(position);
+            for (int i = 0; i < offsets.length; i += 3) {
+                int x = positionX + offsets[i], y = positionY + offsets[i + 1], z = positionZ + offsets[i + 2];
+                if (y > cutoffY)
+                    continue;
+
+                long targetPosition = BlockPositions.pack(x, y, z);
+                if (detection.logPositions.contains(targetPosition))
+                    continue;
+
+                if (!this.isValidLogType(detection, true, x, y, z))
+                    continue;
+
+                detection.logPositions.add(targetPosition);
+                detection.logBlocks.add(targetPosition);
+                this.narrow(detection, x, y, z, TreeBlockType.LOG);
+
+                // Finish the current height so no log at it is left out for a higher one
+                if (detection.maxLogBlocks > 0 && detection.logBlocks.size() >= detection.maxLogBlocks)
+                    cutoffY = Math.min(cutoffY, positionY);
+
+                if (!this.onlyBreakLogsUpwards || y > startingBlockY)
+                    frontier.add(targetPosition);
             }
         }
     }
 
     /**
-     * Recursively searches for leaves that are next to this tree
+     * Searches for leaves that are next to this tree
+     * Uses an explicit stack instead of recursion, visiting blocks in the same order a depth-first recursion would
      *
-     * @param treeDefinitions The possible tree definitions
-     * @param treeBlocks      The detected tree blocks
-     * @param block           The next block to check for a leaf
+     * @param detection The detection in progress
+     * @param position  The packed position of the block to search from
      */
-    private void recursiveLeafSearch(Set<TreeDefinition> treeDefinitions, TreeBlockSet<Block> treeBlocks, Block block, Set<Block> visitedBlocks) {
-        boolean detectLeavesDiagonally = treeDefinitions.stream().anyMatch(TreeDefinition::shouldDetectLeavesDiagonally);
+    private void leafSearch(Detection detection, long position) {
+        SearchStack searchStack = detection.searchStack;
+        int visitGeneration = ++detection.visitGeneration;
+
+        searchStack.push(BlockPositions.unpackX(position), BlockPositions.unpackY(position), BlockPositions.unpackZ(position), detection.leafOffsets);
+        while (!searchStack.isEmpty()) {
+            if (this.isOverBudget(detection)) {
+                searchStack.size = 0;
+                return;
+            }
 
-        for (Vector offset : !detectLeavesDiagonally ? this.VALID_LEAF_OFFSETS : this.VALID_TRUNK_OFFSETS) {
-            Block targetBlock = block.getRelative(offset.getBlockX(), offset.getBlockY(), offset.getBlockZ());
-            if (visitedBlocks.contains(targetBlock))
+            int top = searchStack.size - 1;
+            int[] offsets = searchStack.offsets[top];
+            int index = searchStack.offsetIndex[top];
+            if (index >= offsets.length) {
+                searchStack.size--;
                 continue;
-
-            visitedBlocks.add(targetBlock);
-            TreeBlock treeBlock = new TreeBlock(targetBlock, TreeBlockType.LEAF);
-            if (this.isValidLeafType(treeDefinitions, treeBlocks, targetBlock) && !treeBlocks.contains(treeBlock) && !this.doesLeafBorderInvalidLog(treeDefinitions, treeBlocks, targetBlock)) {
-                treeBlocks.add(treeBlock);
-                treeDefinitions.retainAll(this.treeDefinitionManager.narrowTreeDefinition(treeDefinitions, targetBlock, TreeBlockType.LEAF));
-                this.recursiveLeafSearch(treeDefinitions, treeBlocks, targetBlock, visitedBlocks);
             }
+
+            searchStack.offsetIndex[top] = index + 3;
+            int x = searchStack.x[top] + offsets[index];
+            int y = searchStack.y[top] + offsets[index + 1];
+            int z = searchStack.z[top] + offsets[index + 2];
+            long targetPosition = BlockPositions.pack(x, y, z);
+            if (detection.visitedPositions.put(targetPosition, visitGeneration) == visitGeneration)
+                continue;
+
+            if (detection.leafPositions.contains(targetPosition))
+                continue;
+
+            if (!this.isValidLeafType(detection, x, y, z) || this.doesLeafBorderInvalidLog(detection, x, y, z))
+                continue;
+
+            detection.leafPositions.add(targetPosition);
+            detection.leafBlocks.add(targetPosition);
+            this.narrow(detection, x, y, z, TreeBlockType.LEAF);
+            searchStack.push(x, y, z, detection.leafOffsets);
+        }
+    }
+
+    /**
+     * Checks if a detection has probed too many blocks or taken too long, marking it as aborted if so
+     *
+     * @param detection The detection in progress
+     * @return True if the detection should stop, otherwise false
+     */
+    private boolean isOverBudget(Detection detection) {
+        if (detection.aborted)
+            return true;
+
+        if (this.maxProbedBlocks > 0 && detection.blockView.getReadCount() > this.maxProbedBlocks) {
+            detection.aborted = true;
+        } else if (this.maxDetectionNanos > 0 && (++detection.budgetChecks & 63) == 0 && System.nanoTime() - detection.startTime > this.maxDetectionNanos) {
+            detection.aborted = true;
         }
+
+        return detection.aborted;
+    }
+
+    /**
+     * Narrows the possible tree definitions of a detection down to ones matching a detected block
+     *
+     * @param detection     The detection in progress
+     * @param x             The x coordinate of the block
+     * @param y             The y coordinate of the block
+     * @param z             The z coordinate of the block
+     * @param treeBlockType The TreeBlockType of the block
+     */
+    private void narrow(Detection detection, int x, int y, int z, TreeBlockType treeBlockType) {
+        BlockView blockView = detection.blockView;
+        long treeDefinitions = detection.treeDefinitions & (treeBlockType == TreeBlockType.LOG ? blockView.getLogMask(x, y, z) : blockView.getLeafMask(x, y, z));
+        if (treeDefinitions != detection.treeDefinitions)
+            this.setTreeDefinitions(detection, treeDefinitions);
+    }
+
+    /**
+     * Sets the possible tree definitions of a detection and updates the limits that depend on them
+     *
+     * @param detection       The detection in progress
+     * @param treeDefinitions The mask of possible tree definitions
+     */
+    private void setTreeDefinitions(Detection detection, long treeDefinitions) {
+        TreeDefinitionIndex treeDefinitionIndex = detection.treeDefinitionIndex;
+        detection.treeDefinitions = treeDefinitions;
+
+        detection.maxLogDistanceSquared = treeDefinitionIndex.getMaxLogDistanceFromTrunkSquared(treeDefinitions);
+        if (!this.onlyBreakLogsUpwards) // Help detect logs more often if the tree isn't broken at the base
+            detection.maxLogDistanceSquared *= 1.5;
+
+        detection.maxLeafDistance = treeDefinitionIndex.getMaxLeafDistanceFromLog(treeDefinitions);
+        detection.maxLeafDistanceSquared = detection.maxLeafDistance * detection.maxLeafDistance;
+
+        detection.leafOffsets = !treeDefinitionIndex.shouldDetectLeavesDiagonally(treeDefinitions) ? this.VALID_LEAF_OFFSETS : this.VALID_TRUNK_OFFSETS;
     }
 
     /**
      * Checks if a leaf is bordering a log that isn't part of this tree
+     * Logs above the max logs per chop cutoff were never visited, so leaves next to them are rejected too
      *
-     * @param treeDefinitions The possible tree definitions
-     * @param treeBlocks      The detected tree blocks
-     * @param block           The block to check
+     * @param detection The detection in progress
+     * @param x         The x coordinate of the leaf
+     * @param y         The y coordinate of the leaf
+     * @param z         The z coordinate of the leaf
      * @return True if the leaf borders an invalid log, otherwise false
      */
-    private boolean doesLeafBorderInvalidLog(Set<TreeDefinition> treeDefinitions, TreeBlockSet<Block> treeBlocks, Block block) {
-        for (Vector offset : this.VALID_TRUNK_OFFSETS) {
-            Block targetBlock = block.getRelative(offset.getBlockX(), offset.getBlockY(), offset.getBlockZ());
-            if (this.isValidLogType(treeDefinitions, null, targetBlock) && !treeBlocks.contains(new TreeBlock(targetBlock, TreeBlockType.LOG)))
+    private boolean doesLeafBorderInvalidLog(Detection detection, int x, int y, int z) {
+        int[] offsets = this.VALID_TRUNK_OFFSETS;
+        for (int i = 0; i < offsets.length; i += 3) {
+            int targetX = x + offsets[i], targetY = y + offsets[i + 1], targetZ = z + offsets[i + 2];
+            if (!detection.logPositions.contains(BlockPositions.pack(targetX, targetY, targetZ))
+                    && this.isValidLogType(detection, false, targetX, targetY, targetZ))
                 return true;
         }
         return false;
     }
 
     /**
-     * Checks if a given block is valid for the given TreeDefinitions
+     * Checks if a given block is valid for the possible TreeDefinitions of a detection
      *
-     * @param treeDefinitions The Set of TreeDefinitions to compare against
-     * @param trunkBlocks     The trunk blocks of the tree for checking the distance
-     * @param block           The Block to check
+     * @param detection          The detection in progress
+     * @param checkTrunkDistance If the block needs to be close enough to the trunk blocks
+     * @param x                  The x coordinate of the block
+     * @param y                  The y coordinate of the block
+     * @param z                  The z coordinate of the block
      * @return True if the block is a valid log type, otherwise false
      */
-    private boolean isValidLogType(Set<TreeDefinition> treeDefinitions, List<Block> trunkBlocks, Block block) {
+    private boolean isValidLogType(Detection detection, boolean checkTrunkDistance, int x, int y, int z) {
+        // Check if it matches the tree definition
+        if ((detection.blockView.getLogMask(x, y, z) & detection.treeDefinitions) == 0)
+            return false;
+
         // Check if block is placed
-        if (this.placedBlockManager.isBlockPlaced(block))
+        if (detection.blockView.isPlaced(x, y, z))
             return false;
 
+        // Check that it is close enough to the trunk
+        if (!checkTrunkDistance || detection.trunkIndex.isEmpty())
+            return true;
+
+        return detection.trunkIndex.getDistanceSquared(x, y, z) < detection.maxLogDistanceSquared;
+    }
+
+    /**
+     * Checks if a given block is valid for the possible TreeDefinitions of a detection
+     *
+     * @param detection The detection in progress
+     * @param x         The x coordinate of the block
+     * @param y         The y coordinate of the block
+     * @param z         The z coordinate of the block
+     * @return True if the block is a valid leaf type, otherwise false
+     */
+    private boolean isValidLeafType(Detection detection, int x, int y, int z) {
         // Check if it matches the tree definition
-        boolean isCorrectType = false;
-        for (TreeDefinition treeDefinition : treeDefinitions) {
-            for (CompatibleMaterial material : treeDefinition.getLogMaterial()) {
-                if (material.equals(CompatibleMaterial.getMaterial(block))) {
-                    isCorrectType = true;
-                    break;
-                }
+        if ((detection.blockView.getLeafMask(x, y, z) & detection.treeDefinitions) == 0)
+            return false;
+
+        // Use the state vanilla already keeps track of to reject decaying leaves early, leaves placed by players are persistent
+        // so they don't need to be looked up
+        boolean checkPlaced = true;
+        if (this.useVanillaLeafDistance) {
+            int leafState = detection.blockView.getLeafState(x, y, z);
+            if (leafState != LeafStates.NONE) {
+                if (LeafStates.isPersistent(leafState) || LeafStates.getDistance(leafState) >= LeafStates.DECAY_DISTANCE)
+                    return false;
+
+                // Vanilla counts steps through leaves to any log, including those of other trees, which is never shorter than the
+                // straight line distance the max leaf distance is measured in, so only the log distance check below can bound it
+                checkPlaced = false;
             }
         }
 
-        if (!isCorrectType)
+        // Check if block is placed
+        if (checkPlaced && detection.blockView.isPlaced(x, y, z))
             return false;
 
-        // Check that it is close enough to the trunk
-        if (trunkBlocks == null || trunkBlocks.isEmpty())
+        // Check that it is close enough to a log
+        LongArrayList logBlocks = detection.logBlocks;
+        if (logBlocks.isEmpty())
             return true;
 
-        Location location = block.getLocation();
-        for (TreeDefinition treeDefinition : treeDefinitions) {
-            double maxDistance = treeDefinition.getMaxLogDistanceFromTrunk() * treeDefinition.getMaxLogDistanceFromTrunk();
-            if (!this.onlyBreakLogsUpwards) // Help detect logs more often if the tree isn't broken at the base
-                maxDistance *= 1.5;
-            for (Block trunkBlock : trunkBlocks)
-                if (location.distanceSquared(trunkBlock.getLocation()) < maxDistance)
-                    return true;
+        // The logs are all found by now and leaves can only narrow the max leaf distance, so the distance field is built once
+        if (!detection.logDistanceFieldBuilt) {
+            detection.logDistanceField = LogDistanceField.build(logBlocks, detection.maxLeafDistance);
+            detection.logDistanceFieldBuilt = true;
         }
 
+        if (detection.logDistanceField != null)
+            return detection.logDistanceField.getDistanceSquared(x, y, z) < detection.maxLeafDistanceSquared;
+
+        // Too large to build a distance field for, check every log instead
+        for (int i = 0; i < logBlocks.size(); i++)
+            if (distanceSquared(logBlocks.get(i), x, y, z) < detection.maxLeafDistanceSquared)
+                return true;
+
         return false;
     }
 
+    private static long distanceSquared(long position, int x, int y, int z) {
+        long dx = BlockPositions.unpackX(position) - x;
+        long dy = BlockPositions.unpackY(position) - y;
+        long dz = BlockPositions.unpackZ(position) - z;
+        return dx * dx + dy * dy + dz * dz;
+    }
+
     /**
-     * Checks if a given block is valid for the given TreeDefinitions
+     * Flattens a set of offsets into an array of x, y, z triples
      *
-     * @param treeDefinitions The Set of TreeDefinitions to compare against
-     * @param treeBlocks      The detected blocks of the tree for checking leaf distance
-     * @param block           The Block to check
-     * @return True if the block is a valid log type, otherwise false
+     * @param offsets The offsets to flatten
+     * @return The flattened offsets
      */
-    private boolean isValidLeafType(Set<TreeDefinition> treeDefinitions, TreeBlockSet<Block> treeBlocks, Block block) {
-        // Check if block is placed
-        if (this.placedBlockManager.isBlockPlaced(block))
-            return false;
+    private int[] flattenOffsets(Set<Vector> offsets) {
+        int[] flattened = new int[offsets.size() * 3];
+        int i = 0;
+        for (Vector offset : offsets) {
+            flattened[i++] = offset.getBlockX();
+            flattened[i++] = offset.getBlockY();
+            flattened[i++] = offset.getBlockZ();
+        }
+        return flattened;
+    }
 
-        // Check if it matches the tree definition
-        boolean isCorrectType = false;
-        for (TreeDefinition treeDefinition : treeDefinitions) {
-            for (CompatibleMaterial material : treeDefinition.getLeafMaterial()) {
-                if (material.equals(CompatibleMaterial.getMaterial(block))) {
-                    isCorrectType = true;
-                    break;
-                }
+    /**
+     * The state of a single tree detection
+     */
+    private static final class Detection {
+
+        private final BlockView blockView;
+        private final TreeDefinitionIndex treeDefinitionIndex;
+        private final LongArrayList trunkBlocks = new LongArrayList();
+        private final TrunkIndex trunkIndex = new TrunkIndex();
+        private final LongArrayList logBlocks = new LongArrayList();
+        private final LongArrayList leafBlocks = new LongArrayList();
+        private final LongHashSet logPositions = new LongHashSet();
+        private final LongHashSet leafPositions = new LongHashSet();
+        private final LongIntHashMap visitedPositions = new LongIntHashMap(0);
+        private final SearchStack searchStack = new SearchStack();
+        private LogDistanceField logDistanceField;
+        private boolean logDistanceFieldBuilt;
+        private long treeDefinitions;
+        private double maxLogDistanceSquared;
+        private int maxLeafDistance, maxLeafDistanceSquared;
+        private int[] leafOffsets;
+        private int visitGeneration;
+        private int maxLogBlocks;
+        private final long startTime = System.nanoTime();
+        private int budgetChecks;
+        private boolean aborted;
+
+        private Detection(BlockView blockView, TreeDefinitionIndex treeDefinitionIndex) {
+            this.blockView = blockView;
+            this.treeDefinitionIndex = treeDefinitionIndex;
+        }
+
+    }
+
+    /**
+     * A captured tree whose detection can be repeated off of the main thread, checking placed blocks against a given index
+     */
+    public final class DetectionBenchmark {
+
+        private final SnapshotBlockSource source;
+        private final int x, y, z;
+        private final TreeDefinitionIndex treeDefinitionIndex;
+        private final long possibleTreeDefinitions;
+
+        private DetectionBenchmark(SnapshotBlockSource source, int x, int y, int z, TreeDefinitionIndex treeDefinitionIndex, long possibleTreeDefinitions) {
+            this.source = source;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.treeDefinitionIndex = treeDefinitionIndex;
+            this.possibleTreeDefinitions = possibleTreeDefinitions;
+        }
+
+        /**
+         * Detects the tree, safe to call off of the main thread
+         *
+         * @param placedBlocks The PlacedBlockIndex to check placed blocks against
+         * @return The packed positions of the detected logs and leaves, empty if no tree was found
+         */
+        public LongHashSet detect(PlacedBlockIndex placedBlocks) {
+            BlockView blockView = new BlockView(this.source, this.treeDefinitionIndex, placedBlocks);
+            DetectionResult result = TreeDetectionManager.this.detect(blockView, this.x, this.y, this.z, this.treeDefinitionIndex, this.possibleTreeDefinitions);
+            LongHashSet treeBlocks = new LongHashSet();
+            if (result != null) {
+                for (int i = 0; i < result.logBlocks.size(); i++)
+                    treeBlocks.add(result.logBlocks.get(i));
+                for (int i = 0; i < result.leafBlocks.size(); i++)
+                    treeBlocks.add(result.leafBlocks.get(i));
             }
+            return treeBlocks;
         }
 
-        if (!isCorrectType)
-            return false;
+        /**
+         * @return The initial block x coordinate
+         */
+        public int getX() {
+            return this.x;
+        }
 
-        // Check that it is close enough to a log
-        if (treeBlocks == null || treeBlocks.isEmpty())
-            return true;
+        /**
+         * @return The initial block y coordinate
+         */
+        public int getY() {
+            return this.y;
+        }
+
+        /**
+         * @return The initial block z coordinate
+         */
+        public int getZ() {
+            return this.z;
+        }
+
+    }
+
+    /**
+     * The packed positions of a detected tree, turned into a DetectedTree on the main thread
+     */
+    private static final class DetectionResult {
+
+        private final World world;
+        private final TreeDefinition treeDefinition;
+        private final TreeDefinitionIndex treeDefinitionIndex;
+        private final long treeDefinitions;
+        private final LongArrayList logBlocks, leafBlocks;
+
+        private DetectionResult(World world, TreeDefinition treeDefinition, TreeDefinitionIndex treeDefinitionIndex, long treeDefinitions,
+                                LongArrayList logBlocks, LongArrayList leafBlocks) {
+            this.world = world;
+            this.treeDefinition = treeDefinition;
+            this.treeDefinitionIndex = treeDefinitionIndex;
+            this.treeDefinitions = treeDefinitions;
+            this.logBlocks = logBlocks;
+            this.leafBlocks = leafBlocks;
+        }
+
+        private DetectedTree toDetectedTree() {
+            TreeBlockSet<Block> detectedTreeBlocks = new TreeBlockSet<>(this.getTreeBlock(this.logBlocks.get(0), TreeBlockType.LOG));
+            for (int i = 1; i < this.logBlocks.size(); i++)
+                detectedTreeBlocks.add(this.getTreeBlock(this.logBlocks.get(i), TreeBlockType.LOG));
+            for (int i = 0; i < this.leafBlocks.size(); i++)
+                detectedTreeBlocks.add(this.getTreeBlock(this.leafBlocks.get(i), TreeBlockType.LEAF));
+            return new DetectedTree(this.treeDefinition, detectedTreeBlocks);
+        }
+
+        private TreeBlock getTreeBlock(long position, TreeBlockType treeBlockType) {
+            return new TreeBlock(this.world, BlockPositions.unpackX(position), BlockPositions.unpackY(position), BlockPositions.unpackZ(position), treeBlockType);
+        }
+
+    }
+
+    /**
+     * A growable stack of search frames, each holding a position and how far through its offsets the search is
+     */
+    private static final class SearchStack {
+
+        private int[] x = new int[64], y = new int[64], z = new int[64], offsetIndex = new int[64];
+        private int[][] offsets = new int[64][];
+        private int size;
+
+        private void push(int x, int y, int z, int[] offsets) {
+            if (this.size == this.x.length) {
+                int capacity = this.size << 1;
+                this.x = Arrays.copyOf(this.x, capacity);
+                this.y = Arrays.copyOf(this.y, capacity);
+                this.z = Arrays.copyOf(this.z, capacity);
+                this.offsetIndex = Arrays.copyOf(this.offsetIndex, capacity);
+                this.offsets = Arrays.copyOf(this.offsets, capacity);
+            }
+
+            this.x[this.size] = x;
+            this.y[this.size] = y;
+            this.z[this.size] = z;
+            this.offsetIndex[this.size] = 0;
+            this.offsets[this.size] = offsets;
+            this.size++;
+        }
+
+        private boolean isEmpty() {
+            return this.size == 0;
+        }
 
-        int maxDistanceFromLog = treeDefinitions.stream().map(TreeDefinition::getMaxLeafDistanceFromLog).max(Integer::compareTo).orElse(0);
-        return treeBlocks.getLogBlocks().stream().anyMatch(x -> x.getLocation().distanceSquared(block.getLocation()) < maxDistanceFromLog * maxDistanceFromLog);
     }
 
 }
@@ -1,6 +1,7 @@
 package com.songoda.ultimatetimber.manager;
 
 import com.songoda.core.compatibility.CompatibleHand;
+import com.songoda.core.compatibility.CompatibleMaterial;
 import com.songoda.core.hooks.JobsHook;
 import com.songoda.core.hooks.LogManager;
 import com.songoda.core.hooks.McMMOHook;
@@ -9,41 +10,179 @@ import com.songoda.core.world.SItemStack;
 import com.songoda.ultimatetimber.UltimateTimber;
 import com.songoda.ultimatetimber.events.TreeFallEvent;
 import com.songoda.ultimatetimber.events.TreeFellEvent;
+import com.songoda.ultimatetimber.misc.BlockPositions;
+import com.songoda.ultimatetimber.misc.LongArrayList;
 import com.songoda.ultimatetimber.misc.OnlyToppleWhile;
 import com.songoda.ultimatetimber.tree.DetectedTree;
 import com.songoda.ultimatetimber.tree.ITreeBlock;
 import com.songoda.ultimatetimber.tree.TreeBlockSet;
+import com.songoda.ultimatetimber.tree.TreeDefinitionIndex;
 import org.bukkit.Bukkit;
 import org.bukkit.GameMode;
 import org.bukkit.Material;
 import org.bukkit.block.Block;
+import org.bukkit.block.BlockState;
 import org.bukkit.enchantments.Enchantment;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.block.BlockBurnEvent;
+import org.bukkit.event.block.BlockDamageEvent;
+import org.bukkit.event.block.BlockExplodeEvent;
+import org.bukkit.event.block.BlockPlaceEvent;
+import org.bukkit.event.block.LeavesDecayEvent;
+import org.bukkit.event.entity.EntityExplodeEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.world.StructureGrowEvent;
 import org.bukkit.inventory.ItemStack;
-
+import org.bukkit.inventory.meta.ItemMeta;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.stream.Collectors;
 
 public class TreeFallManager extends Manager implements Listener {
 
+    private static final int MAX_PENDING_CHANGES = 64;
+
+    private final Map<UUID, PreDetectedTree> preDetectedTrees;
+    private final Set<UUID> pendingTopples;
     private int maxLogBlocksAllowed;
+    private boolean preDetectTrees;
+    private long preDetectedTreeExpiry;
 
     public TreeFallManager(UltimateTimber ultimateTimber) {
         super(ultimateTimber);
+        this.preDetectedTrees = new HashMap<>();
+        this.pendingTopples = new HashSet<>();
         Bukkit.getPluginManager().registerEvents(this, ultimateTimber);
     }
 
     @Override
     public void reload() {
         this.maxLogBlocksAllowed = ConfigurationManager.Setting.MAX_LOGS_PER_CHOP.getInt();
+        this.preDetectTrees = ConfigurationManager.Setting.PRE_DETECT_TREES.getBoolean();
+        this.preDetectedTreeExpiry = TimeUnit.SECONDS.toMillis(Math.max(1, ConfigurationManager.Setting.PRE_DETECT_TREES_EXPIRY.getInt()));
+        this.preDetectedTrees.clear();
     }
 
     @Override
     public void disable() {
+        this.preDetectedTrees.clear();
+        this.pendingTopples.clear();
+    }
 
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockDamage(BlockDamageEvent event) {
+        if (!this.preDetectTrees)
+            return;
+
+        Player player = event.getPlayer();
+        Block block = event.getBlock();
+
+        PreDetectedTree preDetectedTree = this.preDetectedTrees.get(player.getUniqueId());
+        if (preDetectedTree != null && preDetectedTree.block.equals(block) && !preDetectedTree.isExpired() && !preDetectedTree.stale)
+            return;
+
+        // Only bother with blocks that are likely to topple a tree
+        TreeDefinitionIndex treeDefinitionIndex = this.plugin.getTreeDefinitionManager().getTreeDefinitionIndex();
+        if (treeDefinitionIndex.getLogMask(CompatibleMaterial.getMaterial(block)) == 0
+                || ConfigurationManager.Setting.DISABLED_WORLDS.getStringList().contains(player.getWorld().getName())
+                || !this.plugin.getChoppingManager().isChopping(player)
+                || this.plugin.getChoppingManager().isInCooldown(player)
+                || !this.plugin.getTreeDefinitionManager().isToolValidForAnyTreeDefinition(CompatibleHand.MAIN_HAND.getItem(player)))
+            return;
+
+        PreDetectedTree newPreDetectedTree = new PreDetectedTree(block, this.plugin.getTreeDetectionManager().detectTreeAsync(block),
+                System.currentTimeMillis() + this.preDetectedTreeExpiry);
+        this.preDetectedTrees.put(player.getUniqueId(), newPreDetectedTree);
+
+        // The future can complete off of the main thread if the plugin disables, the bounds are only ever touched on the main thread
+        newPreDetectedTree.future.thenAccept(detectedTree -> {
+            if (Bukkit.isPrimaryThread()) {
+                newPreDetectedTree.setBounds(detectedTree);
+            } else if (this.plugin.isEnabled()) {
+                Bukkit.getScheduler().runTask(this.plugin, () -> newPreDetectedTree.setBounds(detectedTree));
+            }
+        });
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockPlaceInvalidate(BlockPlaceEvent event) {
+        this.invalidatePreDetectedTrees(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockBreakInvalidate(BlockBreakEvent event) {
+        this.invalidatePreDetectedTrees(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onLeafDecayInvalidate(LeavesDecayEvent event) {
+        this.invalidatePreDetectedTrees(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockBurnInvalidate(BlockBurnEvent event) {
+        this.invalidatePreDetectedTrees(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onStructureGrowInvalidate(StructureGrowEvent event) {
+        for (BlockState blockState : event.getBlocks())
+            this.invalidatePreDetectedTrees(blockState.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockExplodeInvalidate(BlockExplodeEvent event) {
+        for (Block block : event.blockList())
+            this.invalidatePreDetectedTrees(block);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onEntityExplodeInvalidate(EntityExplodeEvent event) {
+        for (Block block : event.blockList())
+            this.invalidatePreDetectedTrees(block);
+    }
+
+    @EventHandler
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        this.preDetectedTrees.remove(event.getPlayer().getUniqueId());
+        this.pendingTopples.remove(event.getPlayer().getUniqueId());
+    }
+
+    /**
+     * Forgets any trees detected early that a changed block could be part of
+     *
+     * @param block The Block that changed
+     */
+    private void invalidatePreDetectedTrees(Block block) {
+        if (this.preDetectedTrees.isEmpty())
+            return;
+
+        this.preDetectedTrees.values().removeIf(preDetectedTree -> preDetectedTree.isExpired() || preDetectedTree.isChangedBy(block));
+    }
+
+    /**
+     * Takes the tree a player started detecting early when they started mining a block
+     *
+     * @param player The player breaking the block
+     * @param block  The Block being broken
+     * @return The PreDetectedTree, or null if the player hasn't started detecting a tree from the block
+     */
+    private PreDetectedTree takePreDetectedTree(Player player, Block block) {
+        PreDetectedTree preDetectedTree = this.preDetectedTrees.remove(player.getUniqueId());
+        if (preDetectedTree == null || !preDetectedTree.block.equals(block) || preDetectedTree.isExpired() || preDetectedTree.stale)
+            return null;
+        return preDetectedTree;
     }
 
     @EventHandler(priority = EventPriority.HIGHEST, ignoreCancelled = true)
@@ -85,6 +224,10 @@ public class TreeFallManager extends Manager implements Listener {
         if (choppingManager.isInCooldown(player))
             isValid = false;
 
+        // The cooldown only starts once the tree is detected, so only one tree can be waiting to topple at a time
+        if (this.pendingTopples.contains(player.getUniqueId()))
+            isValid = false;
+
         if (treeAnimationManager.isBlockInAnimation(block)) {
             isValid = false;
             event.setCancelled(true);
@@ -101,10 +244,100 @@ public class TreeFallManager extends Manager implements Listener {
         if (!isValid && !alwaysReplantSapling)
             return;
 
+        // Reuse the tree that was detected while the log was being mined
+        PreDetectedTree preDetectedTree = this.preDetectTrees ? this.takePreDetectedTree(player, block) : null;
+        if (preDetectedTree != null) {
+            CompletableFuture<DetectedTree> future = preDetectedTree.future;
+            if (future.isDone() && !future.isCompletedExceptionally()) {
+                DetectedTree detectedTree = future.join();
+                if (detectedTree != null && treeDetectionManager.isStillValid(detectedTree)) {
+                    this.toppleTree(player, tool, detectedTree, isValid, alwaysReplantSapling, event);
+                    return;
+                }
+            } else if (!future.isDone() && treeDetectionManager.isAsyncDetectionEnabled() && preDetectedTree.changedBlocks.isEmpty()) {
+                // Still being detected and nothing nearby changed yet, topple it once it's done rather than starting over
+                this.toppleTreeWhenDetected(player, CompatibleHand.getHand(event), tool, future, isValid, alwaysReplantSapling);
+                return;
+            }
+        }
+
+        if (treeDetectionManager.isAsyncDetectionEnabled()) {
+            // The log breaks normally while the rest of the tree is detected
+            this.toppleTreeWhenDetected(player, CompatibleHand.getHand(event), tool, treeDetectionManager.detectTreeAsync(block), isValid, alwaysReplantSapling);
+            return;
+        }
+
         DetectedTree detectedTree = treeDetectionManager.detectTree(block);
         if (detectedTree == null)
             return;
 
+        this.toppleTree(player, tool, detectedTree, isValid, alwaysReplantSapling, event);
+    }
+
+    /**
+     * Topples a tree once it is done being detected, after the initial log has already been broken
+     *
+     * @param player               The player toppling the tree
+     * @param hand                 The hand the player broke the initial log with
+     * @param tool                 The tool the player broke the initial log with
+     * @param future               The future of the tree being detected
+     * @param isValid              If the player meets all conditions to topple the tree
+     * @param alwaysReplantSapling If a sapling should be replanted even if the tree isn't toppled
+     */
+    private void toppleTreeWhenDetected(Player player, CompatibleHand hand, ItemStack tool, CompletableFuture<DetectedTree> future, boolean isValid, boolean alwaysReplantSapling) {
+        int toolSlot = getToolSlot(player, hand);
+        boolean pendingTopple = isValid && this.plugin.getChoppingManager().hasCooldown(player);
+        if (pendingTopple)
+            this.pendingTopples.add(player.getUniqueId());
+
+        future.whenComplete((detectedTree, ex) -> {
+            if (pendingTopple)
+                this.pendingTopples.remove(player.getUniqueId());
+
+            if (ex != null) {
+                this.plugin.getLogger().log(Level.WARNING, "Failed to detect tree", ex);
+                return;
+            }
+
+            if (detectedTree == null || !player.isOnline())
+                return;
+
+            // The player may have switched to another item while the tree was being detected
+            boolean sameTool = getToolSlot(player, hand) == toolSlot && tool.equals(hand.getItem(player));
+            if (!sameTool && !alwaysReplantSapling)
+                return;
+
+            this.toppleTree(player, tool, detectedTree, isValid && sameTool, alwaysReplantSapling, null);
+        });
+    }
+
+    /**
+     * Gets the inventory slot of the item in a player's hand
+     *
+     * @param player The player
+     * @param hand   The hand
+     * @return The held item slot for the main hand, or -1 for the off hand
+     */
+    private static int getToolSlot(Player player, CompatibleHand hand) {
+        return hand == CompatibleHand.MAIN_HAND ? player.getInventory().getHeldItemSlot() : -1;
+    }
+
+    /**
+     * Topples a detected tree
+     *
+     * @param player               The player toppling the tree
+     * @param tool                 The tool the player is using
+     * @param detectedTree         The detected tree to topple
+     * @param isValid              If the player meets all conditions to topple the tree
+     * @param alwaysReplantSapling If a sapling should be replanted even if the tree isn't toppled
+     * @param event                The BlockBreakEvent of the initial log, or null if it has already been broken
+     */
+    private void toppleTree(Player player, ItemStack tool, DetectedTree detectedTree, boolean isValid, boolean alwaysReplantSapling, BlockBreakEvent event) {
+        TreeDefinitionManager treeDefinitionManager = this.plugin.getTreeDefinitionManager();
+        TreeAnimationManager treeAnimationManager = this.plugin.getTreeAnimationManager();
+        ChoppingManager choppingManager = this.plugin.getChoppingManager();
+        SaplingManager saplingManager = this.plugin.getSaplingManager();
+
         if (alwaysReplantSapling) {
             Bukkit.getScheduler().scheduleSyncDelayedTask(this.plugin, () ->
                     saplingManager.replantSapling(detectedTree.getTreeDefinition(), detectedTree.getDetectedTreeBlocks().getInitialLogBlock()));
@@ -117,7 +350,11 @@ public class TreeFallManager extends Manager implements Listener {
             return;
 
         short toolDamage = this.getToolDamage(detectedTree.getDetectedTreeBlocks(), tool.containsEnchantment(Enchantment.SILK_TOUCH));
-        if (!tool.getItemMeta().isUnbreakable() && ConfigurationManager.Setting.PROTECT_TOOL.getBoolean() && !ItemUtils.hasEnoughDurability(tool, toolDamage)) {
+        if (event == null) // The tool was already damaged for breaking the initial log
+            toolDamage--;
+
+        ItemMeta toolMeta = tool.getItemMeta();
+        if ((toolMeta == null || !toolMeta.isUnbreakable()) && ConfigurationManager.Setting.PROTECT_TOOL.getBoolean() && !ItemUtils.hasEnoughDurability(tool, toolDamage)) {
             return;
         }
 
@@ -128,26 +365,29 @@ public class TreeFallManager extends Manager implements Listener {
             return;
 
         // Valid tree and meets all conditions past this point
-        event.setCancelled(true);
+        if (event != null)
+            event.setCancelled(true);
 
-        detectedTree.getDetectedTreeBlocks().sortAndLimit(maxLogBlocksAllowed);
+        detectedTree.getDetectedTreeBlocks().sortAndLimit(this.plugin.getPerformanceManager().getMaxLogBlocks(this.maxLogBlocksAllowed));
 
         choppingManager.cooldownPlayer(player);
 
-        // Destroy initiated block if enabled
-        if (ConfigurationManager.Setting.DESTROY_INITIATED_BLOCK.getBoolean()) {
+        // Destroy initiated block if enabled, it has already been broken normally if it's not part of the event
+        if (event == null) {
+            detectedTree.getDetectedTreeBlocks().remove(detectedTree.getDetectedTreeBlocks().getInitialLogBlock());
+        } else if (ConfigurationManager.Setting.DESTROY_INITIATED_BLOCK.getBoolean()) {
             detectedTree.getDetectedTreeBlocks().getInitialLogBlock().getBlock().setType(Material.AIR);
             detectedTree.getDetectedTreeBlocks().remove(detectedTree.getDetectedTreeBlocks().getInitialLogBlock());
         }
 
         boolean isCreative = player.getGameMode().equals(GameMode.CREATIVE);
 
-        if (!isCreative) {
+        if (!isCreative && toolDamage > 0) {
             new SItemStack(tool).addDamage(player, toolDamage, true);
         }
 
         if (ConfigurationManager.Setting.HOOKS_APPLY_EXPERIENCE.getBoolean()) {
-            McMMOHook.addWoodcutting(player, detectedTree.getDetectedTreeBlocks().getAllTreeBlocks().stream()
+            McMMOHook.addWoodcutting(player, detectedTree.getDetectedTreeBlocks().getAllTreeBlocksView().stream()
                     .map(ITreeBlock::getBlock).collect(Collectors.toList()));
 
             if (!isCreative && JobsHook.isEnabled())
@@ -155,7 +395,7 @@ public class TreeFallManager extends Manager implements Listener {
                     JobsHook.breakBlock(player, treeBlock.getBlock());
         }
 
-        for (ITreeBlock<Block> treeBlock : detectedTree.getDetectedTreeBlocks().getAllTreeBlocks())
+        for (ITreeBlock<Block> treeBlock : detectedTree.getDetectedTreeBlocks().getAllTreeBlocksView())
             LogManager.logRemoval(player, treeBlock.getBlock());
 
         treeAnimationManager.runAnimation(detectedTree, player);
@@ -194,4 +434,91 @@ public class TreeFallManager extends Manager implements Listener {
             return (short) treeBlocks.getLogBlocks().size();
         }
     }
+
+    /**
+     * A tree that started being detected when a player started mining one of its logs
+     */
+    private static final class PreDetectedTree {
+
+        private final Block block;
+        private final CompletableFuture<DetectedTree> future;
+        private final long expiresAt;
+        private final LongArrayList changedBlocks;
+        private boolean hasBounds, stale;
+        private int minX, minY, minZ, maxX, maxY, maxZ;
+
+        private PreDetectedTree(Block block, CompletableFuture<DetectedTree> future, long expiresAt) {
+            this.block = block;
+            this.future = future;
+            this.expiresAt = expiresAt;
+            this.changedBlocks = new LongArrayList();
+        }
+
+        /**
+         * Sets the bounds of the detected tree and checks the blocks that changed while it was being detected against them
+         * Must be called on the main thread
+         */
+        private void setBounds(DetectedTree detectedTree) {
+            // Without a tree the bounds stay empty, so no block is ever inside of them
+            this.minX = this.minY = this.minZ = Integer.MAX_VALUE;
+            this.maxX = this.maxY = this.maxZ = Integer.MIN_VALUE;
+            if (detectedTree != null) {
+                for (ITreeBlock<Block> treeBlock : detectedTree.getDetectedTreeBlocks().getAllTreeBlocksView()) {
+                    Block block = treeBlock.getBlock();
+                    this.minX = Math.min(this.minX, block.getX());
+                    this.minY = Math.min(this.minY, block.getY());
+                    this.minZ = Math.min(this.minZ, block.getZ());
+                    this.maxX = Math.max(this.maxX, block.getX());
+                    this.maxY = Math.max(this.maxY, block.getY());
+                    this.maxZ = Math.max(this.maxZ, block.getZ());
+                }
+            }
+            this.hasBounds = true;
+
+            for (int i = 0; i < this.changedBlocks.size(); i++) {
+                long position = this.changedBlocks.get(i);
+                if (this.contains(BlockPositions.unpackX(position), BlockPositions.unpackY(position), BlockPositions.unpackZ(position)))
+                    this.stale = true;
+            }
+            this.changedBlocks.clear();
+        }
+
+        /**
+         * Checks if a changed block could be part of the tree
+         * While the tree is still being detected the block is remembered and checked once the tree's bounds are known
+         *
+         * @param block The Block that changed
+         * @return True if the tree should be forgotten, otherwise false
+         */
+        private boolean isChangedBy(Block block) {
+            if (this.stale)
+                return true;
+
+            if (!block.getWorld().equals(this.block.getWorld()))
+                return false;
+
+            if (this.hasBounds)
+                return this.contains(block.getX(), block.getY(), block.getZ());
+
+            // Too much is changing around the tree to keep track of
+            if (this.changedBlocks.size() >= MAX_PENDING_CHANGES)
+                return true;
+
+            this.changedBlocks.add(BlockPositions.pack(block.getX(), block.getY(), block.getZ()));
+            return false;
+        }
+
+        private boolean contains(int x, int y, int z) {
+            // Blocks right next to the tree can become part of it
+            return x >= this.minX - 1 && x <= this.maxX + 1
+                    && y >= this.minY - 1 && y <= this.maxY + 1
+                    && z >= this.minZ - 1 && z <= this.maxZ + 1;
+        }
+
+        private boolean isExpired() {
+            return System.currentTimeMillis() > this.expiresAt;
+        }
+
+    }
+
 }
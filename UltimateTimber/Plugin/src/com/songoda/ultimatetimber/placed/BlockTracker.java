@@ -0,0 +1,286 @@
+package com.songoda.ultimatetimber.placed;
+
+import com.songoda.ultimatetimber.misc.LongArrayList;
+import com.songoda.ultimatetimber.misc.LongObjectHashMap;
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.World;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of a set of blocks in every world, such as the blocks placed by players
+ * With storage, the blocks of each chunk are loaded and saved along with the chunk and only loaded chunks are kept in memory
+ * Changes must be made on the main thread, checking if a block is tracked is safe from any thread
+ */
+public class BlockTracker {
+
+    // Concurrent since trees may be detected off of the main thread
+    private final Map<UUID, PlacedBlockIndex> indexes;
+    // Blocks added to chunks that can't be stored until they are loaded again, only used on the main thread
+    private final Map<UUID, LongObjectHashMap<PlacedChunk>> unloadedChunks;
+    private final PlacedBlockStorage storage;
+    private final int maxSize;
+    private boolean closed;
+
+    /**
+     * @param storage The storage to keep blocks in between restarts, or null to only keep them in memory
+     * @param maxSize The max number of blocks to keep in memory per world without storage, or 0 for no limit
+     */
+    public BlockTracker(PlacedBlockStorage storage, int maxSize) {
+        this.indexes = new ConcurrentHashMap<>();
+        this.unloadedChunks = new HashMap<>();
+        this.storage = storage;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Checks if a block is tracked
+     *
+     * @param world The World the block is in
+     * @param x     The block x coordinate
+     * @param y     The block y coordinate
+     * @param z     The block z coordinate
+     * @return True if the block is tracked, otherwise false
+     */
+    public boolean isTracked(World world, int x, int y, int z) {
+        PlacedBlockIndex index = this.indexes.get(world.getUID());
+        return index != null && index.isPlaced(x, y, z);
+    }
+
+    /**
+     * Starts or stops tracking a block
+     *
+     * @param world   The World the block is in
+     * @param x       The block x coordinate
+     * @param y       The block y coordinate
+     * @param z       The block z coordinate
+     * @param tracked If the block should be tracked
+     */
+    public void setTracked(World world, int x, int y, int z, boolean tracked) {
+        // Untracked blocks still need to be recorded with storage, so they can be removed from storage
+        PlacedBlockIndex index = tracked || this.storage != null ? this.getOrCreateIndex(world) : this.indexes.get(world.getUID());
+        if (index != null)
+            index.setPlaced(x, y, z, tracked);
+    }
+
+    /**
+     * Starts tracking every block of a PlacedChunk
+     *
+     * @param world The World the chunk is in
+     * @param chunk The PlacedChunk, must not be changed afterwards
+     */
+    public void addChunk(World world, PlacedChunk chunk) {
+        int chunkX = PlacedBlockIndex.getChunkX(chunk.getKey()), chunkZ = PlacedBlockIndex.getChunkZ(chunk.getKey());
+        if (this.storage != null && this.storage.requiresLoadedChunks() && !world.isChunkLoaded(chunkX, chunkZ)) {
+            // Loading the chunk here would stall the main thread, so the blocks wait until the chunk loads again
+            PlacedChunk existing = this.unloadedChunks.computeIfAbsent(world.getUID(), uuid -> new LongObjectHashMap<>()).put(chunk.getKey(), chunk);
+            if (existing != null)
+                chunk.or(existing);
+            return;
+        }
+
+        // If the chunk unloaded in the meantime, the blocks are merged with its stored blocks and saved right away
+        this.prepareChunk(world, chunkX, chunkZ);
+        this.getOrCreateIndex(world).addChunk(chunk);
+    }
+
+    /**
+     * Checks if blocks in chunks that aren't loaded can only be changed by loading the chunk on the main thread
+     *
+     * @return True if the storage requires loaded chunks, otherwise false
+     */
+    public boolean requiresLoadedChunks() {
+        return this.storage != null && this.storage.requiresLoadedChunks();
+    }
+
+    /**
+     * Gets the index of the tracked blocks in a world
+     *
+     * @param world The World
+     * @return The PlacedBlockIndex of the world, or null if no blocks are tracked in it
+     */
+    public PlacedBlockIndex getIndex(World world) {
+        return this.indexes.get(world.getUID());
+    }
+
+    /**
+     * Loads the stored blocks of every loaded chunk
+     */
+    public void loadAll() {
+        if (this.storage == null)
+            return;
+
+        for (World world : Bukkit.getWorlds())
+            for (Chunk chunk : world.getLoadedChunks())
+                this.loadChunk(world, chunk.getX(), chunk.getZ());
+    }
+
+    /**
+     * Starts loading the stored blocks of a chunk
+     *
+     * @param world  The World the chunk is in
+     * @param chunkX The chunk x coordinate
+     * @param chunkZ The chunk z coordinate
+     */
+    public void loadChunk(World world, int chunkX, int chunkZ) {
+        if (this.storage == null)
+            return;
+
+        PlacedBlockIndex index = this.getOrCreateIndex(world);
+        long chunkKey = PlacedBlockIndex.getChunkKey(chunkX, chunkZ);
+        index.startLoading(chunkKey);
+        this.storage.load(world, chunkX, chunkZ, storedChunk -> {
+            index.finishLoading(chunkKey, storedChunk);
+
+            LongObjectHashMap<PlacedChunk> unloadedChunks = this.unloadedChunks.get(world.getUID());
+            if (unloadedChunks != null) {
+                PlacedChunk unloadedChunk = unloadedChunks.remove(chunkKey);
+                if (unloadedChunk != null)
+                    index.addChunk(unloadedChunk);
+                if (unloadedChunks.isEmpty())
+                    this.unloadedChunks.remove(world.getUID());
+            }
+
+            // The chunk may have unloaded again while it was loading
+            if (!this.closed && !world.isChunkLoaded(chunkX, chunkZ))
+                this.unloadChunk(world, chunkX, chunkZ);
+        });
+    }
+
+    /**
+     * Makes sure changes to a chunk that isn't loaded get merged with its stored blocks and saved
+     * Must be called before changing blocks in a chunk that may not be loaded
+     *
+     * @param world  The World the chunk is in
+     * @param chunkX The chunk x coordinate
+     * @param chunkZ The chunk z coordinate
+     */
+    public void prepareChunk(World world, int chunkX, int chunkZ) {
+        if (this.storage == null || world.isChunkLoaded(chunkX, chunkZ))
+            return;
+
+        PlacedBlockIndex index = this.indexes.get(world.getUID());
+        if (index != null && index.isLoading(PlacedBlockIndex.getChunkKey(chunkX, chunkZ)))
+            return;
+
+        if (this.storage.requiresLoadedChunks()) {
+            // Loading the chunk loads its blocks, they are saved again once the server unloads it
+            world.getChunkAt(chunkX, chunkZ);
+        } else {
+            // The chunk is saved and removed from memory as soon as its stored blocks are merged in
+            this.loadChunk(world, chunkX, chunkZ);
+        }
+    }
+
+    /**
+     * Saves the blocks of a chunk if they changed and removes them from memory
+     *
+     * @param world  The World the chunk is in
+     * @param chunkX The chunk x coordinate
+     * @param chunkZ The chunk z coordinate
+     */
+    public void unloadChunk(World world, int chunkX, int chunkZ) {
+        PlacedChunk chunk = this.takeChunk(world, chunkX, chunkZ);
+        if (chunk != null)
+            this.storage.save(world, Collections.singletonList(chunk));
+    }
+
+    /**
+     * Saves the blocks of a chunk that is unloading if they changed and removes them from memory
+     *
+     * @param worldChunk The Chunk that is unloading
+     */
+    public void unloadChunk(Chunk worldChunk) {
+        PlacedChunk chunk = this.takeChunk(worldChunk.getWorld(), worldChunk.getX(), worldChunk.getZ());
+        if (chunk != null)
+            this.storage.saveUnloading(worldChunk, chunk);
+    }
+
+    /**
+     * Removes the blocks of a chunk from memory
+     *
+     * @return The PlacedChunk to save, or null if there is nothing to save
+     */
+    private PlacedChunk takeChunk(World world, int chunkX, int chunkZ) {
+        if (this.storage == null)
+            return null;
+
+        PlacedBlockIndex index = this.indexes.get(world.getUID());
+        long chunkKey = PlacedBlockIndex.getChunkKey(chunkX, chunkZ);
+        if (index == null || index.isLoading(chunkKey))
+            return null;
+
+        return index.unloadChunk(chunkKey);
+    }
+
+    /**
+     * Saves the blocks of every changed chunk in a world, keeping them in memory
+     *
+     * @param world The World
+     */
+    public void saveWorld(World world) {
+        if (this.storage == null)
+            return;
+
+        PlacedBlockIndex index = this.indexes.get(world.getUID());
+        if (index != null)
+            this.storage.save(world, index.takeDirtyChunks());
+    }
+
+    /**
+     * Saves the blocks of a world and removes them from memory
+     *
+     * @param world The World
+     */
+    public void unloadWorld(World world) {
+        this.loadUnloadedChunks(world);
+        this.saveWorld(world);
+        this.indexes.remove(world.getUID());
+    }
+
+    /**
+     * Saves everything and stops tracking blocks
+     */
+    public void close() {
+        if (this.storage != null) {
+            for (World world : Bukkit.getWorlds()) {
+                this.loadUnloadedChunks(world);
+                this.saveWorld(world);
+            }
+            this.storage.close();
+        }
+
+        this.closed = true;
+        this.indexes.clear();
+    }
+
+    /**
+     * Loads every chunk with blocks that are waiting for it to load, so they can be stored before they are forgotten
+     *
+     * @param world The World
+     */
+    private void loadUnloadedChunks(World world) {
+        LongObjectHashMap<PlacedChunk> unloadedChunks = this.unloadedChunks.get(world.getUID());
+        if (unloadedChunks == null)
+            return;
+
+        LongArrayList chunkKeys = new LongArrayList();
+        unloadedChunks.forEach((chunkKey, chunk) -> chunkKeys.add(chunkKey));
+        for (int i = 0; i < chunkKeys.size(); i++) {
+            int chunkX = PlacedBlockIndex.getChunkX(chunkKeys.get(i)), chunkZ = PlacedBlockIndex.getChunkZ(chunkKeys.get(i));
+            world.getChunkAt(chunkX, chunkZ);
+            this.loadChunk(world, chunkX, chunkZ);
+        }
+    }
+
+    private PlacedBlockIndex getOrCreateIndex(World world) {
+        // Only loaded chunks are kept in memory when they are stored, so there's no need for a limit
+        return this.indexes.computeIfAbsent(world.getUID(), uuid -> new PlacedBlockIndex(this.storage != null ? 0 : this.maxSize));
+    }
+
+}
@@ -0,0 +1,87 @@
+package com.songoda.ultimatetimber.placed;
+
+import org.bukkit.Chunk;
+import org.bukkit.NamespacedKey;
+import org.bukkit.World;
+import org.bukkit.persistence.PersistentDataContainer;
+import org.bukkit.persistence.PersistentDataType;
+import org.bukkit.plugin.Plugin;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+/**
+ * Stores placed blocks in the persistent data of the chunks they are in, requires 1.16 or newer
+ * The data is saved by the server along with the chunk, so it follows the world through backups and copies
+ */
+public class ChunkDataStorage implements PlacedBlockStorage {
+
+    private final Plugin plugin;
+    private final NamespacedKey key;
+
+    /**
+     * @param plugin The plugin the data belongs to
+     * @param key    The key to store the data under in each chunk
+     */
+    public ChunkDataStorage(Plugin plugin, String key) {
+        this.plugin = plugin;
+        this.key = new NamespacedKey(plugin, key);
+    }
+
+    @Override
+    public void load(World world, int chunkX, int chunkZ, Consumer<PlacedChunk> whenLoaded) {
+        // The chunk is already loaded, so its data can be read right away
+        PlacedChunk chunk = null;
+        if (world.isChunkLoaded(chunkX, chunkZ)) {
+            byte[] data = world.getChunkAt(chunkX, chunkZ).getPersistentDataContainer().get(this.key, PersistentDataType.BYTE_ARRAY);
+            if (data != null) {
+                try {
+                    chunk = PlacedChunkCodec.decode(PlacedBlockIndex.getChunkKey(chunkX, chunkZ), data);
+                } catch (IOException ex) {
+                    this.plugin.getLogger().log(Level.WARNING, "Failed to load " + this.key + " of chunk " + chunkX + ", " + chunkZ + " in " + world.getName(), ex);
+                }
+            }
+        }
+
+        whenLoaded.accept(chunk);
+    }
+
+    @Override
+    public void save(World world, Collection<PlacedChunk> chunks) {
+        for (PlacedChunk chunk : chunks) {
+            int chunkX = PlacedBlockIndex.getChunkX(chunk.getKey()), chunkZ = PlacedBlockIndex.getChunkZ(chunk.getKey());
+
+            // Blocks added to chunks that aren't loaded are kept until the chunk loads again, and their data is written before they unload
+            if (world.isChunkLoaded(chunkX, chunkZ))
+                this.write(world.getChunkAt(chunkX, chunkZ), chunk);
+        }
+    }
+
+    @Override
+    public void saveUnloading(Chunk worldChunk, PlacedChunk chunk) {
+        // The server may already report the chunk as not loaded, so it can't be looked up again
+        this.write(worldChunk, chunk);
+    }
+
+    private void write(Chunk worldChunk, PlacedChunk chunk) {
+        PersistentDataContainer container = worldChunk.getPersistentDataContainer();
+        if (chunk.isEmpty()) {
+            container.remove(this.key);
+        } else {
+            container.set(this.key, PersistentDataType.BYTE_ARRAY, PlacedChunkCodec.encode(chunk));
+        }
+    }
+
+    @Override
+    public boolean requiresLoadedChunks() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+        // Everything is saved by the server along with the chunks
+    }
+
+}
@@ -0,0 +1,286 @@
+package com.songoda.ultimatetimber.placed;
+
+import com.songoda.core.compatibility.CompatibleMaterial;
+import com.songoda.ultimatetimber.UltimateTimber;
+import com.songoda.ultimatetimber.tree.TreeDefinitionIndex;
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.command.CommandSender;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+
+/**
+ * Imports the placed tree blocks recorded by CoreProtect from its SQLite database
+ * The block table is read in ranges of rows off of the main thread, and each range is applied on the main thread before
+ * the next one is read, so memory stays flat no matter how large the database is
+ * The last imported row is saved after every range so an import can be resumed, and later imports only read new rows
+ */
+public class CoreProtectImport implements Runnable {
+
+    private static final int BATCH_ROWS = 50000;
+    private static final long PROGRESS_INTERVAL = TimeUnit.SECONDS.toMillis(10);
+    private static final int ACTION_BREAK = 0, ACTION_PLACE = 1;
+
+    private final UltimateTimber plugin;
+    private final CommandSender sender;
+    private final File database;
+    private final String tablePrefix;
+    private final File checkpointFile;
+    private volatile boolean cancelled, finished;
+    private long importedBlocks;
+
+    /**
+     * @param plugin      The plugin instance
+     * @param sender      The CommandSender to report progress to
+     * @param database    The CoreProtect SQLite database file
+     * @param tablePrefix The prefix of CoreProtect's tables
+     */
+    public CoreProtectImport(UltimateTimber plugin, CommandSender sender, File database, String tablePrefix) {
+        this.plugin = plugin;
+        this.sender = sender;
+        this.database = database;
+        this.tablePrefix = tablePrefix;
+        this.checkpointFile = new File(plugin.getDataFolder(), "coreprotect-import.yml");
+    }
+
+    /**
+     * Stops the import after the current range of rows, it can be resumed later
+     */
+    public void cancel() {
+        this.cancelled = true;
+    }
+
+    /**
+     * @return True if the import has stopped, otherwise false
+     */
+    public boolean isFinished() {
+        return this.finished;
+    }
+
+    /**
+     * Forgets where the last import stopped, so the next import starts from the first row
+     *
+     * @return True if there was a checkpoint to forget, otherwise false
+     */
+    public boolean resetCheckpoint() {
+        return this.checkpointFile.delete();
+    }
+
+    @Override
+    public void run() {
+        try {
+            Class.forName("org.sqlite.JDBC");
+
+            // Never write to CoreProtect's database
+            Properties properties = new Properties();
+            properties.setProperty("open_mode", "1");
+            try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + this.database.getAbsolutePath(), properties)) {
+                this.importBlocks(connection);
+            }
+        } catch (ClassNotFoundException | SQLException | IOException ex) {
+            this.plugin.getLogger().log(Level.WARNING, "Failed to import placed blocks from CoreProtect", ex);
+            this.sendMessage("command.importcoreprotect.failed", 0, 0);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            this.finished = true;
+        }
+    }
+
+    private void importBlocks(Connection connection) throws SQLException, IOException, InterruptedException {
+        Map<Integer, String> worlds = this.readWorlds(connection);
+        Set<Integer> nonPlayerUsers = this.readNonPlayerUsers(connection);
+        Set<Integer> materials = this.readTreeMaterials(connection);
+        if (materials.isEmpty()) {
+            this.sendMessage("command.importcoreprotect.finished", 0, 100);
+            return;
+        }
+
+        long maxRow;
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT MAX(rowid) FROM " + this.tablePrefix + "block")) {
+            maxRow = resultSet.next() ? resultSet.getLong(1) : 0;
+        }
+
+        YamlConfiguration checkpoint = YamlConfiguration.loadConfiguration(this.checkpointFile);
+        long firstRow = checkpoint.getLong("last-row", 0);
+        this.sendMessage("command.importcoreprotect.started", firstRow, getPercent(firstRow, maxRow));
+
+        StringJoiner materialIds = new StringJoiner(", ", "(", ")");
+        for (int material : materials)
+            materialIds.add(String.valueOf(material));
+
+        // Walk the table by row ranges instead of offsets, so every range is a cheap primary key lookup
+        String query = "SELECT user, wid, x, y, z, action FROM " + this.tablePrefix + "block"
+                + " WHERE rowid > ? AND rowid <= ? AND action IN (" + ACTION_BREAK + ", " + ACTION_PLACE + ") AND rolled_back = 0"
+                + " AND type IN " + materialIds + " ORDER BY rowid";
+
+        long lastProgress = System.currentTimeMillis();
+        int[] batch = new int[0];
+        try (PreparedStatement statement = connection.prepareStatement(query)) {
+            for (long fromRow = firstRow; fromRow < maxRow; fromRow += BATCH_ROWS) {
+                if (this.cancelled) {
+                    this.sendMessage("command.importcoreprotect.cancelled", fromRow, getPercent(fromRow, maxRow));
+                    return;
+                }
+
+                // Each row is stored as the world id, the coordinates, and if the block was placed
+                int size = 0;
+                statement.setLong(1, fromRow);
+                statement.setLong(2, fromRow + BATCH_ROWS);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        if (size + 5 > batch.length)
+                            batch = Arrays.copyOf(batch, Math.max(1024, batch.length * 2));
+
+                        // Blocks placed by things other than players, like growing trees, are natural
+                        boolean placed = resultSet.getInt(6) == ACTION_PLACE && !nonPlayerUsers.contains(resultSet.getInt(1));
+                        batch[size++] = resultSet.getInt(2);
+                        batch[size++] = resultSet.getInt(3);
+                        batch[size++] = resultSet.getInt(4);
+                        batch[size++] = resultSet.getInt(5);
+                        batch[size++] = placed ? 1 : 0;
+                    }
+                }
+
+                if (!this.apply(batch, size, worlds))
+                    return;
+
+                long toRow = Math.min(fromRow + BATCH_ROWS, maxRow);
+                checkpoint.set("last-row", toRow);
+                checkpoint.save(this.checkpointFile);
+
+                if (System.currentTimeMillis() - lastProgress >= PROGRESS_INTERVAL) {
+                    lastProgress = System.currentTimeMillis();
+                    this.sendMessage("command.importcoreprotect.progress", toRow, getPercent(toRow, maxRow));
+                }
+            }
+        }
+
+        this.sendMessage("command.importcoreprotect.finished", maxRow, 100);
+    }
+
+    /**
+     * Applies a range of rows on the main thread and waits for it to finish
+     *
+     * @return True if the import should continue, otherwise false
+     */
+    private boolean apply(int[] batch, int size, Map<Integer, String> worlds) throws InterruptedException {
+        if (size == 0)
+            return true;
+        if (!this.plugin.isEnabled())
+            return false;
+
+        CompletableFuture<Boolean> applied = new CompletableFuture<>();
+        Bukkit.getScheduler().runTask(this.plugin, () -> {
+            if (!this.plugin.getPlacedBlockManager().isTrackingPlacedBlocks()) {
+                this.plugin.getLocale().getMessage("command.importcoreprotect.not-tracking").sendPrefixedMessage(this.sender);
+                applied.complete(false);
+                return;
+            }
+
+            // The storage may have changed since the import started
+            if (!this.plugin.getPlacedBlockManager().canImportBlocks()) {
+                this.plugin.getLocale().getMessage("command.importcoreprotect.chunk-storage").sendPrefixedMessage(this.sender);
+                applied.complete(false);
+                return;
+            }
+
+            Map<Integer, World> resolvedWorlds = new HashMap<>();
+            for (int i = 0; i < size; i += 5) {
+                World world = resolvedWorlds.computeIfAbsent(batch[i], id -> worlds.containsKey(id) ? Bukkit.getWorld(worlds.get(id)) : null);
+                if (world == null)
+                    continue;
+
+                this.plugin.getPlacedBlockManager().setBlockPlaced(world, batch[i + 1], batch[i + 2], batch[i + 3], batch[i + 4] != 0);
+                this.importedBlocks++;
+            }
+            applied.complete(true);
+        });
+
+        // The task is dropped if the plugin disables before it runs, so never wait on it for good
+        while (true) {
+            try {
+                return applied.get(1, TimeUnit.SECONDS);
+            } catch (TimeoutException ex) {
+                if (this.cancelled || !this.plugin.isEnabled())
+                    return false;
+            } catch (ExecutionException ex) {
+                return false;
+            }
+        }
+    }
+
+    private Map<Integer, String> readWorlds(Connection connection) throws SQLException {
+        Map<Integer, String> worlds = new HashMap<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT id, world FROM " + this.tablePrefix + "world")) {
+            while (resultSet.next())
+                worlds.put(resultSet.getInt(1), resultSet.getString(2));
+        }
+        return worlds;
+    }
+
+    private Set<Integer> readNonPlayerUsers(Connection connection) throws SQLException {
+        // CoreProtect names things that aren't players with a leading #, such as #tree
+        Set<Integer> users = new HashSet<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT id FROM " + this.tablePrefix + "user WHERE user LIKE '#%'")) {
+            while (resultSet.next())
+                users.add(resultSet.getInt(1));
+        }
+        return users;
+    }
+
+    private Set<Integer> readTreeMaterials(Connection connection) throws SQLException {
+        TreeDefinitionIndex treeDefinitionIndex = this.plugin.getTreeDefinitionManager().getTreeDefinitionIndex();
+        Set<Integer> materials = new HashSet<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT id, material FROM " + this.tablePrefix + "material_map")) {
+            while (resultSet.next()) {
+                String name = resultSet.getString(2);
+                CompatibleMaterial material = CompatibleMaterial.getMaterial(name.substring(name.indexOf(':') + 1).toUpperCase(Locale.ROOT));
+                if (treeDefinitionIndex.getLogMask(material) != 0 || treeDefinitionIndex.getLeafMask(material) != 0)
+                    materials.add(resultSet.getInt(1));
+            }
+        }
+        return materials;
+    }
+
+    private void sendMessage(String message, long row, int percent) {
+        if (!this.plugin.isEnabled())
+            return;
+
+        Bukkit.getScheduler().runTask(this.plugin, () -> this.plugin.getLocale().getMessage(message)
+                .processPlaceholder("row", row)
+                .processPlaceholder("percent", percent)
+                .processPlaceholder("blocks", this.importedBlocks)
+                .sendPrefixedMessage(this.sender));
+    }
+
+    private static int getPercent(long row, long maxRow) {
+        return maxRow == 0 ? 100 : (int) (row * 100 / maxRow);
+    }
+
+}
@@ -0,0 +1,230 @@
+package com.songoda.ultimatetimber.placed;
+
+import com.songoda.ultimatetimber.misc.BlockPositions;
+import com.songoda.ultimatetimber.misc.LongObjectHashMap;
+
+import java.util.Arrays;
+
+/**
+ * A Bloom filter over the placed blocks of a PlacedBlockIndex, answering if a block is definitely not placed
+ * The filter is split into partitions by chunk, since blocks can't be removed from a Bloom filter each partition
+ * is rebuilt from the chunks of the index once it holds too many removed blocks or grows past its capacity
+ *
+ * Changes must be made while holding the lock of the index, {@link #mightContain(int, int, int)} may be called without it
+ */
+class PlacedBlockFilter {
+
+    private static final int PARTITIONS = 256;
+    private static final int HASHES = 5;
+    private static final int BITS_PER_BLOCK = 10;
+    private static final int MIN_WORDS = 8;
+
+    private final LongObjectHashMap<PlacedChunk> chunks;
+    private final int[] counts, removed;
+    private long[][] partitions;
+
+    // Written after every change, so threads reading the filter see every block added before the write
+    private volatile long[][] published;
+    private int rebuilds;
+
+    /**
+     * @param chunks The chunks of the index, used to rebuild partitions
+     */
+    PlacedBlockFilter(LongObjectHashMap<PlacedChunk> chunks) {
+        this.chunks = chunks;
+        this.counts = new int[PARTITIONS];
+        this.removed = new int[PARTITIONS];
+        this.partitions = new long[PARTITIONS][];
+        this.published = this.partitions;
+    }
+
+    /**
+     * Checks if a block might be placed
+     *
+     * @param x The block x coordinate
+     * @param y The block y coordinate
+     * @param z The block z coordinate
+     * @return False if the block is definitely not placed, true if it might be
+     */
+    boolean mightContain(int x, int y, int z) {
+        long[] bits = this.published[getPartition(PlacedBlockIndex.getChunkKey(x >> 4, z >> 4))];
+        if (bits == null)
+            return false;
+
+        long hash = hash(x, y, z);
+        int step = (int) (hash >>> 32) | 1, mask = (bits.length << 6) - 1;
+        for (int i = 0, index = (int) hash; i < HASHES; i++, index += step)
+            if ((bits[(index & mask) >>> 6] & (1L << index)) == 0)
+                return false;
+        return true;
+    }
+
+    /**
+     * Adds a placed block
+     *
+     * @param chunkKey The key of the chunk the block is in
+     * @param x        The block x coordinate
+     * @param y        The block y coordinate
+     * @param z        The block z coordinate
+     */
+    void add(long chunkKey, int x, int y, int z) {
+        int partition = getPartition(chunkKey);
+        long[] bits = this.partitions[partition];
+        if (bits == null || ++this.counts[partition] > (bits.length << 6) / BITS_PER_BLOCK) {
+            this.rebuild(partition);
+        } else {
+            set(bits, x, y, z);
+            this.published = this.partitions;
+        }
+    }
+
+    /**
+     * Adds every placed block of a chunk
+     *
+     * @param chunk The PlacedChunk
+     */
+    void addChunk(PlacedChunk chunk) {
+        int partition = getPartition(chunk.getKey());
+        long[] bits = this.partitions[partition];
+        if (bits == null || (this.counts[partition] += chunk.getCount()) > (bits.length << 6) / BITS_PER_BLOCK) {
+            this.rebuild(partition);
+        } else {
+            setChunk(bits, chunk);
+            this.published = this.partitions;
+        }
+    }
+
+    /**
+     * Marks placed blocks of a chunk as removed, they will stay in the filter until its partition is rebuilt
+     *
+     * @param chunkKey The key of the chunk the blocks were in
+     * @param amount   The number of removed blocks
+     */
+    void remove(long chunkKey, int amount) {
+        int partition = getPartition(chunkKey);
+        if (this.partitions[partition] == null)
+            return;
+
+        // Removed blocks make false positives more likely, once they make up half of the partition start over
+        this.removed[partition] += amount;
+        if (this.removed[partition] * 2 > this.counts[partition])
+            this.rebuild(partition);
+    }
+
+    /**
+     * Removes everything from this filter
+     */
+    void clear() {
+        this.partitions = new long[PARTITIONS][];
+        this.published = this.partitions;
+        Arrays.fill(this.counts, 0);
+        Arrays.fill(this.removed, 0);
+    }
+
+    /**
+     * @return The number of bytes used by this filter
+     */
+    long getSizeInBytes() {
+        long size = 0;
+        for (long[] bits : this.partitions)
+            if (bits != null)
+                size += (long) bits.length * Long.BYTES;
+        return size;
+    }
+
+    /**
+     * Gets the chance that a block that isn't placed passes this filter, assuming blocks are spread out evenly over chunks
+     *
+     * @return The expected false positive rate, from 0 to 1
+     */
+    double getExpectedFalsePositiveRate() {
+        double rate = 0;
+        for (int partition = 0; partition < PARTITIONS; partition++) {
+            long[] bits = this.partitions[partition];
+            if (bits != null)
+                rate += Math.pow(1 - Math.exp(-HASHES * (double) this.counts[partition] / (bits.length << 6)), HASHES);
+        }
+        return rate / PARTITIONS;
+    }
+
+    /**
+     * @return The number of times a partition has been rebuilt
+     */
+    int getRebuilds() {
+        return this.rebuilds;
+    }
+
+    private void rebuild(int partition) {
+        this.rebuilds++;
+
+        int[] count = new int[1];
+        this.chunks.forEach((chunkKey, chunk) -> {
+            if (getPartition(chunkKey) == partition)
+                count[0] += chunk.getCount();
+        });
+
+        this.counts[partition] = count[0];
+        this.removed[partition] = 0;
+        if (count[0] == 0) {
+            this.partitions[partition] = null;
+            this.published = this.partitions;
+            return;
+        }
+
+        // Leave room for the partition to double before it has to grow again
+        int words = MIN_WORDS;
+        while ((words << 6) < count[0] * 2 * BITS_PER_BLOCK)
+            words <<= 1;
+
+        long[] bits = new long[words];
+        this.chunks.forEach((chunkKey, chunk) -> {
+            if (getPartition(chunkKey) == partition)
+                setChunk(bits, chunk);
+        });
+
+        this.partitions[partition] = bits;
+        this.published = this.partitions;
+    }
+
+    private static void setChunk(long[] bits, PlacedChunk chunk) {
+        int baseX = PlacedBlockIndex.getChunkX(chunk.getKey()) << 4, baseZ = PlacedBlockIndex.getChunkZ(chunk.getKey()) << 4;
+        for (int sectionY = chunk.getMinSection(); sectionY < chunk.getMaxSection(); sectionY++) {
+            long[] section = chunk.getSection(sectionY);
+            if (section == null)
+                continue;
+
+            for (int word = 0; word < section.length; word++) {
+                long remaining = section[word];
+                while (remaining != 0) {
+                    int index = (word << 6) | Long.numberOfTrailingZeros(remaining);
+                    remaining &= remaining - 1;
+                    set(bits, baseX | (index & 15), (sectionY << 4) | (index >>> 8), baseZ | ((index >>> 4) & 15));
+                }
+            }
+        }
+    }
+
+    private static void set(long[] bits, int x, int y, int z) {
+        long hash = hash(x, y, z);
+        int step = (int) (hash >>> 32) | 1, mask = (bits.length << 6) - 1;
+        for (int i = 0, index = (int) hash; i < HASHES; i++, index += step)
+            bits[(index & mask) >>> 6] |= 1L << index;
+    }
+
+    private static long hash(int x, int y, int z) {
+        long hash = BlockPositions.pack(x, y, z);
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static int getPartition(long chunkKey) {
+        // Neighbouring chunks land in different partitions, keeping them evenly filled
+        long hash = chunkKey * 0x9E3779B97F4A7C15L;
+        return (int) (hash >>> 56) & (PARTITIONS - 1);
+    }
+
+}
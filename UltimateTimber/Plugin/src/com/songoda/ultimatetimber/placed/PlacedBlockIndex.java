@@ -0,0 +1,415 @@
+package com.songoda.ultimatetimber.placed;
+
+import com.songoda.ultimatetimber.misc.LongHashSet;
+import com.songoda.ultimatetimber.misc.LongObjectHashMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Indexes the placed blocks of a world by chunk
+ * Once the index holds more than its max size, the chunks that were changed the longest time ago are evicted as a whole
+ * Changed chunks are tracked so they can be saved, and chunks that are still being loaded from storage
+ * remember which blocks were broken in the meantime so the stored data can't bring them back
+ * Most blocks that are checked were never placed, a Bloom filter rejects those without locking the index
+ *
+ * Every method is synchronized since trees may be detected off of the main thread
+ */
+public class PlacedBlockIndex {
+
+    private final LongObjectHashMap<PlacedChunk> chunks;
+    private final LongHashSet dirtyChunks;
+    private final LongObjectHashMap<PlacedChunk> loadingChunks;
+    private final PlacedBlockFilter filter;
+    private final LongAdder filterRejections;
+    private long filterFalsePositives;
+    private PlacedChunk oldest, newest;
+    private int maxSize;
+    private int size;
+
+    /**
+     * @param maxSize The max number of placed blocks to keep, or 0 for no limit
+     */
+    public PlacedBlockIndex(int maxSize) {
+        this(maxSize, true);
+    }
+
+    /**
+     * @param maxSize  The max number of placed blocks to keep, or 0 for no limit
+     * @param filtered If lookups should go through a Bloom filter first
+     */
+    public PlacedBlockIndex(int maxSize, boolean filtered) {
+        this.chunks = new LongObjectHashMap<>();
+        this.dirtyChunks = new LongHashSet();
+        this.loadingChunks = new LongObjectHashMap<>();
+        this.filter = filtered ? new PlacedBlockFilter(this.chunks) : null;
+        this.filterRejections = new LongAdder();
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Gets the key of a chunk
+     *
+     * @param chunkX The chunk x coordinate
+     * @param chunkZ The chunk z coordinate
+     * @return The chunk key
+     */
+    public static long getChunkKey(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Gets the chunk x coordinate of a chunk key
+     *
+     * @param chunkKey The chunk key
+     * @return The chunk x coordinate
+     */
+    public static int getChunkX(long chunkKey) {
+        return (int) (chunkKey >> 32);
+    }
+
+    /**
+     * Gets the chunk z coordinate of a chunk key
+     *
+     * @param chunkKey The chunk key
+     * @return The chunk z coordinate
+     */
+    public static int getChunkZ(long chunkKey) {
+        return (int) chunkKey;
+    }
+
+    /**
+     * Checks if a block is placed
+     *
+     * @param x The block x coordinate
+     * @param y The block y coordinate
+     * @param z The block z coordinate
+     * @return True if the block is placed, otherwise false
+     */
+    public boolean isPlaced(int x, int y, int z) {
+        if (this.filter != null && !this.filter.mightContain(x, y, z)) {
+            this.filterRejections.increment();
+            return false;
+        }
+        return this.isPlacedInChunk(x, y, z);
+    }
+
+    private synchronized boolean isPlacedInChunk(int x, int y, int z) {
+        PlacedChunk chunk = this.chunks.get(getChunkKey(x >> 4, z >> 4));
+        boolean placed = chunk != null && chunk.isPlaced(x, y, z);
+        if (!placed && this.filter != null)
+            this.filterFalsePositives++;
+        return placed;
+    }
+
+    /**
+     * Marks a block as placed or not placed
+     *
+     * @param x      The block x coordinate
+     * @param y      The block y coordinate
+     * @param z      The block z coordinate
+     * @param placed If the block is placed
+     * @return True if the block changed, otherwise false
+     */
+    public synchronized boolean setPlaced(int x, int y, int z, boolean placed) {
+        long chunkKey = getChunkKey(x >> 4, z >> 4);
+        PlacedChunk brokenWhileLoading = this.loadingChunks.get(chunkKey);
+        if (brokenWhileLoading != null && brokenWhileLoading.setPlaced(x, y, z, !placed))
+            this.dirtyChunks.add(chunkKey);
+
+        PlacedChunk chunk = this.chunks.get(chunkKey);
+        if (chunk == null) {
+            if (!placed)
+                return false;
+            chunk = new PlacedChunk(chunkKey);
+            this.chunks.put(chunkKey, chunk);
+        } else {
+            this.unlink(chunk);
+        }
+
+        int previousCount = chunk.getCount();
+        boolean changed = chunk.setPlaced(x, y, z, placed);
+        this.size += chunk.getCount() - previousCount;
+
+        if (chunk.isEmpty()) {
+            this.chunks.remove(chunkKey);
+        } else {
+            this.link(chunk);
+        }
+
+        if (changed) {
+            this.dirtyChunks.add(chunkKey);
+            if (this.filter != null) {
+                if (placed) {
+                    this.filter.add(chunkKey, x, y, z);
+                } else {
+                    this.filter.remove(chunkKey, 1);
+                }
+            }
+        }
+
+        this.evict();
+        return changed;
+    }
+
+    /**
+     * Gets the placed blocks of a chunk
+     * Changes made to the returned chunk must be followed by {@link #putChunk(PlacedChunk)} to keep the size accurate
+     *
+     * @param chunkKey The chunk key
+     * @return The PlacedChunk, or null if nothing in the chunk is placed
+     */
+    public synchronized PlacedChunk getChunk(long chunkKey) {
+        return this.chunks.get(chunkKey);
+    }
+
+    /**
+     * Adds or replaces the placed blocks of a chunk
+     *
+     * @param chunk The PlacedChunk
+     */
+    public synchronized void putChunk(PlacedChunk chunk) {
+        this.removeChunk(chunk.getKey());
+        if (chunk.isEmpty())
+            return;
+
+        this.chunks.put(chunk.getKey(), chunk);
+        this.link(chunk);
+        this.size += chunk.getCount();
+        if (this.filter != null)
+            this.filter.addChunk(chunk);
+        this.evict();
+    }
+
+    /**
+     * Removes all placed blocks of a chunk
+     *
+     * @param chunkKey The chunk key
+     * @return The removed PlacedChunk, or null if nothing in the chunk was placed
+     */
+    public synchronized PlacedChunk removeChunk(long chunkKey) {
+        PlacedChunk chunk = this.chunks.remove(chunkKey);
+        if (chunk != null) {
+            this.unlink(chunk);
+            this.size -= chunk.getCount();
+            if (this.filter != null)
+                this.filter.remove(chunkKey, chunk.getCount());
+        }
+        return chunk;
+    }
+
+    /**
+     * Marks every block that is placed in a chunk as placed in this index
+     *
+     * @param chunk The PlacedChunk, must not be changed afterwards
+     */
+    public synchronized void addChunk(PlacedChunk chunk) {
+        if (chunk.isEmpty())
+            return;
+
+        PlacedChunk brokenWhileLoading = this.loadingChunks.get(chunk.getKey());
+        if (brokenWhileLoading != null)
+            brokenWhileLoading.andNot(chunk);
+
+        PlacedChunk existing = this.chunks.get(chunk.getKey());
+        if (existing != null)
+            chunk.or(existing);
+        this.putChunk(chunk);
+        this.dirtyChunks.add(chunk.getKey());
+    }
+
+    /**
+     * Marks a chunk as being loaded from storage
+     *
+     * @param chunkKey The chunk key
+     */
+    public synchronized void startLoading(long chunkKey) {
+        if (!this.loadingChunks.containsKey(chunkKey))
+            this.loadingChunks.put(chunkKey, new PlacedChunk(chunkKey));
+    }
+
+    /**
+     * Checks if a chunk is still being loaded from storage
+     *
+     * @param chunkKey The chunk key
+     * @return True if the chunk is loading, otherwise false
+     */
+    public synchronized boolean isLoading(long chunkKey) {
+        return this.loadingChunks.containsKey(chunkKey);
+    }
+
+    /**
+     * Merges the stored placed blocks of a chunk into this index
+     * Blocks placed while the chunk was loading are kept, and blocks broken while it was loading stay broken
+     *
+     * @param chunkKey    The chunk key
+     * @param storedChunk The stored PlacedChunk, or null if nothing was stored
+     */
+    public synchronized void finishLoading(long chunkKey, PlacedChunk storedChunk) {
+        PlacedChunk brokenWhileLoading = this.loadingChunks.remove(chunkKey);
+        if (brokenWhileLoading == null || storedChunk == null)
+            return;
+
+        storedChunk.andNot(brokenWhileLoading);
+        PlacedChunk chunk = this.chunks.get(chunkKey);
+        if (chunk != null)
+            storedChunk.or(chunk);
+        this.putChunk(storedChunk);
+    }
+
+    /**
+     * Removes a chunk that is no longer needed in memory
+     *
+     * @param chunkKey The chunk key
+     * @return The removed PlacedChunk if it changed since it was last saved, otherwise null
+     */
+    public synchronized PlacedChunk unloadChunk(long chunkKey) {
+        PlacedChunk chunk = this.removeChunk(chunkKey);
+        if (!this.dirtyChunks.remove(chunkKey))
+            return null;
+        return chunk != null ? chunk : new PlacedChunk(chunkKey);
+    }
+
+    /**
+     * Gets copies of every chunk that changed since it was last saved, and marks them as saved
+     * Chunks that are still loading are skipped since their stored data isn't known yet
+     *
+     * @return A List of changed PlacedChunks, empty chunks mean their stored data should be removed
+     */
+    public synchronized List<PlacedChunk> takeDirtyChunks() {
+        List<PlacedChunk> dirtyChunks = new ArrayList<>();
+        this.dirtyChunks.forEach(chunkKey -> {
+            if (this.loadingChunks.containsKey(chunkKey))
+                return;
+            PlacedChunk chunk = this.chunks.get(chunkKey);
+            dirtyChunks.add(chunk != null ? chunk.copy() : new PlacedChunk(chunkKey));
+        });
+
+        for (PlacedChunk chunk : dirtyChunks)
+            this.dirtyChunks.remove(chunk.getKey());
+        return dirtyChunks;
+    }
+
+    /**
+     * Runs an action for every chunk in this index
+     * The action must not change this index
+     *
+     * @param action The action to run
+     */
+    public synchronized void forEachChunk(LongObjectHashMap.EntryConsumer<? super PlacedChunk> action) {
+        this.chunks.forEach(action);
+    }
+
+    /**
+     * Gets the number of placed blocks in this index
+     *
+     * @return The number of placed blocks
+     */
+    public synchronized int size() {
+        return this.size;
+    }
+
+    /**
+     * Gets the number of chunks with placed blocks in this index
+     *
+     * @return The number of chunks
+     */
+    public synchronized int getChunkCount() {
+        return this.chunks.size();
+    }
+
+    /**
+     * Sets the max number of placed blocks to keep, evicting chunks if there are more than that
+     *
+     * @param maxSize The max number of placed blocks, or 0 for no limit
+     */
+    public synchronized void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        this.evict();
+    }
+
+    /**
+     * Removes everything from this index
+     */
+    public synchronized void clear() {
+        this.chunks.clear();
+        this.dirtyChunks.clear();
+        this.loadingChunks.clear();
+        this.oldest = this.newest = null;
+        this.size = 0;
+        if (this.filter != null)
+            this.filter.clear();
+    }
+
+    /**
+     * Gets the number of bytes used by the Bloom filter of this index
+     *
+     * @return The size of the filter in bytes, 0 if the index isn't filtered
+     */
+    public synchronized long getFilterSize() {
+        return this.filter != null ? this.filter.getSizeInBytes() : 0;
+    }
+
+    /**
+     * Gets the chance that a block that isn't placed gets past the Bloom filter, based on how full the filter is
+     *
+     * @return The expected false positive rate, from 0 to 1
+     */
+    public synchronized double getExpectedFalsePositiveRate() {
+        return this.filter != null ? this.filter.getExpectedFalsePositiveRate() : 1;
+    }
+
+    /**
+     * Gets how often a block that wasn't placed got past the Bloom filter in the lookups made so far
+     *
+     * @return The observed false positive rate, from 0 to 1
+     */
+    public synchronized double getObservedFalsePositiveRate() {
+        long negatives = this.filterRejections.sum() + this.filterFalsePositives;
+        return negatives == 0 ? 0 : (double) this.filterFalsePositives / negatives;
+    }
+
+    /**
+     * Gets the number of times part of the Bloom filter was rebuilt to drop removed blocks or to grow
+     *
+     * @return The number of filter rebuilds
+     */
+    public synchronized int getFilterRebuilds() {
+        return this.filter != null ? this.filter.getRebuilds() : 0;
+    }
+
+    private void evict() {
+        // Never evict the chunk that was just changed, a single chunk can hold more blocks than the limit
+        while (this.maxSize > 0 && this.size > this.maxSize && this.oldest != this.newest)
+            this.removeChunk(this.oldest.getKey());
+    }
+
+    private void link(PlacedChunk chunk) {
+        chunk.previous = this.newest;
+        chunk.next = null;
+        if (this.newest != null) {
+            this.newest.next = chunk;
+        } else {
+            this.oldest = chunk;
+        }
+        this.newest = chunk;
+    }
+
+    private void unlink(PlacedChunk chunk) {
+        if (chunk.previous != null) {
+            chunk.previous.next = chunk.next;
+        } else if (this.oldest == chunk) {
+            this.oldest = chunk.next;
+        }
+
+        if (chunk.next != null) {
+            chunk.next.previous = chunk.previous;
+        } else if (this.newest == chunk) {
+            this.newest = chunk.previous;
+        }
+
+        chunk.previous = chunk.next = null;
+    }
+
+}
@@ -0,0 +1,60 @@
+package com.songoda.ultimatetimber.placed;
+
+import org.bukkit.Chunk;
+import org.bukkit.World;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.function.Consumer;
+
+/**
+ * Keeps placed blocks between server restarts
+ * Every method is called on the main thread
+ */
+public interface PlacedBlockStorage {
+
+    /**
+     * Loads the placed blocks of a chunk without blocking the main thread
+     *
+     * @param world      The World the chunk is in
+     * @param chunkX     The chunk x coordinate
+     * @param chunkZ     The chunk z coordinate
+     * @param whenLoaded Called on the main thread with the stored PlacedChunk, or null if nothing is stored
+     */
+    void load(World world, int chunkX, int chunkZ, Consumer<PlacedChunk> whenLoaded);
+
+    /**
+     * Saves the placed blocks of chunks, empty chunks remove any stored data
+     * The given chunks must not be changed afterwards
+     *
+     * @param world  The World the chunks are in
+     * @param chunks The PlacedChunks to save
+     */
+    void save(World world, Collection<PlacedChunk> chunks);
+
+    /**
+     * Saves the placed blocks of a chunk that is unloading, an empty chunk removes any stored data
+     * The given chunk must not be changed afterwards
+     *
+     * @param worldChunk The Chunk that is unloading
+     * @param chunk      The PlacedChunk to save
+     */
+    default void saveUnloading(Chunk worldChunk, PlacedChunk chunk) {
+        this.save(worldChunk.getWorld(), Collections.singletonList(chunk));
+    }
+
+    /**
+     * Checks if chunks need to be loaded in the world to load or save their placed blocks
+     *
+     * @return True if only loaded chunks can be stored, otherwise false
+     */
+    default boolean requiresLoadedChunks() {
+        return false;
+    }
+
+    /**
+     * Finishes all pending saves and stops loading chunks
+     */
+    void close();
+
+}
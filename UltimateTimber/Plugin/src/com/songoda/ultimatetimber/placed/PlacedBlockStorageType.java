@@ -0,0 +1,23 @@
+package com.songoda.ultimatetimber.placed;
+
+/**
+ * The ways placed blocks can be stored between server restarts
+ */
+public enum PlacedBlockStorageType {
+    FILE,
+    CHUNK,
+    NONE;
+
+    /**
+     * Gets a PlacedBlockStorageType from a given string
+     *
+     * @param string The string
+     * @return The PlacedBlockStorageType, returns NONE if the string is an invalid type
+     */
+    public static PlacedBlockStorageType fromString(String string) {
+        for (PlacedBlockStorageType value : values())
+            if (value.name().equalsIgnoreCase(string))
+                return value;
+        return PlacedBlockStorageType.NONE;
+    }
+}
@@ -0,0 +1,222 @@
+package com.songoda.ultimatetimber.placed;
+
+import java.util.Arrays;
+
+/**
+ * The placed blocks of a single chunk, stored as one 4096 bit bitset per 16 block tall section
+ * Sections are only allocated once a block inside of them is placed
+ */
+public class PlacedChunk {
+
+    /**
+     * The number of longs needed to hold a bit for every block in a section
+     */
+    public static final int SECTION_WORDS = 4096 / Long.SIZE;
+
+    private final long key;
+    private long[][] sections;
+    private int minSection;
+    private int count;
+
+    // Links for the eviction order of the PlacedBlockIndex that owns this chunk
+    PlacedChunk previous, next;
+
+    public PlacedChunk(long key) {
+        this.key = key;
+        this.sections = new long[0][];
+    }
+
+    /**
+     * Gets the key of this chunk
+     *
+     * @return The chunk key, see {@link PlacedBlockIndex#getChunkKey(int, int)}
+     */
+    public long getKey() {
+        return this.key;
+    }
+
+    /**
+     * Checks if a block in this chunk is placed
+     *
+     * @param x The block x coordinate
+     * @param y The block y coordinate
+     * @param z The block z coordinate
+     * @return True if the block is placed, otherwise false
+     */
+    public boolean isPlaced(int x, int y, int z) {
+        int section = (y >> 4) - this.minSection;
+        if (section < 0 || section >= this.sections.length || this.sections[section] == null)
+            return false;
+
+        int index = getIndex(x, y, z);
+        return (this.sections[section][index >>> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * Marks a block in this chunk as placed or not placed
+     *
+     * @param x      The block x coordinate
+     * @param y      The block y coordinate
+     * @param z      The block z coordinate
+     * @param placed If the block is placed
+     * @return True if the block changed, otherwise false
+     */
+    public boolean setPlaced(int x, int y, int z, boolean placed) {
+        int sectionY = y >> 4;
+        long[] section = placed ? this.getOrCreateSection(sectionY) : this.getSection(sectionY);
+        if (section == null)
+            return false;
+
+        int index = getIndex(x, y, z);
+        long bit = 1L << index;
+        long word = section[index >>> 6];
+        if (((word & bit) != 0) == placed)
+            return false;
+
+        section[index >>> 6] = word ^ bit;
+        this.count += placed ? 1 : -1;
+        return true;
+    }
+
+    /**
+     * Gets the number of placed blocks in this chunk
+     *
+     * @return The number of placed blocks
+     */
+    public int getCount() {
+        return this.count;
+    }
+
+    /**
+     * @return True if there are no placed blocks in this chunk, otherwise false
+     */
+    public boolean isEmpty() {
+        return this.count == 0;
+    }
+
+    /**
+     * Gets the lowest section Y that may hold placed blocks
+     *
+     * @return The lowest section Y
+     */
+    public int getMinSection() {
+        return this.minSection;
+    }
+
+    /**
+     * Gets the highest section Y that may hold placed blocks, exclusive
+     *
+     * @return One above the highest section Y
+     */
+    public int getMaxSection() {
+        return this.minSection + this.sections.length;
+    }
+
+    /**
+     * Gets the bitset of a section, indexed by ((y & 15) << 8) | ((z & 15) << 4) | (x & 15)
+     *
+     * @param sectionY The section Y, the block y coordinate >> 4
+     * @return The bitset of the section, or null if nothing in the section has been placed
+     */
+    public long[] getSection(int sectionY) {
+        int section = sectionY - this.minSection;
+        return section < 0 || section >= this.sections.length ? null : this.sections[section];
+    }
+
+    /**
+     * Replaces the bitset of a section
+     *
+     * @param sectionY The section Y, the block y coordinate >> 4
+     * @param bits     The new bitset of the section, or null to clear it
+     */
+    public void setSection(int sectionY, long[] bits) {
+        long[] section = bits == null ? this.getSection(sectionY) : this.getOrCreateSection(sectionY);
+        if (section == null)
+            return;
+
+        for (long word : section)
+            this.count -= Long.bitCount(word);
+
+        if (bits == null) {
+            Arrays.fill(section, 0);
+            return;
+        }
+
+        System.arraycopy(bits, 0, section, 0, SECTION_WORDS);
+        for (long word : section)
+            this.count += Long.bitCount(word);
+    }
+
+    /**
+     * Marks every block that is placed in another chunk as placed in this one
+     *
+     * @param other The other PlacedChunk
+     */
+    public void or(PlacedChunk other) {
+        for (int sectionY = other.getMinSection(); sectionY < other.getMaxSection(); sectionY++) {
+            long[] bits = other.getSection(sectionY);
+            if (bits == null)
+                continue;
+
+            long[] section = this.getOrCreateSection(sectionY);
+            for (int i = 0; i < SECTION_WORDS; i++) {
+                this.count += Long.bitCount(bits[i] & ~section[i]);
+                section[i] |= bits[i];
+            }
+        }
+    }
+
+    /**
+     * Marks every block that is placed in another chunk as not placed in this one
+     *
+     * @param other The other PlacedChunk
+     */
+    public void andNot(PlacedChunk other) {
+        for (int sectionY = other.getMinSection(); sectionY < other.getMaxSection(); sectionY++) {
+            long[] bits = other.getSection(sectionY);
+            long[] section = this.getSection(sectionY);
+            if (bits == null || section == null)
+                continue;
+
+            for (int i = 0; i < SECTION_WORDS; i++) {
+                this.count -= Long.bitCount(bits[i] & section[i]);
+                section[i] &= ~bits[i];
+            }
+        }
+    }
+
+    /**
+     * Copies this chunk, so it can be read on another thread while this one keeps changing
+     *
+     * @return A new PlacedChunk with the same placed blocks
+     */
+    public PlacedChunk copy() {
+        PlacedChunk copy = new PlacedChunk(this.key);
+        copy.or(this);
+        return copy;
+    }
+
+    private long[] getOrCreateSection(int sectionY) {
+        if (this.sections.length == 0) {
+            this.sections = new long[1][];
+            this.minSection = sectionY;
+        } else if (sectionY < this.minSection) {
+            long[][] sections = new long[this.sections.length + this.minSection - sectionY][];
+            System.arraycopy(this.sections, 0, sections, this.minSection - sectionY, this.sections.length);
+            this.sections = sections;
+            this.minSection = sectionY;
+        } else if (sectionY >= this.minSection + this.sections.length) {
+            this.sections = Arrays.copyOf(this.sections, sectionY - this.minSection + 1);
+        }
+
+        int section = sectionY - this.minSection;
+        if (this.sections[section] == null)
+            this.sections[section] = new long[SECTION_WORDS];
+        return this.sections[section];
+    }
+
+    private static int getIndex(int x, int y, int z) {
+        return ((y & 15) << 8) | ((z & 15) << 4) | (x & 15);
+    }
+
+}
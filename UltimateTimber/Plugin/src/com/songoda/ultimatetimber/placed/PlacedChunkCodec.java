@@ -0,0 +1,138 @@
+package com.songoda.ultimatetimber.placed;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Converts PlacedChunks to and from a compact binary format
+ * Each section is written either as runs of placed blocks or as its raw bitset, whichever is smaller
+ */
+public class PlacedChunkCodec {
+
+    private static final byte BITSET = 0, RUNS = 1;
+    private static final int BITSET_SIZE = PlacedChunk.SECTION_WORDS * Long.BYTES;
+
+    /**
+     * Encodes a PlacedChunk
+     *
+     * @param chunk The PlacedChunk to encode
+     * @return The encoded bytes
+     */
+    public static byte[] encode(PlacedChunk chunk) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            int sectionCount = 0;
+            for (int sectionY = chunk.getMinSection(); sectionY < chunk.getMaxSection(); sectionY++)
+                if (!isEmpty(chunk.getSection(sectionY)))
+                    sectionCount++;
+
+            output.writeShort(sectionCount);
+            for (int sectionY = chunk.getMinSection(); sectionY < chunk.getMaxSection(); sectionY++) {
+                long[] section = chunk.getSection(sectionY);
+                if (isEmpty(section))
+                    continue;
+
+                output.writeShort(sectionY);
+                int runCount = countRuns(section);
+                if (2 + runCount * 4 < BITSET_SIZE) {
+                    output.writeByte(RUNS);
+                    writeRuns(output, section, runCount);
+                } else {
+                    output.writeByte(BITSET);
+                    for (long word : section)
+                        output.writeLong(word);
+                }
+            }
+        } catch (IOException e) {
+            // Writing to a byte array never fails
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes a PlacedChunk
+     *
+     * @param chunkKey The key of the chunk
+     * @param data     The encoded bytes
+     * @return The decoded PlacedChunk
+     * @throws IOException If the data is malformed
+     */
+    public static PlacedChunk decode(long chunkKey, byte[] data) throws IOException {
+        PlacedChunk chunk = new PlacedChunk(chunkKey);
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(data));
+        long[] section = new long[PlacedChunk.SECTION_WORDS];
+
+        int sectionCount = input.readUnsignedShort();
+        for (int i = 0; i < sectionCount; i++) {
+            int sectionY = input.readShort();
+            byte encoding = input.readByte();
+            switch (encoding) {
+                case BITSET:
+                    for (int j = 0; j < section.length; j++)
+                        section[j] = input.readLong();
+                    break;
+                case RUNS:
+                    readRuns(input, section);
+                    break;
+                default:
+                    throw new IOException("Unknown section encoding " + encoding);
+            }
+            chunk.setSection(sectionY, section);
+        }
+        return chunk;
+    }
+
+    private static boolean isEmpty(long[] section) {
+        if (section == null)
+            return true;
+        for (long word : section)
+            if (word != 0)
+                return false;
+        return true;
+    }
+
+    private static int countRuns(long[] section) {
+        int runs = 0;
+        boolean previous = false;
+        for (int index = 0; index < 4096; index++) {
+            boolean placed = (section[index >>> 6] & (1L << index)) != 0;
+            if (placed && !previous)
+                runs++;
+            previous = placed;
+        }
+        return runs;
+    }
+
+    private static void writeRuns(DataOutputStream output, long[] section, int runCount) throws IOException {
+        output.writeShort(runCount);
+        int start = -1;
+        for (int index = 0; index <= 4096; index++) {
+            boolean placed = index < 4096 && (section[index >>> 6] & (1L << index)) != 0;
+            if (placed && start == -1) {
+                start = index;
+            } else if (!placed && start != -1) {
+                output.writeShort(start);
+                output.writeShort(index - start);
+                start = -1;
+            }
+        }
+    }
+
+    private static void readRuns(DataInputStream input, long[] section) throws IOException {
+        Arrays.fill(section, 0);
+        int runCount = input.readUnsignedShort();
+        for (int i = 0; i < runCount; i++) {
+            int start = input.readUnsignedShort(), length = input.readUnsignedShort();
+            if (start + length > 4096)
+                throw new IOException("Run out of section bounds");
+            for (int index = start; index < start + length; index++)
+                section[index >>> 6] |= 1L << index;
+        }
+    }
+
+}
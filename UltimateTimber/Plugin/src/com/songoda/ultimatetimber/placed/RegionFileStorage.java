@@ -0,0 +1,251 @@
+package com.songoda.ultimatetimber.placed;
+
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.plugin.Plugin;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+/**
+ * Stores placed blocks in one file per 32x32 chunk region, in a folder per world
+ * All file access happens in order on a single background thread, so a chunk that is loaded
+ * right after it was saved always sees the saved data
+ * The most recently used regions are kept parsed, so loading every chunk of a region only reads its file once
+ */
+public class RegionFileStorage implements PlacedBlockStorage {
+
+    private static final int MAGIC = 0x55545042; // UTPB
+    private static final int VERSION = 1;
+    private static final int CACHED_REGIONS = 16;
+
+    private final Plugin plugin;
+    private final File folder;
+    private final ExecutorService executor;
+    private final Map<File, Map<Integer, byte[]>> cachedRegions;
+    private volatile boolean closed;
+
+    public RegionFileStorage(Plugin plugin, File folder) {
+        this.plugin = plugin;
+        this.folder = folder;
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "UltimateTimber Placed Block IO");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // Only used on the IO thread
+        this.cachedRegions = new LinkedHashMap<File, Map<Integer, byte[]>>(CACHED_REGIONS, 0.75F, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<File, Map<Integer, byte[]>> eldest) {
+                return this.size() > CACHED_REGIONS;
+            }
+        };
+    }
+
+    @Override
+    public void load(World world, int chunkX, int chunkZ, Consumer<PlacedChunk> whenLoaded) {
+        File regionFile = this.getRegionFile(world, chunkX >> 5, chunkZ >> 5);
+        long chunkKey = PlacedBlockIndex.getChunkKey(chunkX, chunkZ);
+        this.executor.execute(() -> {
+            if (this.closed)
+                return;
+
+            PlacedChunk chunk = null;
+            try {
+                byte[] data = this.readRegion(regionFile).get(getLocalIndex(chunkX, chunkZ));
+                if (data != null)
+                    chunk = PlacedChunkCodec.decode(chunkKey, data);
+            } catch (IOException ex) {
+                this.plugin.getLogger().log(Level.WARNING, "Failed to load placed blocks from " + regionFile.getName(), ex);
+            }
+
+            PlacedChunk loadedChunk = chunk;
+            if (!this.closed && this.plugin.isEnabled())
+                Bukkit.getScheduler().runTask(this.plugin, () -> whenLoaded.accept(loadedChunk));
+        });
+    }
+
+    @Override
+    public void save(World world, Collection<PlacedChunk> chunks) {
+        if (chunks.isEmpty())
+            return;
+
+        // Batch the chunks by region so each region file is only rewritten once
+        Map<Long, List<PlacedChunk>> regions = new HashMap<>();
+        for (PlacedChunk chunk : chunks) {
+            int chunkX = PlacedBlockIndex.getChunkX(chunk.getKey()), chunkZ = PlacedBlockIndex.getChunkZ(chunk.getKey());
+            regions.computeIfAbsent(PlacedBlockIndex.getChunkKey(chunkX >> 5, chunkZ >> 5), key -> new ArrayList<>()).add(chunk);
+        }
+
+        for (Map.Entry<Long, List<PlacedChunk>> region : regions.entrySet()) {
+            File regionFile = this.getRegionFile(world, PlacedBlockIndex.getChunkX(region.getKey()), PlacedBlockIndex.getChunkZ(region.getKey()));
+            List<PlacedChunk> regionChunks = region.getValue();
+            this.executor.execute(() -> {
+                try {
+                    this.writeRegion(regionFile, regionChunks);
+                } catch (IOException ex) {
+                    this.plugin.getLogger().log(Level.WARNING, "Failed to save placed blocks to " + regionFile.getName(), ex);
+                }
+            });
+        }
+    }
+
+    @Override
+    public void close() {
+        this.closed = true;
+        this.executor.shutdown();
+        try {
+            if (!this.executor.awaitTermination(1, TimeUnit.MINUTES))
+                this.plugin.getLogger().warning("Timed out while saving placed blocks, some placed blocks may be forgotten.");
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private File getRegionFile(World world, int regionX, int regionZ) {
+        return new File(new File(this.folder, world.getUID().toString()), "r." + regionX + "." + regionZ + ".dat");
+    }
+
+    /**
+     * Reads the encoded chunks of a region file, or gets them from the cache
+     * The returned Map is cached, so it must only be changed to match what is written to the file
+     *
+     * @param regionFile The region file
+     * @return A Map of local chunk index to encoded chunk, empty if the file doesn't exist
+     * @throws CorruptRegionException If the file isn't a valid region file
+     * @throws IOException            If the file couldn't be read, or was written by a newer version
+     */
+    private Map<Integer, byte[]> readRegion(File regionFile) throws IOException {
+        Map<Integer, byte[]> chunks = this.cachedRegions.get(regionFile);
+        if (chunks != null)
+            return chunks;
+
+        chunks = new HashMap<>();
+        if (regionFile.exists()) {
+            try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(regionFile)))) {
+                if (input.readInt() != MAGIC)
+                    throw new CorruptRegionException("Not a placed block region file");
+                int version = input.readUnsignedByte();
+                if (version != VERSION)
+                    throw new IOException("Unsupported placed block region version " + version + ", it may have been written by a newer version");
+
+                int chunkCount = input.readUnsignedShort();
+                for (int i = 0; i < chunkCount; i++) {
+                    int localIndex = input.readUnsignedShort();
+                    int length = input.readInt();
+                    if (length < 0)
+                        throw new CorruptRegionException("Negative chunk length " + length);
+
+                    byte[] data = new byte[length];
+                    input.readFully(data);
+                    chunks.put(localIndex, data);
+                }
+            } catch (EOFException ex) {
+                throw new CorruptRegionException("The region file ends early", ex);
+            }
+        }
+
+        this.cachedRegions.put(regionFile, chunks);
+        return chunks;
+    }
+
+    /**
+     * Replaces chunks in a region file, removing the file once it holds no chunks
+     *
+     * @param regionFile The region file
+     * @param chunks     The chunks to replace
+     */
+    private void writeRegion(File regionFile, List<PlacedChunk> chunks) throws IOException {
+        // Any other failure to read the region is thrown, so a region that can't be read right now is never overwritten
+        Map<Integer, byte[]> regionChunks;
+        try {
+            regionChunks = this.readRegion(regionFile);
+        } catch (CorruptRegionException ex) {
+            // Don't keep failing to write a region because it got corrupted, back it up and start it over instead
+            File backupFile = new File(regionFile.getParentFile(), regionFile.getName() + ".corrupt");
+            Files.move(regionFile.toPath(), backupFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            this.plugin.getLogger().log(Level.WARNING, "Moved unreadable placed blocks in " + regionFile.getName() + " to " + backupFile.getName() + " and started the region over", ex);
+            regionChunks = new HashMap<>();
+            this.cachedRegions.put(regionFile, regionChunks);
+        }
+
+        for (PlacedChunk chunk : chunks) {
+            int localIndex = getLocalIndex(PlacedBlockIndex.getChunkX(chunk.getKey()), PlacedBlockIndex.getChunkZ(chunk.getKey()));
+            if (chunk.isEmpty()) {
+                regionChunks.remove(localIndex);
+            } else {
+                regionChunks.put(localIndex, PlacedChunkCodec.encode(chunk));
+            }
+        }
+
+        if (regionChunks.isEmpty()) {
+            Files.deleteIfExists(regionFile.toPath());
+            return;
+        }
+
+        File parent = regionFile.getParentFile();
+        if (!parent.exists() && !parent.mkdirs())
+            throw new IOException("Failed to create " + parent);
+
+        // Write to a temporary file first so a crash mid-write never leaves a broken region behind
+        File tempFile = new File(parent, regionFile.getName() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            output.writeInt(MAGIC);
+            output.writeByte(VERSION);
+            output.writeShort(regionChunks.size());
+            for (Map.Entry<Integer, byte[]> entry : regionChunks.entrySet()) {
+                output.writeShort(entry.getKey());
+                output.writeInt(entry.getValue().length);
+                output.write(entry.getValue());
+            }
+        }
+
+        try {
+            Files.move(tempFile.toPath(), regionFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(tempFile.toPath(), regionFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static int getLocalIndex(int chunkX, int chunkZ) {
+        return (chunkX & 31) | (chunkZ & 31) << 5;
+    }
+
+    /**
+     * Thrown when a region file is damaged, as opposed to being unreadable for now or written by a newer version
+     */
+    private static class CorruptRegionException extends IOException {
+
+        private CorruptRegionException(String message) {
+            super(message);
+        }
+
+        private CorruptRegionException(String message, Throwable cause) {
+            super(message, cause);
+        }
+
+    }
+
+}
@@ -5,6 +5,7 @@ import com.songoda.core.compatibility.ServerVersion;
 import com.songoda.ultimatetimber.tree.ITreeBlock;
 import org.bukkit.Location;
 import org.bukkit.block.Block;
+import org.bukkit.block.data.BlockData;
 import org.bukkit.entity.FallingBlock;
 import org.bukkit.inventory.ItemStack;
 
@@ -27,6 +28,11 @@ public class BlockUtils {
             if (material == null)
                 return drops;
             drops.add(material.getItem());
+        } else if (treeBlock.getBlock() instanceof BlockData) {
+            CompatibleMaterial material = CompatibleMaterial.getMaterial(((BlockData)treeBlock.getBlock()).getMaterial());
+            if (material == null)
+                return drops;
+            drops.add(material.getItem());
         }
         return drops;
     }